@@ -0,0 +1,205 @@
+package processor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a file of queries against an IndexReader on a pool of workers and writes a TREC run.
+ * The topics file has one query a line, its id then its text, split by the first space, tab or colon.
+ * Blank lines and lines starting with # are skipped.
+ * Queries are ranked with BM25, or BM25F when field weights are given.
+ * Each worker parses, searches and formats its own query so the only work on the calling thread
+ * is writing finished lines. Results are written in topic order as soon as every query before
+ * them is done, with only a few queries a worker in flight, so a topics file of any size
+ * streams through without being held in memory.
+ *
+ * The run file has a line per result in the TREC format
+ * qid Q0 docno rank score tag
+ * and the latency file a line per query of its id, number of results and milliseconds taken.
+ * The reader must not change while the batch runs, a MemoryIndexReader or MappedIndex is never changed.
+ */
+public class BatchSearcher {
+
+	public static final String DEFAULT_RUN_TAG = "bm25";
+
+	//queries queued a worker, enough to keep the workers busy while the writer catches up
+	private static final int IN_FLIGHT_PER_THREAD = 4;
+
+	/**
+	 * Turns the text of a query in to the terms to search for
+	 */
+	public interface QueryParser {
+		ArrayList<String> parse(String text) throws Exception;
+	}
+
+	/**
+	 * The formatted results of one query
+	 */
+	private static final class Result {
+
+		private final String run;
+		private final String latency;
+		private final long nanos;
+
+		private Result(String run, String latency, long nanos){
+			this.run = run;
+			this.latency = latency;
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * Run every query of a topics file
+	 * @param index IndexReader to search
+	 * @param topicsFile file of queries
+	 * @param runFile file to write the ranked results to
+	 * @param latencyFile file to write the time taken by each query to
+	 * @param parser QueryParser to make the terms of each query
+	 * @param weights FieldWeights to rank with BM25F, or null for BM25
+	 * @param k number of results a query
+	 * @param numThreads number of worker threads
+	 * @param runTag name of the run written on each result
+	 * @return milliseconds taken by each query in topic order
+	 */
+	public static double[] run(
+			IndexReader index,
+			File topicsFile,
+			File runFile,
+			File latencyFile,
+			QueryParser parser,
+			Weighting.FieldWeights weights,
+			int k,
+			int numThreads,
+			String runTag) throws IOException, InterruptedException{
+
+		ExecutorService pool = Workers.newPool(numThreads, false, "query");
+		int maxInFlight = Math.max(1, numThreads) * IN_FLIGHT_PER_THREAD;
+		ArrayDeque<Future<Result>> inFlight = new ArrayDeque<>();
+		double[] latencies = new double[64];
+		int numQueries = 0;
+
+		try (BufferedReader topics = new BufferedReader(new FileReader(topicsFile));
+				Writer run = new BufferedWriter(new FileWriter(runFile));
+				Writer latency = new BufferedWriter(new FileWriter(latencyFile))) {
+
+			String line;
+			while((line = topics.readLine()) != null){
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")){
+					continue;
+				}
+				int split = 0;
+				while(split < line.length() && " \t:".indexOf(line.charAt(split)) < 0){
+					split++;
+				}
+				String id = line.substring(0, split);
+				String text = split < line.length() ? line.substring(split + 1) : "";
+
+				if(inFlight.size() >= maxInFlight){
+					latencies = write(inFlight.poll(), run, latency, latencies, numQueries++);
+				}
+				inFlight.add(pool.submit(() -> search(index, id, text, parser, weights, k, runTag)));
+			}
+			while(!inFlight.isEmpty()){
+				latencies = write(inFlight.poll(), run, latency, latencies, numQueries++);
+			}
+		} finally {
+			for(Future<Result> result : inFlight){
+				result.cancel(true);
+			}
+			pool.shutdown();
+		}
+		return Arrays.copyOf(latencies, numQueries);
+	}
+
+	/**
+	 * Parse, run and format one query, timing all of it
+	 */
+	private static Result search(
+			IndexReader index,
+			String id,
+			String text,
+			QueryParser parser,
+			Weighting.FieldWeights weights,
+			int k,
+			String runTag) throws Exception{
+
+		long start = System.nanoTime();
+		TopDocs results = Searcher.search(index, parser.parse(text), k, weights);
+		StringBuilder run = new StringBuilder();
+		for(int rank = 0; rank < results.size(); rank++){
+			run.append(id).append(" Q0 ").append(index.getDocName(results.getDocId(rank)))
+				.append(' ').append(rank + 1).append(' ').append(results.getScore(rank))
+				.append(' ').append(runTag).append('\n');
+		}
+		long nanos = System.nanoTime() - start;
+		String latency = id + "\t" + results.size() + "\t" + String.format("%.3f", nanos / 1e6) + "\n";
+		return new Result(run.toString(), latency, nanos);
+	}
+
+	/**
+	 * Wait for a query and write its results
+	 * @return latencies, grown if it was full
+	 */
+	private static double[] write(
+			Future<Result> pending,
+			Writer run,
+			Writer latency,
+			double[] latencies,
+			int query) throws IOException, InterruptedException{
+
+		Result result;
+		try {
+			result = pending.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Query " + (query + 1) + " failed : " + e.getCause().getMessage(), e.getCause());
+		}
+		run.write(result.run);
+		latency.write(result.latency);
+		if(query == latencies.length){
+			latencies = Arrays.copyOf(latencies, query * 2);
+		}
+		latencies[query] = result.nanos / 1e6;
+		return latencies;
+	}
+
+	/**
+	 * Describe the latencies of a batch
+	 * @param latencies milliseconds taken by each query
+	 * @param elapsedMillis time the whole batch took
+	 * @return number of queries, throughput and mean, median, 99th percentile and max latency
+	 */
+	public static String summary(double[] latencies, double elapsedMillis){
+
+		if(latencies.length == 0){
+			return "No queries run";
+		}
+		double[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		double total = 0.0;
+		for(double latency : sorted){
+			total += latency;
+		}
+		return String.format("%d queries in %.1f ms, %.1f queries/s, latency ms mean %.3f, p50 %.3f, p99 %.3f, max %.3f",
+				sorted.length, elapsedMillis, sorted.length * 1000.0 / elapsedMillis, total / sorted.length,
+				percentile(sorted, 0.5), percentile(sorted, 0.99), sorted[sorted.length - 1]);
+	}
+
+	/**
+	 * @return the value at a fraction of the way through sorted values, nearest rank
+	 */
+	private static double percentile(double[] sorted, double fraction){
+		return sorted[Math.max(0, (int)Math.ceil(fraction * sorted.length) - 1)];
+	}
+}
@@ -0,0 +1,296 @@
+package processor;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Frame of reference bit packing.
+ * Each block of doc id gaps is packed with the fewest bits that hold its largest gap,
+ * and its term frequencies likewise with their own bit width, so a block of a common
+ * term with small gaps and frequencies can take only a few bits a posting.
+ * As many values as fit whole are packed in to each long, so no value is split between
+ * two longs and a block is decoded with a shift and a mask per value and no branches,
+ * by a loop the JIT specialises for each width.
+ * This wastes the spare bits of a long when the width does not divide 64, which is
+ * nothing for the narrow widths of common terms.
+ */
+public class BlockPackedCodec implements PostingsCodec {
+
+	public static final String NAME = "packed";
+	//bytes written before the longs for each block by write
+	static final int BLOCK_HEADER_SIZE = 8;
+
+	private static final class PackedPostings extends BlockPostings {
+
+		private final long[] words;
+		//index in to words of the gaps and of the frequencies of each block
+		private final int[] docOffsets;
+		private final int[] tfOffsets;
+		private final byte[] docBits;
+		private final byte[] tfBits;
+
+		private PackedPostings(PostingsList postings){
+
+			super(postings);
+			int numBlocks = blockBases.length;
+			docOffsets = new int[numBlocks];
+			tfOffsets = new int[numBlocks];
+			docBits = new byte[numBlocks];
+			tfBits = new byte[numBlocks];
+
+			int[] gaps = new int[BLOCK_SIZE];
+			int[] tfs = new int[BLOCK_SIZE];
+			int numWords = 0;
+			for(int b = 0; b < numBlocks; b++){
+				int length = readBlock(postings, b, gaps, tfs);
+				docBits[b] = (byte)bitsFor(gaps, length);
+				tfBits[b] = (byte)bitsFor(tfs, length);
+				docOffsets[b] = numWords;
+				numWords += wordsFor(length, docBits[b]);
+				tfOffsets[b] = numWords;
+				numWords += wordsFor(length, tfBits[b]);
+			}
+
+			words = new long[numWords];
+			for(int b = 0; b < numBlocks; b++){
+				int length = readBlock(postings, b, gaps, tfs);
+				pack(gaps, length, docBits[b], docOffsets[b]);
+				pack(tfs, length, tfBits[b], tfOffsets[b]);
+			}
+		}
+
+		/**
+		 * Read the gaps less one and term frequencies less one of a block
+		 * @return number of postings in the block
+		 */
+		private int readBlock(PostingsList postings, int b, int[] gaps, int[] tfs){
+
+			int length = blockLength(b);
+			int start = b << BLOCK_SHIFT;
+			int previous = blockBases[b];
+			for(int i = 0; i < length; i++){
+				int docId = postings.getDocId(start + i);
+				gaps[i] = docId - previous - 1;
+				tfs[i] = postings.getTf(start + i) - 1;
+				previous = docId;
+			}
+			return length;
+		}
+
+		private static int bitsFor(int[] values, int length){
+
+			int or = 0;
+			for(int i = 0; i < length; i++){
+				or |= values[i];
+			}
+			return 32 - Integer.numberOfLeadingZeros(or);
+		}
+
+		/**
+		 * Write values of bits bits each in to the longs starting at word
+		 */
+		private void pack(int[] values, int length, int bits, int word){
+
+			if(bits == 0){
+				return;
+			}
+			int perWord = 64 / bits;
+			for(int i = 0; i < length; i++){
+				words[word + i / perWord] |= (values[i] & 0xffffffffL) << ((i % perWord) * bits);
+			}
+		}
+
+		@Override
+		protected void decodeDocIds(int b, int[] docIds){
+			BlockPackedCodec.decodeDocIds(words, docOffsets[b], blockBases[b], docIds, blockLength(b), docBits[b]);
+		}
+
+		@Override
+		protected void decodeTfs(int b, int[] termFrequencies){
+			BlockPackedCodec.decodeTfs(words, tfOffsets[b], termFrequencies, blockLength(b), tfBits[b]);
+		}
+
+		/**
+		 * Write the blocks in the layout of write
+		 */
+		private void write(DataOutput out) throws IOException{
+
+			for(int b = 0; b < blockBases.length; b++){
+				out.writeInt(blockBases[b]);
+				out.writeByte(docBits[b]);
+				out.writeByte(tfBits[b]);
+				out.writeShort(0);
+			}
+			for(long word : words){
+				out.writeLong(word);
+			}
+		}
+
+		/**
+		 * @return number of bytes write writes
+		 */
+		private long getWrittenSize(){
+			return (long)blockBases.length * BLOCK_HEADER_SIZE + (long)words.length * 8;
+		}
+
+		@Override
+		public long getSizeInBytes(){
+			return (long)words.length * 8 + (long)blockBases.length * 14;
+		}
+	}
+
+	/**
+	 * @return number of longs that hold length values of bits bits
+	 */
+	static int wordsFor(int length, int bits){
+
+		if(bits == 0){
+			return 0;
+		}
+		int perWord = 64 / bits;
+		return (length + perWord - 1) / perWord;
+	}
+
+	/**
+	 * Decode the doc ids of a block from its packed gaps
+	 * @param words packed longs
+	 * @param word index of the first long of the gaps
+	 * @param base id of the doc before the block
+	 * @param docIds filled with the doc ids of the block
+	 * @param length number of postings in the block
+	 * @param bits width of the gaps
+	 */
+	static void decodeDocIds(long[] words, int word, int base, int[] docIds, int length, int bits){
+
+		unpack(words, word, docIds, length, bits);
+		int docId = base;
+		for(int i = 0; i < length; i++){
+			docId += docIds[i] + 1;
+			docIds[i] = docId;
+		}
+	}
+
+	/**
+	 * Decode the term frequencies of a block
+	 * @param words packed longs
+	 * @param word index of the first long of the frequencies
+	 * @param termFrequencies filled with the term frequencies of the block
+	 * @param length number of postings in the block
+	 * @param bits width of the frequencies
+	 */
+	static void decodeTfs(long[] words, int word, int[] termFrequencies, int length, int bits){
+
+		unpack(words, word, termFrequencies, length, bits);
+		for(int i = 0; i < length; i++){
+			termFrequencies[i]++;
+		}
+	}
+
+	/**
+	 * Read values of bits bits each from the longs starting at word
+	 * Each width has a call of its own with the width as a constant, so once the JIT
+	 * has inlined them every width is unpacked by a loop specialised for it, with fixed
+	 * shifts and a fixed number of values a long that it can unroll.
+	 * @param words packed longs
+	 * @param word index of the first long of the values
+	 * @param values filled with the values
+	 * @param length number of values
+	 * @param bits width of each value, 0 to 32
+	 */
+	static void unpack(long[] words, int word, int[] values, int length, int bits){
+
+		switch(bits){
+			case 0: Arrays.fill(values, 0, length, 0); return;
+			case 1: unpack(words, word, values, length, 1, 64); return;
+			case 2: unpack(words, word, values, length, 2, 32); return;
+			case 3: unpack(words, word, values, length, 3, 21); return;
+			case 4: unpack(words, word, values, length, 4, 16); return;
+			case 5: unpack(words, word, values, length, 5, 12); return;
+			case 6: unpack(words, word, values, length, 6, 10); return;
+			case 7: unpack(words, word, values, length, 7, 9); return;
+			case 8: unpack(words, word, values, length, 8, 8); return;
+			case 9: unpack(words, word, values, length, 9, 7); return;
+			case 10: unpack(words, word, values, length, 10, 6); return;
+			case 11: unpack(words, word, values, length, 11, 5); return;
+			case 12: unpack(words, word, values, length, 12, 5); return;
+			case 13: unpack(words, word, values, length, 13, 4); return;
+			case 14: unpack(words, word, values, length, 14, 4); return;
+			case 15: unpack(words, word, values, length, 15, 4); return;
+			case 16: unpack(words, word, values, length, 16, 4); return;
+			case 17: unpack(words, word, values, length, 17, 3); return;
+			case 18: unpack(words, word, values, length, 18, 3); return;
+			case 19: unpack(words, word, values, length, 19, 3); return;
+			case 20: unpack(words, word, values, length, 20, 3); return;
+			case 21: unpack(words, word, values, length, 21, 3); return;
+			case 22: unpack(words, word, values, length, 22, 2); return;
+			case 23: unpack(words, word, values, length, 23, 2); return;
+			case 24: unpack(words, word, values, length, 24, 2); return;
+			case 25: unpack(words, word, values, length, 25, 2); return;
+			case 26: unpack(words, word, values, length, 26, 2); return;
+			case 27: unpack(words, word, values, length, 27, 2); return;
+			case 28: unpack(words, word, values, length, 28, 2); return;
+			case 29: unpack(words, word, values, length, 29, 2); return;
+			case 30: unpack(words, word, values, length, 30, 2); return;
+			case 31: unpack(words, word, values, length, 31, 2); return;
+			case 32: unpack(words, word, values, length, 32, 2); return;
+			default: throw new IllegalArgumentException("Can not unpack values of " + bits + " bits");
+		}
+	}
+
+	/**
+	 * Read values of a fixed width, perWord to each long
+	 */
+	private static void unpack(long[] words, int word, int[] values, int length, int bits, int perWord){
+
+		long mask = (1L << bits) - 1;
+		int full = length / perWord;
+		int i = 0;
+		for(int w = 0; w < full; w++){
+			long packed = words[word + w];
+			for(int j = 0; j < perWord; j++){
+				values[i + j] = (int)((packed >>> (j * bits)) & mask);
+			}
+			i += perWord;
+		}
+		if(i < length){
+			long packed = words[word + full];
+			for(int j = 0; i + j < length; j++){
+				values[i + j] = (int)((packed >>> (j * bits)) & mask);
+			}
+		}
+	}
+
+	/**
+	 * Write postings packed, in the layout a MappedIndex reads them in:
+	 * a BLOCK_HEADER_SIZE header for each block with the doc before it as an int and the
+	 * bit widths of its gaps and of its frequencies as a byte each, then the longs of
+	 * every block, its gaps followed by its frequencies.
+	 * Everything written is a whole number of longs, so the longs stay aligned when
+	 * the postings of one term follow another.
+	 * @param postings postings to write
+	 * @param out where the postings are written
+	 * @throws IOException if out can not be written
+	 */
+	static void write(PostingsList postings, DataOutput out) throws IOException{
+		new PackedPostings(postings).write(out);
+	}
+
+	/**
+	 * @param postings postings to write
+	 * @return number of bytes write takes for postings
+	 */
+	static long writtenSize(PostingsList postings){
+		return new PackedPostings(postings).getWrittenSize();
+	}
+
+	@Override
+	public String getName(){
+		return NAME;
+	}
+
+	@Override
+	public EncodedPostings encode(PostingsList postings){
+		return new PackedPostings(postings);
+	}
+}
@@ -0,0 +1,198 @@
+package processor;
+
+/**
+ * Base of the codecs that encode postings in blocks of BLOCK_SIZE.
+ * Doc ids are stored as the gap from the doc before, which is small for common terms,
+ * and the doc before each block is kept so any block can be decoded on its own.
+ * A reader decodes the block holding the posting asked for in to int arrays and reads
+ * from those until a posting in another block is asked for, so reading in order
+ * decodes each block once and a skip only decodes the blocks it lands in.
+ * Term frequencies are only decoded for blocks a frequency is asked for, so the
+ * documents a pruned query passes over never have theirs decoded.
+ * A loop over every posting reads whole blocks with read, which decodes each block
+ * straight in to its arrays.
+ */
+public abstract class BlockPostings implements PostingsCodec.EncodedPostings {
+
+	public static final int BLOCK_SIZE = 128;
+	static final int BLOCK_SHIFT = 7;
+	static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	protected final int size;
+	//id of the doc before the first posting of each block, -1 for the first block
+	protected final int[] blockBases;
+
+	/**
+	 * Reads encoded postings a block at a time
+	 */
+	private static final class Reader implements PostingsList {
+
+		private final BlockPostings postings;
+		private final int[] docIds = new int[BLOCK_SIZE];
+		private final int[] termFrequencies = new int[BLOCK_SIZE];
+		private int docBlock = -1;
+		private int tfBlock = -1;
+
+		private Reader(BlockPostings postings){
+			this.postings = postings;
+		}
+
+		/*
+		 * Decoding is kept out of getDocId and getTf so they stay small enough
+		 * to be inlined in to the loops of the Searcher
+		 */
+		private void loadDocIds(int b){
+
+			postings.decodeDocIds(b, docIds);
+			docBlock = b;
+		}
+
+		private void loadTfs(int b){
+
+			postings.decodeTfs(b, termFrequencies);
+			tfBlock = b;
+		}
+
+		@Override
+		public int size(){
+			return postings.size;
+		}
+
+		@Override
+		public int getDocId(int i){
+
+			int b = i >>> BLOCK_SHIFT;
+			if(b != docBlock) loadDocIds(b);
+			return docIds[i & BLOCK_MASK];
+		}
+
+		@Override
+		public int getTf(int i){
+
+			int b = i >>> BLOCK_SHIFT;
+			if(b != tfBlock) loadTfs(b);
+			return termFrequencies[i & BLOCK_MASK];
+		}
+
+		/**
+		 * Decodes the rest of the block holding from, straight in to the arrays when
+		 * from is the start of the block and the arrays hold a whole block
+		 */
+		@Override
+		public int read(int from, int[] docIds, int[] termFrequencies){
+
+			int b = from >>> BLOCK_SHIFT;
+			int offset = from & BLOCK_MASK;
+			int n = Math.min(docIds.length, postings.blockLength(b) - offset);
+			if(offset == 0 && docIds.length >= BLOCK_SIZE){
+				postings.decodeDocIds(b, docIds);
+				postings.decodeTfs(b, termFrequencies);
+				return n;
+			}
+			if(b != docBlock) loadDocIds(b);
+			if(b != tfBlock) loadTfs(b);
+			System.arraycopy(this.docIds, offset, docIds, 0, n);
+			System.arraycopy(this.termFrequencies, offset, termFrequencies, 0, n);
+			return n;
+		}
+
+		/**
+		 * Skips to the block that can hold target using the doc before each block,
+		 * so only that block is decoded
+		 */
+		@Override
+		public int advance(int from, int target){
+
+			int size = postings.size;
+			if(from >= size) return from;
+
+			int[] bases = postings.blockBases;
+			int b = from >>> BLOCK_SHIFT;
+			if(b + 1 < bases.length && bases[b + 1] < target){
+				//the last block whose base is below target
+				int lo = b + 1;
+				int hi = bases.length - 1;
+				while(lo < hi){
+					int mid = (lo + hi + 1) >>> 1;
+					if(bases[mid] < target){
+						lo = mid;
+					}else{
+						hi = mid - 1;
+					}
+				}
+				b = lo;
+				from = b << BLOCK_SHIFT;
+			}
+
+			if(b != docBlock) loadDocIds(b);
+			int end = Math.min(size, (b + 1) << BLOCK_SHIFT);
+			int i = from;
+			while(i < end && docIds[i & BLOCK_MASK] < target){
+				i++;
+			}
+			return i;
+		}
+	}
+
+	/**
+	 * Class constructor
+	 * @param postings postings being encoded, used for their size and the bases of the blocks
+	 */
+	protected BlockPostings(PostingsList postings){
+
+		size = postings.size();
+		blockBases = new int[numBlocks(size)];
+		for(int b = 0; b < blockBases.length; b++){
+			blockBases[b] = b == 0 ? -1 : postings.getDocId((b << BLOCK_SHIFT) - 1);
+		}
+	}
+
+	/**
+	 * Class constructor for postings whose blocks were encoded before, such as those of a MappedIndex
+	 * @param size number of postings
+	 * @param blockBases id of the doc before the first posting of each block
+	 */
+	protected BlockPostings(int size, int[] blockBases){
+
+		this.size = size;
+		this.blockBases = blockBases;
+	}
+
+	/**
+	 * @return number of blocks needed for size postings
+	 */
+	static int numBlocks(int size){
+		return (size + BLOCK_MASK) >>> BLOCK_SHIFT;
+	}
+
+	/**
+	 * @return number of postings in block b
+	 */
+	protected int blockLength(int b){
+		return Math.min(BLOCK_SIZE, size - (b << BLOCK_SHIFT));
+	}
+
+	/**
+	 * Decode the doc ids of a block
+	 * @param b block to decode
+	 * @param docIds filled with the doc ids of the block
+	 */
+	protected abstract void decodeDocIds(int b, int[] docIds);
+
+	/**
+	 * Decode the term frequencies of a block
+	 * @param b block to decode
+	 * @param termFrequencies filled with the term frequencies of the block
+	 */
+	protected abstract void decodeTfs(int b, int[] termFrequencies);
+
+	@Override
+	public int size(){
+		return size;
+	}
+
+	@Override
+	public PostingsList reader(){
+		return new Reader(this);
+	}
+}
@@ -2,76 +2,218 @@ package processor;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
- * 
+ *
  * @author harry
  * @since 05/06/2017
- * 
+ *
  * This is the class for the bag of words documents.
- * It contains a hashmap of where the key is a term (String) and the value is the number of 
+ * It contains a map of where the key is a term and the value is the number of
  * Occurrences of the term in the document.
+ * Terms are stored by their id in the TermDictionary of the documents set,
+ * in an int to int map, so no String or boxed count is held per term.
+ * A document built with positions also keeps the id of the term at each position,
+ * in the order the terms were added, so a positional index can be built from it.
+ * The terms of the title are counted again in a map of their own, so the title can be
+ * indexed and scored as a field, the body is every term that is not in the title.
  */
 public class BowDocument {
-	
-	private String documentID;		
-	private HashMap<String, Integer> terms;	
-	private static int totalDocLength = 0;	
+
+	/**
+	 * Receives the terms of a document with their counts
+	 */
+	public interface TermConsumer {
+		void accept(int termId, int count);
+	}
+
+	private String documentID;
+	private String source;
+	private TermDictionary dictionary;
+	private IntIntMap terms;
+	//counts of the terms in the title, null until a title term is added
+	private IntIntMap titleTerms;
+	private int numTitleTerms;
+	//term id at each position, null when positions are not kept
+	private int[] positions;
 	private int numWords, numTerms;
-	
-	
+
+
 	 /**
 	 * Constructor
 	 * Set the ID of the document, and initiate an empty term:frequency map.
 	 * call addTerm to add terms to map
 	 * @param docId
+	 * @param _dictionary TermDictionary of the set the document will be added to
 	 */
-	BowDocument(String _documentID){	
-		
+	BowDocument(String _documentID, TermDictionary _dictionary){
+
+		this(_documentID, _dictionary, false);
+	}
+
+	 /**
+	 * Constructor
+	 * Set the ID of the document, and initiate an empty term:frequency map.
+	 * call addTerm to add terms to map in the order they appear
+	 * @param docId
+	 * @param _dictionary TermDictionary of the set the document will be added to
+	 * @param _positions true to keep the position of every term
+	 */
+	BowDocument(String _documentID, TermDictionary _dictionary, boolean _positions){
+
 		documentID = _documentID;
-		terms = new HashMap<>();
+		dictionary = _dictionary;
+		terms = new IntIntMap();
+		positions = _positions ? new int[16] : null;
 		numWords = 0;
 		numTerms = 0;
 	}
 
+	 /**
+	  * sets the name of the file the document was read from
+	  * @param _source file name
+	  */
+	 public void setSource(String _source){
+		 source = _source;
+	 }
+	 
+	 /**
+	  * @return name of the file the document was read from, null if it was not read from a file
+	  */
+	 public String getSource(){
+		 return source;
+	 }
+	 
 	 /**
 	  * sets number of words for the document
 	  * @param _numWords number f words in doc
 	  */
 	 public void setNumWords(int _numWords){
 		 numWords = _numWords;
-	 }	
-	
+	 }
+
+	 /**
+	  * @return number of words in doc, including stop words
+	  */
+	 public int getNumWords(){
+		 return numWords;
+	 }
+
 	/**
 	 *
 	 * @param term
 	 * @return the term occurrence count for the given term
 	 * return 0 if the term does not appear in the document
 	 */
-	public int getTermCount(String term){	
-		
-		if(terms.containsKey(term)){
-			return terms.get(term);
+	public int getTermCount(String term){
+
+		int termId = dictionary.getId(term);
+		if(termId < 0){
+			return 0;
 		}
-		return 0;
+		return terms.get(termId);
+	}
+
+	/**
+	 * @param termId id of term in the dictionary
+	 * @return the term occurrence count for the given term, 0 if it does not appear in the document
+	 */
+	public int getTermCount(int termId){
+		return terms.get(termId);
 	}
-	
+
 	/**
-	 * 
+	 *
 	 * @return number of terms in document
 	 */
 	public int getNumTerms(){
 		return numTerms;
 	}
-			 
+
+	/**
+	 * @return number of distinct terms in document
+	 */
+	public int getNumDistinctTerms(){
+		return terms.size();
+	}
+
+	/**
+	 * @param termId id of term in the dictionary
+	 * @return number of occurrences of the term in the title, 0 if it is not in the title
+	 */
+	public int getTitleTermCount(int termId){
+		return titleTerms == null ? 0 : titleTerms.get(termId);
+	}
+
+	/**
+	 * @return number of terms in the title
+	 */
+	public int getNumTitleTerms(){
+		return numTitleTerms;
+	}
+
+	/**
+	 * @return number of distinct terms in the title
+	 */
+	public int getNumDistinctTitleTerms(){
+		return titleTerms == null ? 0 : titleTerms.size();
+	}
+
 	 /**
+	  * Pass every distinct term id of the title with its count in the title to a consumer
+	  * @param consumer TermConsumer
+	  */
+	 public void forEachTitleTerm(TermConsumer consumer){
+
+		 if(titleTerms != null){
+			 titleTerms.forEach(consumer::accept);
+		 }
+	 }
+
+	/**
+	 * @return true if the position of every term was kept
+	 */
+	public boolean hasPositions(){
+		return positions != null;
+	}
+
+	/**
+	 * @param position position of a term, from 0 to getNumTerms() - 1
+	 * @return id of the term at the position
+	 */
+	public int getTermIdAt(int position){
+		return positions[position];
+	}
+
+	/**
+	 * @return dictionary the term ids of this document belong to
+	 */
+	public TermDictionary getDictionary(){
+		return dictionary;
+	}
+
+	 /**
+	  * Builds a map of the terms, for callers that want them by String.
+	  * Use forEachTerm to visit terms without allocating.
 	  * @return map of term:freq pairs.
 	  */
 	 public HashMap<String, Integer> getTerms(){
-		 return terms;
+
+		 HashMap<String, Integer> termMap = new HashMap<>();
+		 terms.forEach((termId, count) -> termMap.put(dictionary.getTerm(termId), count));
+		 return termMap;
 	 }
-	
+
+	 /**
+	  * Pass every distinct term id with its count to a consumer
+	  * @param consumer TermConsumer
+	  */
+	 public void forEachTerm(TermConsumer consumer){
+		 terms.forEach(consumer::accept);
+	 }
+
 	 /**
 	  * get the document ID
 	  * @return documnetID
@@ -79,71 +221,140 @@ public class BowDocument {
 	public String toString(){
 		return documentID;
 	}
-	
+
 	/**
 	 * Get an arraylist that contains all of the terms with in the BOWDoc
-	 * @return ArrayList<String> 
+	 * @return ArrayList<String>
 	 */
 	public ArrayList<String> getTermList(){
-		
+
 		ArrayList<String> termsList = new ArrayList<>();
-		termsList.addAll(terms.keySet());
+		terms.forEach((termId, count) -> termsList.add(dictionary.getTerm(termId)));
 		return termsList;
 	}
-	
+
 	/**
 	 * checks if input terms exists in bowDoc
 	 * @param term term to check
 	 * @return true if terms exists, false in not
 	 */
 	public boolean containsTerm(String term){
-		if(terms.containsKey(term)){
-			return true;
-		}
-		return false;
+
+		int termId = dictionary.getId(term);
+		return termId >= 0 && terms.containsKey(termId);
+	}
+
+	/**
+	 * checks if a term exists in bowDoc
+	 * @param termId id of term in the dictionary
+	 * @return true if terms exists, false in not
+	 */
+	public boolean containsTerm(int termId){
+		return terms.containsKey(termId);
 	}
+
 	 /**
 	 * Add a term occurrence to the BOW representation
 	 * @param term preprocessed  term to add to doc terms
 	 */
 	public void addTerm(String term){
-		
-		if(!terms.containsKey(term)){
-			terms.put(term, 1);
-		}else{
-			terms.put(term, terms.get(term) + 1);
+		addTerm(dictionary.getOrAdd(term));
+	}
+
+	 /**
+	 * Add a term occurrence to the BOW representation
+	 * @param term preprocessed  term to add to doc terms
+	 * @param inTitle true if the occurrence is in the title
+	 */
+	public void addTerm(String term, boolean inTitle){
+
+		int termId = dictionary.getOrAdd(term);
+		addTerm(termId);
+		if(inTitle){
+			addTitleTerm(termId, 1);
+		}
+	}
+
+	/**
+	 * Count occurrences of a term in the title, they must also be added with addTerm
+	 * @param termId id of term in the dictionary
+	 * @param count number of occurrences
+	 */
+	void addTitleTerm(int termId, int count){
+
+		if(titleTerms == null){
+			titleTerms = new IntIntMap();
+		}
+		titleTerms.increment(termId, count);
+		numTitleTerms += count;
+	}
+
+	/**
+	 * Add a term occurrence to the BOW representation
+	 * @param termId id of term in the dictionary
+	 */
+	public void addTerm(int termId){
+
+		terms.increment(termId, 1);
+		if(positions != null){
+			if(numTerms == positions.length){
+				positions = Arrays.copyOf(positions, Math.max(16, numTerms * 2));
+			}
+			positions[numTerms] = termId;
 		}
 		numTerms++;
-		totalDocLength++;
 	}
-	
+
 	/**
-	 * Prints the map (both term and term count) 
+	 * Add several occurrences of a term to the BOW representation
+	 * Their positions are not known, so they must be set with setPositions.
+	 * @param termId id of term in the dictionary
+	 * @param count number of occurrences
 	 */
-	private void printTerms(){
-		
-		for(String key : terms.keySet()){
-			System.out.println(key + " : " + terms.get(key));
+	void addTerm(int termId, int count){
+
+		terms.increment(termId, count);
+		numTerms += count;
+	}
+
+	/**
+	 * Set the term at every position, used when a document is loaded with its counts
+	 * @param termIds id of the term at each position, one for every term added
+	 */
+	void setPositions(int[] termIds){
+		positions = termIds;
+	}
+
+	/**
+	 * Shrink the term map to fit, called once no more terms will be added
+	 */
+	void trim(){
+
+		terms.trim();
+		if(titleTerms != null){
+			titleTerms.trim();
+		}
+		if(positions != null && positions.length > numTerms){
+			positions = Arrays.copyOf(positions, numTerms);
 		}
+	}
+
+	/**
+	 * Prints the map (both term and term count)
+	 */
+	private void printTerms(){
+
+		terms.forEach((termId, count) -> System.out.println(dictionary.getTerm(termId) + " : " + count));
 		System.out.println("\n");
 	}
-	
+
 	/**
 	 * prints doc description with map
 	 */
 	 public void  displayDocInfo(){
-		 
+
 		 System.out.println("Document " + documentID + " contains " + numTerms + " terms and has " + numWords + " words.");
 		 printTerms();
 	 }
-	 
-	 //DELETE?
-	 /**
-	  * Accessor for docLength
-	  * @return
-	  */
-	 public int getTotalDocLength(){
-		 return totalDocLength;
-	 }
-	 
+
 }
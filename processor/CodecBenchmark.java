@@ -0,0 +1,174 @@
+package processor;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the postings codecs on a synthetic corpus.
+ * The same documents are indexed in to one segment with each codec, and for each codec
+ * the size of the postings is reported with the time taken to score queries,
+ * pruned, exhaustive and term at a time. Every codec has its results checked against
+ * the raw codec before any timing is reported.
+ * The raw and packed segments are then written as mapped indexes and timed the same way,
+ * as a MappedIndex packs its postings when the set it is written from is packed.
+ * Each way of scoring is timed RUNS times after a warm up and the fastest run is reported,
+ * as one run on a busy machine can be off by more than the codecs differ.
+ *
+ * Usage: java processor.CodecBenchmark [numDocs] [numQueries] [k]
+ */
+public class CodecBenchmark {
+
+	private static final int VOCABULARY_SIZE = 50000;
+	private static final int TERMS_PER_QUERY = 5;
+	private static final long SEED = 42;
+	private static final int RUNS = 5;
+	private static final String[] CODECS = {RawCodec.NAME, VByteCodec.NAME, BlockPackedCodec.NAME};
+
+	public static void main(String[] args) throws Exception {
+
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		Random random = new Random(SEED);
+		ArrayList<ArrayList<String>> queries = new ArrayList<>();
+		for(int q = 0; q < numQueries; q++){
+			ArrayList<String> query = new ArrayList<>();
+			for(int i = 0; i < TERMS_PER_QUERY; i++){
+				query.add(PruningBenchmark.term(random.nextInt(2000)));
+			}
+			queries.add(query);
+		}
+
+		Dataset[] sets = new Dataset[CODECS.length];
+		MemoryIndexReader[] readers = new MemoryIndexReader[CODECS.length];
+		for(int c = 0; c < CODECS.length; c++){
+			System.out.println("Building " + numDocs + " documents with the " + CODECS[c] + " codec");
+			sets[c] = build(numDocs, PostingsCodec.forName(CODECS[c]));
+			readers[c] = sets[c].getReader();
+		}
+
+		for(int c = 1; c < CODECS.length; c++){
+			int mismatches = 0;
+			for(ArrayList<String> query : queries){
+				if(!same(Searcher.search(readers[0], query, k), Searcher.search(readers[c], query, k))){
+					mismatches++;
+				}
+			}
+			System.out.println("Queries whose " + CODECS[c] + " results differ from raw : " + mismatches);
+		}
+
+		System.out.println("codec\tpostings\tbytes\tbytes/posting\texhaustive ms/query\tpruned ms/query\tterm at a time ms/query");
+		for(int c = 0; c < CODECS.length; c++){
+			MemoryIndexReader reader = readers[c];
+
+			//warm up before timing
+			run(reader, queries, k, 0);
+			run(reader, queries, k, 1);
+			run(reader, queries, k, 2);
+
+			long postings = reader.getNumPostings();
+			long bytes = reader.getPostingsSizeInBytes();
+			System.out.println(CODECS[c] + "\t" + postings + "\t" + bytes + "\t"
+					+ String.format("%.2f", (double)bytes / postings) + "\t"
+					+ String.format("%.3f", fastest(reader, queries, k, 0) / 1e6 / numQueries) + "\t"
+					+ String.format("%.3f", fastest(reader, queries, k, 1) / 1e6 / numQueries) + "\t"
+					+ String.format("%.3f", fastest(reader, queries, k, 2) / 1e6 / numQueries));
+		}
+
+		System.out.println("mapped\tfile bytes\tfile bytes/posting\texhaustive ms/query\tpruned ms/query\tterm at a time ms/query");
+		for(int c = 0; c < CODECS.length; c++){
+			if(CODECS[c].equals(VByteCodec.NAME)){
+				continue;
+			}
+			File file = File.createTempFile("codec-benchmark", ".idx");
+			file.deleteOnExit();
+			MappedIndex.write(sets[c], file, 0);
+			MappedIndex index = MappedIndex.open(file);
+
+			int mismatches = 0;
+			for(ArrayList<String> query : queries){
+				if(!same(Searcher.search(readers[0], query, k), Searcher.search(index, query, k))){
+					mismatches++;
+				}
+			}
+			run(index, queries, k, 0);
+			run(index, queries, k, 1);
+			run(index, queries, k, 2);
+
+			long postings = readers[c].getNumPostings();
+			long bytes = file.length();
+			System.out.println(CODECS[c] + "\t" + bytes + "\t"
+					+ String.format("%.2f", (double)bytes / postings) + "\t"
+					+ String.format("%.3f", fastest(index, queries, k, 0) / 1e6 / numQueries) + "\t"
+					+ String.format("%.3f", fastest(index, queries, k, 1) / 1e6 / numQueries) + "\t"
+					+ String.format("%.3f", fastest(index, queries, k, 2) / 1e6 / numQueries)
+					+ "\t" + mismatches + " queries differ from raw");
+		}
+	}
+
+	/**
+	 * Index the synthetic documents in to a single segment
+	 */
+	private static Dataset build(int numDocs, PostingsCodec codec) throws Exception {
+
+		Random random = new Random(SEED + 1);
+		double[] zipf = PruningBenchmark.buildZipf(VOCABULARY_SIZE);
+
+		Dataset set = new Dataset("synthetic", numDocs, Dataset.DEFAULT_MERGE_FACTOR, codec);
+		for(int d = 0; d < numDocs; d++){
+			BowDocument doc = new BowDocument(Integer.toString(d), set.getDictionary());
+			int length = 50 + random.nextInt(450);
+			for(int i = 0; i < length; i++){
+				doc.addTerm(PruningBenchmark.term(PruningBenchmark.sample(zipf, random)));
+			}
+			doc.setNumWords(length);
+			set.addDoc(doc);
+		}
+		return set;
+	}
+
+	/**
+	 * Time every query RUNS times
+	 * @param mode 0 exhaustive, 1 pruned, 2 term at a time
+	 * @return elapsed nanoseconds of the fastest run
+	 */
+	private static long fastest(IndexReader reader, ArrayList<ArrayList<String>> queries, int k, int mode){
+
+		long fastest = Long.MAX_VALUE;
+		for(int r = 0; r < RUNS; r++){
+			fastest = Math.min(fastest, run(reader, queries, k, mode));
+		}
+		return fastest;
+	}
+
+	/**
+	 * Time every query once
+	 * @param mode 0 exhaustive, 1 pruned, 2 term at a time
+	 * @return elapsed nanoseconds
+	 */
+	private static long run(IndexReader reader, ArrayList<ArrayList<String>> queries, int k, int mode){
+
+		long start = System.nanoTime();
+		for(ArrayList<String> query : queries){
+			if(mode == 0){
+				Searcher.searchExhaustive(reader, query, k);
+			}else if(mode == 1){
+				Searcher.search(reader, query, k);
+			}else{
+				Weighting.calculateBM25(reader, query);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static boolean same(TopDocs a, TopDocs b){
+
+		if(a.size() != b.size()) return false;
+		for(int i = 0; i < a.size(); i++){
+			if(a.getDocId(i) != b.getDocId(i) || a.getScore(i) != b.getScore(i)) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,169 @@
+package processor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Makes a synthetic corpus of newsitem XML documents in the format the Processor reads.
+ * Words are drawn from a Zipfian vocabulary so a few words are in most documents,
+ * with stop words mixed in and words given English endings so the tokenizer, stop word
+ * filter and stemmer all have the work they have on real text.
+ * The same seed always makes the same documents, so benchmarks can be run offline and
+ * compared between versions.
+ *
+ * Usage: java processor.CorpusGenerator [outputFolder] [numDocs] [seed]
+ * writes outputFolder/documents/ and outputFolder/stopWords.txt
+ */
+public class CorpusGenerator {
+
+	public static final long DEFAULT_SEED = 42;
+	public static final int DEFAULT_VOCABULARY_SIZE = 20000;
+
+	static final String[] STOP_WORDS = {
+			"the", "of", "and", "to", "in", "a", "is", "for", "on", "that", "with", "by",
+			"it", "was", "as", "at", "be", "from", "has", "said"};
+
+	//the most frequent words, so the corpus has words in common with ordinary queries
+	private static final String[] COMMON_WORDS = {
+			"interest", "rate", "bank", "market", "stock", "price", "oil", "trade", "company",
+			"share", "profit", "loss", "government", "economy", "growth", "inflation", "dollar",
+			"export", "import", "tax", "bond", "yield", "currency", "report", "quarter"};
+
+	private static final String[] ENDINGS = {"", "", "", "s", "ed", "ing", "er", "ly", "ation", "ness"};
+
+	//fraction of words in the text that are stop words
+	private static final double STOP_WORD_RATE = 0.3;
+
+	private final String[] vocabulary;
+	private final double[] zipf;
+	private final Random random;
+
+	/**
+	 * Class constructor
+	 * @param seed seed of the vocabulary and documents
+	 * @param vocabularySize number of distinct words before endings are added
+	 */
+	public CorpusGenerator(long seed, int vocabularySize){
+
+		random = new Random(seed);
+		vocabulary = new String[Math.max(vocabularySize, COMMON_WORDS.length)];
+		for(int i = 0; i < vocabulary.length; i++){
+			vocabulary[i] = i < COMMON_WORDS.length ? COMMON_WORDS[i] : word();
+		}
+		zipf = PruningBenchmark.buildZipf(vocabulary.length);
+	}
+
+	/**
+	 * @return a made up word of 4 to 9 letters
+	 */
+	private String word(){
+
+		int length = 4 + random.nextInt(6);
+		StringBuilder word = new StringBuilder(length);
+		for(int i = 0; i < length; i++){
+			word.append((char)('a' + random.nextInt(26)));
+		}
+		return word.toString();
+	}
+
+	/**
+	 * @return a word of the vocabulary, common words most likely, with an ending
+	 */
+	private String nextWord(){
+		return vocabulary[PruningBenchmark.sample(zipf, random)] + ENDINGS[random.nextInt(ENDINGS.length)];
+	}
+
+	/**
+	 * Make running text
+	 * @param numWords number of words
+	 * @return words and stop words separated by spaces with some punctuation
+	 */
+	public String text(int numWords){
+
+		StringBuilder text = new StringBuilder(numWords * 8);
+		for(int i = 0; i < numWords; i++){
+			if(i > 0){
+				text.append(random.nextInt(15) == 0 ? ", " : " ");
+			}
+			text.append(random.nextDouble() < STOP_WORD_RATE ? STOP_WORDS[random.nextInt(STOP_WORDS.length)] : nextWord());
+		}
+		return text.append('.').toString();
+	}
+
+	/**
+	 * Make a query of words from the frequent end of the vocabulary
+	 * @param numWords number of words
+	 * @return query text
+	 */
+	public String query(int numWords){
+
+		StringBuilder query = new StringBuilder();
+		for(int i = 0; i < numWords; i++){
+			query.append(i == 0 ? "" : " ").append(vocabulary[random.nextInt(Math.min(vocabulary.length, 2000))]);
+		}
+		return query.toString();
+	}
+
+	/**
+	 * Make a newsitem document
+	 * @param itemid itemid of the document
+	 * @return XML of the document
+	 */
+	public String document(int itemid){
+
+		String title = text(4 + random.nextInt(6));
+		title = title.substring(0, title.length() - 1);
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"iso-8859-1\" ?>\n")
+			.append("<newsitem itemid=\"").append(itemid).append("\" id=\"root\" date=\"1996-08-20\" xml:lang=\"en\">\n")
+			.append("<title>USA: ").append(title).append("</title>\n")
+			.append("<headline>").append(title).append("</headline>\n")
+			.append("<text>\n");
+		int numParagraphs = 1 + random.nextInt(5);
+		for(int p = 0; p < numParagraphs; p++){
+			xml.append("<p>").append(text(20 + random.nextInt(80)));
+			if(random.nextInt(4) == 0){
+				xml.append(" &quot;").append(nextWord()).append("&quot; U.S. officials said.");
+			}
+			xml.append("</p>\n");
+		}
+		return xml.append("</text>\n</newsitem>\n").toString();
+	}
+
+	/**
+	 * Write a corpus the Processor can be run on
+	 * @param folder folder to write documents/ and stopWords.txt in to
+	 * @param numDocs number of documents
+	 * @return the documents folder
+	 */
+	public File writeCorpus(File folder, int numDocs) throws IOException{
+
+		File documents = new File(folder, "documents");
+		if(!documents.isDirectory() && !documents.mkdirs()){
+			throw new IOException("Could not make " + documents);
+		}
+		for(int d = 0; d < numDocs; d++){
+			int itemid = 1000 + d;
+			try (Writer out = new FileWriter(new File(documents, itemid + "newsML.xml"))) {
+				out.write(document(itemid));
+			}
+		}
+		try (Writer out = new FileWriter(new File(folder, "stopWords.txt"))) {
+			out.write(String.join(",", STOP_WORDS));
+		}
+		return documents;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		File folder = new File(args.length > 0 ? args[0] : "./synthetic");
+		int numDocs = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+
+		new CorpusGenerator(seed, DEFAULT_VOCABULARY_SIZE).writeCorpus(folder, numDocs);
+		System.out.println("Wrote " + numDocs + " documents to " + new File(folder, "documents"));
+	}
+}
@@ -0,0 +1,449 @@
+package processor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Immutable statistics of the documents of a Dataset at one point in time.
+ * Holds the document count, total and average document and title length and the
+ * document frequency, BM25 idf and tf*idf idf of every term in the set,
+ * along with the range of the BM25 tf weight the term takes in any document and the most
+ * times it occurs in one, which give the upper bounds used to prune queries,
+ * so the weighting functions do not have to recount them for every document.
+ * Per term statistics are held in primitive arrays indexed by term id.
+ * A Dataset builds a new CorpusStats when documents have been added or deleted since the
+ * last one, by summing the counts its segments keep, so no postings are read.
+ * The tf weight range of a term depends on the average document length, so it is found from
+ * the postings of the segments the first time it is asked for, once per term.
+ * The statistics of a corpus split in to shards are the sum of those of its shards, and each
+ * shard is scored with the statistics of the whole corpus and tf weight bounds of its own.
+ */
+public final class CorpusStats {
+	
+	private final TermDictionary dictionary;
+	private final int numDocs;
+	private final long totalDocLength;
+	private final double avgDocLength;
+	private final long totalTitleLength;
+	private final int[] dfs;
+	private final double[] bm25Idfs;
+	private final double[] idfs;
+	//segments the tf weight bounds are found from, with their deleted docs
+	private final Segment[] segments;
+	private final BitSet[] deleted;
+	//NaN until the bounds of the term are found
+	private final double[] maxTfWeights;
+	private final double[] minTfWeights;
+	//found along with the tf weights
+	private final int[] maxTfs;
+	
+	/**
+	 * Class constructor
+	 * Takes a snapshot of the statistics of the segments of a set
+	 * Deleted docs are left out, so a segment counts the same before and after it is merged.
+	 * Must be called under the lock of the set, so the counts of the segments are those
+	 * of the deleted docs given.
+	 * @param dictionary TermDictionary of the segments
+	 * @param segments Segments of the set
+	 * @param deleted deleted docs of each segment
+	 */
+	public CorpusStats(
+			TermDictionary dictionary,
+			Segment[] segments,
+			BitSet[] deleted){
+		
+		this.dictionary = dictionary;
+		this.segments = segments;
+		this.deleted = deleted;
+		int liveDocs = 0;
+		long liveLength = 0;
+		long liveTitleLength = 0;
+		int numTermIds = 0;
+		for(Segment segment : segments){
+			liveDocs += segment.getNumLiveDocs();
+			liveLength += segment.getTotalDocLength();
+			liveTitleLength += segment.getTotalTitleLength();
+			numTermIds = Math.max(numTermIds, segment.getNumTermIds());
+		}
+		numDocs = liveDocs;
+		totalDocLength = liveLength;
+		totalTitleLength = liveTitleLength;
+		avgDocLength = (double)totalDocLength / (double)numDocs;
+		
+		dfs = new int[numTermIds];
+		for(Segment segment : segments){
+			for(int termId = 0; termId < segment.getNumTermIds(); termId++){
+				dfs[termId] += segment.getDf(termId);
+			}
+		}
+		bm25Idfs = new double[numTermIds];
+		idfs = new double[numTermIds];
+		calcIdfs(numDocs, dfs, bm25Idfs, idfs);
+		maxTfWeights = unknownBounds(numTermIds);
+		minTfWeights = unknownBounds(numTermIds);
+		maxTfs = new int[numTermIds];
+	}
+	
+	/**
+	 * Class constructor
+	 * Statistics of one shard of a corpus, for scoring its docs as part of the whole corpus
+	 * The document count, lengths and idfs are those of the corpus, so a doc scores the same
+	 * as it would in one set of every doc. The tf weight bounds are taken over the segments of
+	 * the shard alone, with the average length of the corpus, so queries of the shard prune
+	 * against the docs it holds.
+	 * @param corpus statistics of the whole corpus, built with the same dictionary
+	 * @param segments Segments of the shard
+	 * @param deleted deleted docs of each segment
+	 */
+	CorpusStats(
+			CorpusStats corpus,
+			Segment[] segments,
+			BitSet[] deleted){
+		
+		dictionary = corpus.dictionary;
+		numDocs = corpus.numDocs;
+		totalDocLength = corpus.totalDocLength;
+		avgDocLength = corpus.avgDocLength;
+		totalTitleLength = corpus.totalTitleLength;
+		dfs = corpus.dfs;
+		bm25Idfs = corpus.bm25Idfs;
+		idfs = corpus.idfs;
+		this.segments = segments;
+		this.deleted = deleted;
+		maxTfWeights = unknownBounds(dfs.length);
+		minTfWeights = unknownBounds(dfs.length);
+		maxTfs = new int[dfs.length];
+	}
+	
+	/**
+	 * Class constructor
+	 * Statistics summed from parts, the tf weight bounds are found over the segments of every part
+	 */
+	private CorpusStats(
+			TermDictionary dictionary,
+			int numDocs,
+			long totalDocLength,
+			long totalTitleLength,
+			int[] dfs,
+			Segment[] segments,
+			BitSet[] deleted){
+		
+		this.dictionary = dictionary;
+		this.numDocs = numDocs;
+		this.totalDocLength = totalDocLength;
+		this.avgDocLength = (double)totalDocLength / (double)numDocs;
+		this.totalTitleLength = totalTitleLength;
+		this.dfs = dfs;
+		this.segments = segments;
+		this.deleted = deleted;
+		bm25Idfs = new double[dfs.length];
+		idfs = new double[dfs.length];
+		calcIdfs(numDocs, dfs, bm25Idfs, idfs);
+		maxTfWeights = unknownBounds(dfs.length);
+		minTfWeights = unknownBounds(dfs.length);
+		maxTfs = new int[dfs.length];
+	}
+	
+	/**
+	 * Statistics of a corpus made of parts that have no docs in common, such as the shards of a ShardedIndex
+	 * The document counts, lengths and document frequencies are summed. The tf weight bounds are
+	 * found over the segments of every part with the average length of the corpus.
+	 * @param dictionary TermDictionary every part was built with
+	 * @param parts statistics of each part
+	 * @return CorpusStats of the corpus
+	 */
+	static CorpusStats sum(
+			TermDictionary dictionary,
+			CorpusStats[] parts){
+		
+		int numDocs = 0;
+		long totalDocLength = 0;
+		long totalTitleLength = 0;
+		int numTermIds = 0;
+		int numSegments = 0;
+		for(CorpusStats part : parts){
+			numDocs += part.numDocs;
+			totalDocLength += part.totalDocLength;
+			totalTitleLength += part.totalTitleLength;
+			numTermIds = Math.max(numTermIds, part.dfs.length);
+			numSegments += part.segments.length;
+		}
+		
+		int[] dfs = new int[numTermIds];
+		Segment[] segments = new Segment[numSegments];
+		BitSet[] deleted = new BitSet[numSegments];
+		int s = 0;
+		for(CorpusStats part : parts){
+			for(int termId = 0; termId < part.dfs.length; termId++){
+				dfs[termId] += part.dfs[termId];
+			}
+			System.arraycopy(part.segments, 0, segments, s, part.segments.length);
+			System.arraycopy(part.deleted, 0, deleted, s, part.deleted.length);
+			s += part.segments.length;
+		}
+		return new CorpusStats(dictionary, numDocs, totalDocLength, totalTitleLength, dfs, segments, deleted);
+	}
+	
+	/**
+	 * @return bounds of numTermIds terms, none of them found yet
+	 */
+	private static double[] unknownBounds(int numTermIds){
+		
+		double[] bounds = new double[numTermIds];
+		Arrays.fill(bounds, Double.NaN);
+		return bounds;
+	}
+	
+	/**
+	 * Work out the BM25 and tf*idf idf of every term
+	 */
+	private static void calcIdfs(
+			int numDocs,
+			int[] dfs,
+			double[] bm25Idfs,
+			double[] idfs){
+		
+		for(int termId = 0; termId < dfs.length; termId++){
+			bm25Idfs[termId] = calcBm25Idf(numDocs, dfs[termId]);
+			idfs[termId] = calcIdf(numDocs, dfs[termId]);
+		}
+	}
+	
+	/**
+	 * Find the range of the BM25 tf weight a term takes in the docs of the segments,
+	 * with the average length of the corpus, and the most times it occurs in one of them
+	 * Must hold the lock of this object.
+	 * @param termId id of term, below the number of terms with statistics
+	 */
+	private void calcTfWeights(int termId){
+		
+		int df = 0;
+		int maxTf = 0;
+		double maxTfWeight = 0.0;
+		double minTfWeight = Double.MAX_VALUE;
+		for(int s = 0; s < segments.length; s++){
+			PostingsList postings = segments[s].getPostings(termId);
+			for(int i = 0; postings != null && i < postings.size(); i++){
+				int docId = postings.getDocId(i);
+				if(deleted[s].get(docId)) continue;
+				double K = Weighting.calcK(segments[s].getDocLength(docId), avgDocLength);
+				int tf = postings.getTf(i);
+				double tfWeight = Weighting.calcTfWeight(Weighting.normaliseTf(tf), K);
+				maxTf = Math.max(maxTf, tf);
+				maxTfWeight = Math.max(maxTfWeight, tfWeight);
+				minTfWeight = Math.min(minTfWeight, tfWeight);
+				df++;
+			}
+		}
+		maxTfWeights[termId] = maxTfWeight;
+		minTfWeights[termId] = df == 0 ? 0.0 : minTfWeight;
+		maxTfs[termId] = maxTf;
+	}
+	
+	/**
+	 * BM25 inverse document frequency
+	 * @param numDocs number of documents in set
+	 * @param df document frequency of term
+	 * @return log((N - df + 0.5) / (df + 0.5))
+	 */
+	static double calcBm25Idf(double numDocs, double df){
+		return Math.log((numDocs - df + 0.5) / (df + 0.5));
+	}
+	
+	/**
+	 * tf*idf inverse document frequency
+	 * @param numDocs number of documents in set
+	 * @param df document frequency of term
+	 * @return log10(N / df)
+	 */
+	private static double calcIdf(double numDocs, double df){
+		return Math.log10(numDocs / df);
+	}
+	
+	/**
+	 * @return id of term or -1 if it has no statistics
+	 */
+	private int idOf(String term){
+		
+		int termId = dictionary.getId(term);
+		return termId < dfs.length ? termId : -1;
+	}
+	
+	/**
+	 * @return number of documents in the set
+	 */
+	public int getNumDocs(){
+		return numDocs;
+	}
+	
+	/**
+	 * @return sum of the lengths of all documents in the set
+	 */
+	public long getTotalDocLength(){
+		return totalDocLength;
+	}
+	
+	/**
+	 * @return average number of terms in a document of the set
+	 */
+	public double getAvgDocLength(){
+		return avgDocLength;
+	}
+	
+	/**
+	 * @return sum of the lengths of the titles of all documents in the set
+	 */
+	public long getTotalTitleLength(){
+		return totalTitleLength;
+	}
+	
+	/**
+	 * @return average number of terms in the title of a document of the set
+	 */
+	public double getAvgTitleLength(){
+		return (double)totalTitleLength / (double)numDocs;
+	}
+	
+	/**
+	 * @return average number of terms in the body of a document of the set, everything but its title
+	 */
+	public double getAvgBodyLength(){
+		return (double)(totalDocLength - totalTitleLength) / (double)numDocs;
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return number of documents that contain the term
+	 */
+	public int getDf(String term){
+		
+		int termId = idOf(term);
+		return termId < 0 ? 0 : dfs[termId];
+	}
+	
+	/**
+	 * @param termId id of term
+	 * @return number of documents that contain the term
+	 */
+	public int getDf(int termId){
+		return termId < dfs.length ? dfs[termId] : 0;
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return BM25 idf of the term
+	 */
+	public double getBm25Idf(String term){
+		
+		int termId = idOf(term);
+		return termId < 0 ? calcBm25Idf(numDocs, 0) : bm25Idfs[termId];
+	}
+	
+	/**
+	 * @param termId id of term
+	 * @return BM25 idf of the term
+	 */
+	public double getBm25Idf(int termId){
+		return termId < bm25Idfs.length ? bm25Idfs[termId] : calcBm25Idf(numDocs, 0);
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return largest BM25 tf weight the term has in any document, 0 if it is in none
+	 */
+	public double getMaxTfWeight(String term){
+		
+		int termId = idOf(term);
+		return termId < 0 ? 0.0 : getMaxTfWeight(termId);
+	}
+	
+	/**
+	 * @param termId id of term
+	 * @return largest BM25 tf weight the term has in any document, 0 if it is in none
+	 */
+	public synchronized double getMaxTfWeight(int termId){
+		
+		if(termId >= maxTfWeights.length){
+			return 0.0;
+		}
+		if(Double.isNaN(maxTfWeights[termId])){
+			calcTfWeights(termId);
+		}
+		return maxTfWeights[termId];
+	}
+	
+	/**
+	 * @param termId id of term
+	 * @return smallest BM25 tf weight the term has in any document that contains it, 0 if it is in none
+	 */
+	public synchronized double getMinTfWeight(int termId){
+		
+		if(termId >= minTfWeights.length){
+			return 0.0;
+		}
+		if(Double.isNaN(minTfWeights[termId])){
+			calcTfWeights(termId);
+		}
+		return minTfWeights[termId];
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return most times the term occurs in any document, 0 if it is in none
+	 */
+	public int getMaxTf(String term){
+		
+		int termId = idOf(term);
+		return termId < 0 ? 0 : getMaxTf(termId);
+	}
+	
+	/**
+	 * @param termId id of term
+	 * @return most times the term occurs in any document, 0 if it is in none
+	 */
+	public synchronized int getMaxTf(int termId){
+		
+		if(termId >= maxTfs.length){
+			return 0;
+		}
+		if(Double.isNaN(maxTfWeights[termId])){
+			calcTfWeights(termId);
+		}
+		return maxTfs[termId];
+	}
+	
+	/**
+	 * @return one more than the highest term id with statistics
+	 */
+	public int getNumTermIds(){
+		return dfs.length;
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return smallest BM25 tf weight the term has in any document that contains it, 0 if it is in none
+	 */
+	public double getMinTfWeight(String term){
+		
+		int termId = idOf(term);
+		return termId < 0 ? 0.0 : getMinTfWeight(termId);
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return tf*idf idf of the term
+	 */
+	public double getIdf(String term){
+		
+		int termId = idOf(term);
+		return termId < 0 ? calcIdf(numDocs, 0) : idfs[termId];
+	}
+	
+	/**
+	 * @param termId id of term
+	 * @return tf*idf idf of the term
+	 */
+	public double getIdf(int termId){
+		return termId < idfs.length ? idfs[termId] : calcIdf(numDocs, 0);
+	}
+}
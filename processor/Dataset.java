@@ -1,37 +1,439 @@
 package processor;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+/**
+ * A set of BowDocuments with their inverted index and statistics.
+ * Documents can be added, replaced and deleted by itemid at any time.
+ * 
+ * New documents are collected in an in-memory buffer which is written out as an
+ * immutable Segment once it holds segmentDocs documents, or when a reader is asked for.
+ * Queries read every segment through a MemoryIndexReader that is not changed by later
+ * updates. A background thread merges neighbouring segments as picked by a LogMergePolicy,
+ * dropping deleted documents, so the number of segments stays small as documents are added.
+ * Documents are numbered in the order they were added, across the segments in order.
+ * The postings of segments are stored compressed by a PostingsCodec.
+ * A set made with positions keeps where each term occurs in each document, for phrase
+ * and proximity queries, and only takes documents built with positions.
+ */
 public class Dataset {
-	private ArrayList<BowDocument> docs;
+	
+	public static final int DEFAULT_SEGMENT_DOCS = 1000;
+	public static final int DEFAULT_MERGE_FACTOR = 10;
+	public static final String DEFAULT_POSTINGS_CODEC = RawCodec.NAME;
+	
+	/**
+	 * Where a document is, segment is null for the buffer
+	 */
+	private static final class DocRef {
+		
+		private final Segment segment;
+		private final int docId;
+		
+		private DocRef(Segment segment, int docId){
+			this.segment = segment;
+			this.docId = docId;
+		}
+	}
+	
+	private TermDictionary dictionary;
+	private ArrayList<Segment> segments;
+	private InvertedIndex buffer;
+	private ArrayList<BowDocument> bufferDocs;
+	private HashMap<String, DocRef> docsByName;
+	private CorpusStats stats;
+	private MemoryIndexReader reader;
+	private final int segmentDocs;
+	private final int mergeFactor;
+	private final LogMergePolicy mergePolicy;
+	private final PostingsCodec codec;
+	private final boolean positions;
+	private ExecutorService merger;
+	private boolean mergeScheduled;
+	private long generation;
 	private String title;
 	
-	private HashMap<BowDocument, Double> positive;
-	private HashMap<BowDocument, Double> negative;
+	//results of the last query, the docs ranked above numPositive are positive
+	private TopDocs ranked;
+	private MemoryIndexReader rankedReader;
+	private int numPositive;
 	
 	/**
 	 * Class constructor
-	 * @param numDocs number of docs that will be added
 	 * @param name name of this set
 	 */
 	public Dataset(
 			String name){
+		
+		this(name, DEFAULT_SEGMENT_DOCS, DEFAULT_MERGE_FACTOR, PostingsCodec.forName(DEFAULT_POSTINGS_CODEC));
+	}
+	
+	/**
+	 * Class constructor
+	 * @param name name of this set
+	 * @param segmentDocs number of docs buffered before they are written as a segment
+	 * @param mergeFactor number of segments of the same size that are merged together
+	 * @param codec PostingsCodec the postings of segments are encoded with
+	 */
+	public Dataset(
+			String name,
+			int segmentDocs,
+			int mergeFactor,
+			PostingsCodec codec){
+	
+		this(name, segmentDocs, mergeFactor, codec, false);
+	}
+	
+	/**
+	 * Class constructor
+	 * @param name name of this set
+	 * @param segmentDocs number of docs buffered before they are written as a segment
+	 * @param mergeFactor number of segments of the same size that are merged together
+	 * @param codec PostingsCodec the postings of segments are encoded with
+	 * @param positions true to index the position of every term
+	 */
+	public Dataset(
+			String name,
+			int segmentDocs,
+			int mergeFactor,
+			PostingsCodec codec,
+			boolean positions){
+	
+		this(name, segmentDocs, mergeFactor, codec, positions, new TermDictionary());
+	}
+	
+	/**
+	 * Class constructor
+	 * @param name name of this set
+	 * @param segmentDocs number of docs buffered before they are written as a segment
+	 * @param mergeFactor number of segments of the same size that are merged together
+	 * @param codec PostingsCodec the postings of segments are encoded with
+	 * @param positions true to index the position of every term
+	 * @param dictionary TermDictionary docs of this set are built with, which other sets may share
+	 */
+	public Dataset(
+			String name,
+			int segmentDocs,
+			int mergeFactor,
+			PostingsCodec codec,
+			boolean positions,
+			TermDictionary dictionary){
 	
 		this.title = name;		
-		docs = new ArrayList<>();
+		this.segmentDocs = Math.max(1, segmentDocs);
+		this.mergeFactor = mergeFactor;
+		this.codec = codec;
+		this.positions = positions;
+		mergePolicy = new LogMergePolicy(this.segmentDocs, mergeFactor);
+		this.dictionary = dictionary;
+		segments = new ArrayList<>();
+		buffer = new InvertedIndex(dictionary, positions);
+		bufferDocs = new ArrayList<>();
+		docsByName = new HashMap<>();
+	}
+	
+	/**
+	 * Class constructor
+	 * Wraps segments that have already been read, used when an index is loaded
+	 * @param name name of this set
+	 * @param segmentDocs number of docs buffered before they are written as a segment
+	 * @param mergeFactor number of segments of the same size that are merged together
+	 * @param codec PostingsCodec the postings of segments are encoded with
+	 * @param positions true to index the position of every term
+	 * @param dictionary TermDictionary the docs of the segments were built with
+	 * @param segments Segments in doc order, with their deleted docs marked
+	 */
+	Dataset(
+			String name,
+			int segmentDocs,
+			int mergeFactor,
+			PostingsCodec codec,
+			boolean positions,
+			TermDictionary dictionary,
+			ArrayList<Segment> segments){
+		
+		this(name, segmentDocs, mergeFactor, codec, positions, dictionary);
+		for(Segment segment : segments){
+			addSegment(segment);
+		}
+		scheduleMerge();
 	}
 	
 	/**
 	 * add a bow doc to this set
+	 * safe to call from several threads, the doc is given the next id
 	 * @param doc BowDocument to be added
-	 * @throws Exception	when dataset is full
+	 * @throws Exception	when doc was not built with this sets dictionary
 	 */
-	public void addDoc(
+	public synchronized void addDoc(
 			BowDocument doc) 
 					throws Exception{
 		
-		docs.add(doc);	
+		if(doc.getDictionary() != dictionary){
+			throw new Exception("Doc " + doc + " was built with another dataset's dictionary");
+		}
+		if(positions && !doc.hasPositions()){
+			throw new Exception("Doc " + doc + " was built without positions");
+		}
+		doc.trim();
+		bufferDocs.add(doc);	
+		docsByName.put(doc.toString(), new DocRef(null, buffer.addDocument(doc)));
+		changed();
+		
+		if(bufferDocs.size() >= segmentDocs){
+			flush();
+		}
+	}
+	
+	/**
+	 * add a bow doc to this set, replacing the doc with the same itemid if there is one
+	 * @param doc BowDocument to be added
+	 * @return true if a doc was replaced
+	 * @throws Exception	when doc was not built with this sets dictionary
+	 */
+	public synchronized boolean putDoc(
+			BowDocument doc)
+					throws Exception{
+		
+		boolean replaced = deleteDoc(doc.toString());
+		addDoc(doc);
+		return replaced;
+	}
+	
+	/**
+	 * delete a bow doc from this set
+	 * A doc still in the buffer has its terms taken out of the buffer straight away,
+	 * a doc in a segment is marked deleted and dropped when the segment is merged.
+	 * @param name itemid of the doc
+	 * @return true if the doc was in this set
+	 */
+	public synchronized boolean deleteDoc(
+			String name){
+		
+		DocRef ref = docsByName.remove(name);
+		if(ref == null){
+			return false;
+		}
+		if(ref.segment == null){
+			buffer.removeDocument(ref.docId, bufferDocs.get(ref.docId));
+			bufferDocs.set(ref.docId, null);
+		}else{
+			ref.segment.delete(ref.docId);
+		}
+		changed();
+		return true;
+	}
+	
+	/**
+	 * Forget the stats and reader of this set after its docs have changed
+	 */
+	private void changed(){
+		
+		stats = null;
+		reader = null;
+		generation++;
+	}
+	
+	/**
+	 * Write the buffered docs out as a new segment
+	 */
+	public synchronized void flush(){
+		
+		if(bufferDocs.isEmpty()){
+			return;
+		}
+		addSegment(new Segment(buffer, bufferDocs, codec));
+		buffer = new InvertedIndex(dictionary, positions);
+		bufferDocs = new ArrayList<>();
+		reader = null;
+		scheduleMerge();
+	}
+	
+	/**
+	 * Add a segment after the others and point the names of its docs at it
+	 */
+	private void addSegment(Segment segment){
+		
+		segments.add(segment);
+		for(int docId = 0; docId < segment.getMaxDoc(); docId++){
+			if(!segment.getDeleted().get(docId)){
+				docsByName.put(segment.getDoc(docId).toString(), new DocRef(segment, docId));
+			}
+		}
+	}
+	
+	/**
+	 * Start a background merge if one is not already waiting to run
+	 */
+	private void scheduleMerge(){
+		
+		if(mergeScheduled || mergePolicy.findMerge(segments) == null){
+			return;
+		}
+		if(merger == null){
+			merger = Workers.newPool(1, false, "merge");
+		}
+		mergeScheduled = true;
+		merger.submit(this::mergeInBackground);
+	}
+	
+	/**
+	 * Run the merges picked by the merge policy until none are left
+	 * The docs are merged without holding the lock of this set so puts, deletes and
+	 * queries carry on while a merge runs.
+	 */
+	private void mergeInBackground(){
+		
+		while(true){
+			Segment[] toMerge;
+			BitSet[] deleted;
+			synchronized(this){
+				int[] range = mergePolicy.findMerge(segments);
+				if(range == null){
+					mergeScheduled = false;
+					return;
+				}
+				toMerge = segments.subList(range[0], range[1]).toArray(new Segment[0]);
+				deleted = deletedOf(toMerge);
+			}
+			
+			int[][] newIds = new int[toMerge.length][];
+			Segment merged = Segment.merge(dictionary, toMerge, deleted, newIds, codec);
+			
+			synchronized(this){
+				if(!replace(toMerge, deleted, merged, newIds)){
+					//the segments were merged by compact while this merge ran
+					continue;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return the deleted docs of each segment as they are now
+	 */
+	private static BitSet[] deletedOf(Segment[] segments){
+		
+		BitSet[] deleted = new BitSet[segments.length];
+		for(int s = 0; s < segments.length; s++){
+			deleted[s] = segments[s].getDeleted();
+		}
+		return deleted;
+	}
+	
+	/**
+	 * Swap merged segments for the segment they were merged in to
+	 * Docs deleted from the old segments while the merge ran are deleted from the new one.
+	 * Must hold the lock of this set.
+	 * @return false if the old segments are no longer in this set
+	 */
+	private boolean replace(
+			Segment[] merged,
+			BitSet[] deletedBefore,
+			Segment segment,
+			int[][] newIds){
+		
+		int from = segments.indexOf(merged[0]);
+		if(from < 0 || from + merged.length > segments.size()){
+			return false;
+		}
+		for(int s = 0; s < merged.length; s++){
+			if(segments.get(from + s) != merged[s]){
+				return false;
+			}
+		}
+		
+		for(int s = 0; s < merged.length; s++){
+			BitSet deletedSince = (BitSet)merged[s].getDeleted().clone();
+			deletedSince.andNot(deletedBefore[s]);
+			for(int docId = deletedSince.nextSetBit(0); docId >= 0; docId = deletedSince.nextSetBit(docId + 1)){
+				segment.delete(newIds[s][docId]);
+			}
+		}
+		
+		List<Segment> range = segments.subList(from, from + merged.length);
+		range.clear();
+		range.add(segment);
+		for(int docId = 0; docId < segment.getMaxDoc(); docId++){
+			if(!segment.getDeleted().get(docId)){
+				docsByName.put(segment.getDoc(docId).toString(), new DocRef(segment, docId));
+			}
+		}
+		//the counts of the stats do not change as a merge keeps the same docs, but they are
+		//summed again so the old segments are not held for their tf weight bounds
+		changed();
+		return true;
+	}
+	
+	/**
+	 * Merge every segment and the buffer in to one segment without deleted docs,
+	 * docs keep their order but are given new ids
+	 */
+	public synchronized void compact(){
+		
+		flush();
+		if(segments.isEmpty() || (segments.size() == 1 && segments.get(0).getNumDeleted() == 0)){
+			return;
+		}
+		Segment[] toMerge = segments.toArray(new Segment[0]);
+		BitSet[] deleted = deletedOf(toMerge);
+		int[][] newIds = new int[toMerge.length][];
+		replace(toMerge, deleted, Segment.merge(dictionary, toMerge, deleted, newIds, codec), newIds);
+	}
+	
+	/**
+	 * @param name itemid of a doc
+	 * @return true if a doc with the itemid is in this set
+	 */
+	public synchronized boolean containsDoc(
+			String name){
+		
+		return docsByName.containsKey(name);
+	}
+	
+	/**
+	 * @return number of docs buffered before they are written as a segment
+	 */
+	public int getSegmentDocs(){
+		
+		return segmentDocs;
+	}
+	
+	/**
+	 * @return number of segments of the same size that are merged together
+	 */
+	public int getMergeFactor(){
+		
+		return mergeFactor;
+	}
+	
+	/**
+	 * @return PostingsCodec the postings of segments are encoded with
+	 */
+	public PostingsCodec getCodec(){
+		
+		return codec;
+	}
+	
+	/**
+	 * @return true if this set indexes the position of every term
+	 */
+	public boolean hasPositions(){
+		
+		return positions;
+	}
+	
+	/**
+	 * @return number of segments in this set, not counting the buffer
+	 */
+	public synchronized int getNumSegments(){
+		
+		return segments.size();
 	}
 	
 	/**
@@ -39,7 +441,7 @@ public class Dataset {
 	 */
 	public void displayDocIds(){
 		
-		for(BowDocument doc : docs){
+		for(BowDocument doc : getDocs()){
 			System.out.println("\t" + doc.toString());
 		}
 	}
@@ -52,14 +454,105 @@ public class Dataset {
 	}
 	
 	/**
-	 * get the bow docs in this set
+	 * get the bow docs in this set, in the order they were added
+	 * Deleted docs are left out, so a doc is only at the position of its id in the index
+	 * when nothing has been deleted since the set was last compacted.
 	 * @return arraylist of bowdocs
 	 */
-	public ArrayList<BowDocument> getDocs(){
+	public synchronized ArrayList<BowDocument> getDocs(){
 		
+		ArrayList<BowDocument> docs = new ArrayList<>();
+		for(Segment segment : segments){
+			BitSet deleted = segment.getDeleted();
+			for(int docId = deleted.nextClearBit(0); docId < segment.getMaxDoc(); docId = deleted.nextClearBit(docId + 1)){
+				docs.add(segment.getDoc(docId));
+			}
+		}
+		for(BowDocument doc : bufferDocs){
+			if(doc != null){
+				docs.add(doc);
+			}
+		}
 		return docs;
 	}
 	
+	/**
+	 * get a bow doc by the id it has in the current reader
+	 * @param docId id of document
+	 * @return BowDocument
+	 */
+	public synchronized BowDocument getDoc(int docId){
+		
+		return getReader().getDoc(docId);
+	}
+	
+	/**
+	 * get the dictionary docs of this set must be built with
+	 * @return TermDictionary
+	 */
+	public TermDictionary getDictionary(){
+		
+		return dictionary;
+	}
+	
+	/**
+	 * get a read only view of the segments and statistics of this set for scoring queries
+	 * Buffered docs are written out first so the reader sees every doc.
+	 * The reader does not change as docs are put, deleted or merged,
+	 * doc ids in its results only match getDoc until this set next changes.
+	 * @return MemoryIndexReader
+	 */
+	public synchronized MemoryIndexReader getReader(){
+		
+		if(reader == null){
+			flush();
+			Segment[] current = segments.toArray(new Segment[0]);
+			reader = new MemoryIndexReader(dictionary, current, deletedOf(current), getStats());
+		}
+		return reader;
+	}
+	
+	/**
+	 * get a read only view of this set as one shard of a corpus, scoring with the statistics
+	 * of the whole corpus and tf weight bounds of the docs of this set
+	 * Buffered docs are written out first so the reader sees every doc.
+	 * @param corpus CorpusStats of every doc of the corpus, this set's docs included
+	 * @return MemoryIndexReader
+	 */
+	synchronized MemoryIndexReader getShardReader(CorpusStats corpus){
+		
+		flush();
+		Segment[] current = segments.toArray(new Segment[0]);
+		BitSet[] deleted = deletedOf(current);
+		return new MemoryIndexReader(dictionary, current, deleted, new CorpusStats(corpus, current, deleted));
+	}
+	
+	/**
+	 * get the generation of this set, which goes up every time docs are added or deleted
+	 * or given new ids by a merge, so results of a query stay valid while it is the same
+	 * @return generation
+	 */
+	public synchronized long getGeneration(){
+		
+		return generation;
+	}
+	
+	/**
+	 * get the statistics of the docs in this set,
+	 * summed from the counts of the segments again only when docs have been added,
+	 * deleted or merged since the last call
+	 * @return CorpusStats
+	 */
+	public synchronized CorpusStats getStats(){
+		
+		if(stats == null){
+			flush();
+			Segment[] current = segments.toArray(new Segment[0]);
+			stats = new CorpusStats(dictionary, current, deletedOf(current));
+		}
+		return stats;
+	}
+	
 	/**
 	 * display dataset title and doc titles
 	 */
@@ -70,32 +563,25 @@ public class Dataset {
 	}
 	
 	/**
-	 * Set weighting hash map
-	 * @param map HashMap<String, Double> where key is doc name and value is BM25
+	 * Set the positive and negative docs from ranked query results
+	 * The top 20 percent of results are positive, the rest are negative.
+	 * Results are already ranked so the split is just the rank they change at,
+	 * the results and the reader they came from are kept and nothing is copied.
+	 * The results must come from the current reader of this set.
+	 * @param results TopDocs ranked best first
 	 */	
-	public void setPosNeg(
-			HashMap<String, Double> map){		
+	public synchronized void setPosNeg(
+			TopDocs results){		
 		
-		positive = new HashMap<BowDocument, Double>();
-		negative = new HashMap<BowDocument, Double>();
 		double percentagePos = 20;
-		double numPosDocs = ((double)map.size() / 100.0) * percentagePos;
-		double currentNumPosDocs = 0.0;
-		for(String key : map.keySet()){	
-			
-			try {
-				if(currentNumPosDocs++ < numPosDocs){	
-					positive.put(getDocByName(key), map.get(key));
+		double numPosDocs = ((double)results.size() / 100.0) * percentagePos;
 		
-				}else{
-					negative.put(getDocByName(key), map.get(key));
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-		positive = SortMap.sortBowDoc(positive);
-		negative = SortMap.sortBowDoc(negative);
+		//every rank below numPosDocs is positive
+		long start = Metrics.start();
+		ranked = results;
+		rankedReader = getReader();
+		numPositive = (int)Math.min(results.size(), Math.ceil(numPosDocs));
+		Metrics.QUERY_SPLIT.recordSince(start);
 	}
 		
 	/**
@@ -104,74 +590,88 @@ public class Dataset {
 	 * @return BowDocument with same name as input name
 	 * @throws Exception When document does not exist with inut name
 	 */
-	private BowDocument getDocByName(String name) throws Exception{
-		for(BowDocument doc : docs){
-			if(doc.toString().equals(name)){
-				return doc;
-			}
+	public synchronized BowDocument getDocByName(String name) throws Exception{
+		
+		DocRef ref = docsByName.get(name);
+		if(ref == null){
+			throw new Exception("Invalid doc name");
 		}
-		throw new Exception("Invalid doc name");
+		return ref.segment == null ? bufferDocs.get(ref.docId) : ref.segment.getDoc(ref.docId);
 	}
 	
 	/**
-	 * Print the weightings hash map
+	 * Print the weightings of the ranked results
 	 */
-	public void printWeightedMap(){
+	public synchronized void printWeightedMap(){
 		String title = "rank\t Doc\tWeight bm25";
-		int rank = 1;
+		int size = ranked == null ? 0 : ranked.size();
 		
 		System.out.println("D+");
 		System.out.println(title);		
-		for(BowDocument doc : positive.keySet()){
-			System.out.println(rank++ +"\t" + doc.toString() + "\t" + positive.get(doc));
+		for(int rank = 0; rank < numPositive; rank++){
+			System.out.println((rank + 1) + "\t" + rankedReader.getDocName(ranked.getDocId(rank)) + "\t" + ranked.getScore(rank));
 		}
 		
 		System.out.println("\nD-");
 		System.out.println(title);
-		for(BowDocument doc : negative.keySet()){
-			System.out.println(rank++ +"\t" + doc.toString() + "\t" + negative.get(doc));
+		for(int rank = numPositive; rank < size; rank++){
+			System.out.println((rank + 1) + "\t" + rankedReader.getDocName(ranked.getDocId(rank)) + "\t" + ranked.getScore(rank));
+		}
+	}
+	
+	/**
+	 * Get the ranked documents from one rank up to another with their BM25 weighting
+	 */
+	private HashMap<BowDocument, Double> weightsOf(int from, int to){
+		
+		HashMap<BowDocument, Double> weights = new LinkedHashMap<>();
+		for(int rank = from; rank < to; rank++){
+			weights.put(rankedReader.getDoc(ranked.getDocId(rank)), ranked.getScore(rank));
 		}
+		return weights;
+	}
+	
+	/**
+	 * Get the ranked documents from one rank up to another
+	 */
+	private BowDocument[] docsOf(int from, int to){
+		
+		BowDocument[] docs = new BowDocument[Math.max(0, to - from)];
+		for(int rank = from; rank < to; rank++){
+			docs[rank - from] = rankedReader.getDoc(ranked.getDocId(rank));
+		}
+		return docs;
 	}
 	
 	/**
 	 * Get the positive documents with their BM25 weighting
-	 * @return hashmap<BowDocument, double>
+	 * @return hashmap<BowDocument, double> in rank order
 	 */
-	public HashMap<BowDocument, Double> getPosMap(){
-		return positive;
+	public synchronized HashMap<BowDocument, Double> getPosMap(){
+		return weightsOf(0, numPositive);
 	}
 	
 	/**
 	 * Get the negative documents with their BM25 weighting
-	 * @return hashmap<BowDocument, double>
+	 * @return hashmap<BowDocument, double> in rank order
 	 */
-	public HashMap<BowDocument, Double> getNegMap(){
-		return negative;
+	public synchronized HashMap<BowDocument, Double> getNegMap(){
+		return weightsOf(numPositive, ranked == null ? 0 : ranked.size());
 	}
 	
 	/**
 	 * Get the positive documents of this set
 	 * @return Array of BowDocuments that are positive
 	 */
-	public BowDocument[] getPosDocs(){
-		BowDocument[] docs = new BowDocument[positive.size()];
-		int i = 0;
-		for(BowDocument d : positive.keySet()){
-			docs[i++] = d;
-		}
-		return docs;
+	public synchronized BowDocument[] getPosDocs(){
+		return docsOf(0, numPositive);
 	}
 	
 	/**
 	 * Get the negative documents of this set
 	 * @return Array of BowDocuments that are negative
 	 */
-	public BowDocument[] getNegDocs(){
-		BowDocument[] docs = new BowDocument[negative.size()];
-		int i = 0;
-		for(BowDocument d : negative.keySet()){
-			docs[i++] = d;
-		}
-		return docs;
+	public synchronized BowDocument[] getNegDocs(){
+		return docsOf(numPositive, ranked == null ? 0 : ranked.size());
 	}
 }
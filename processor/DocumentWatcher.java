@@ -0,0 +1,236 @@
+package processor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Watches the documents folder of a Dataset and keeps the set up to date as XML files
+ * are created, changed and deleted, so new documents can be searched without a rebuild.
+ *
+ * Events are gathered until the folder has been quiet for a short time, then each changed
+ * file is indexed once: a file that still exists is built and put in to the set, replacing
+ * the doc with the same itemid, and a deleted file has its doc deleted.
+ * Files are matched to docs by the source name recorded on each BowDocument.
+ * If the watch service drops events the whole folder is checked against the set.
+ *
+ * The listener is told at most once every notifyMillis, with the changes of every batch
+ * since it was last told, so a folder that keeps changing is not saved after every batch.
+ * Changes it has not been told of yet are told once notifyMillis has passed, whether or
+ * not more come. The fingerprint of the folder is taken before each batch is read, so an
+ * index saved with it never claims a change made while the batch was read.
+ */
+public class DocumentWatcher implements Closeable {
+
+	//how long the folder must be quiet before a batch of changes is indexed
+	private static final long SETTLE_MILLIS = 200;
+
+	/**
+	 * Builds a BowDocument from an XML file
+	 */
+	public interface DocumentBuilder {
+		BowDocument build(File file) throws Exception;
+	}
+
+	/**
+	 * Told after changes have been indexed
+	 */
+	public interface Listener {
+		/**
+		 * @param numPut number of docs put since the listener was last told
+		 * @param numDeleted number of docs deleted since the listener was last told
+		 * @param fingerprint fingerprint of the source files taken before the last batch was read
+		 */
+		void indexed(int numPut, int numDeleted, long fingerprint);
+	}
+
+	private final File folder;
+	private final Dataset set;
+	private final DocumentBuilder builder;
+	private final Listener listener;
+	private final LongSupplier fingerprint;
+	private final long notifyMillis;
+	private final WatchService watchService;
+	private final HashMap<String, String> namesBySource;
+	private final Thread thread;
+	//changes the listener has not been told of
+	private int numPut;
+	private int numDeleted;
+	private long lastFingerprint;
+	private long lastNotified;
+
+	/**
+	 * Class constructor
+	 * Starts watching straight away on a daemon thread
+	 * @param folder folder of XML documents the set was built from
+	 * @param set Dataset to keep up to date
+	 * @param builder builds a BowDocument with the dictionary of set
+	 * @param fingerprint takes the fingerprint of the source files of set, as IndexStore.fingerprint
+	 * @param listener told after changes are indexed, may be null
+	 * @param notifyMillis least time between telling the listener
+	 * @throws IOException if the folder can not be watched
+	 */
+	public DocumentWatcher(
+			File folder,
+			Dataset set,
+			DocumentBuilder builder,
+			LongSupplier fingerprint,
+			Listener listener,
+			long notifyMillis)
+					throws IOException{
+
+		this.folder = folder;
+		this.set = set;
+		this.builder = builder;
+		this.fingerprint = fingerprint;
+		this.listener = listener;
+		this.notifyMillis = notifyMillis;
+		lastNotified = System.currentTimeMillis() - notifyMillis;
+		namesBySource = new HashMap<>();
+		for(BowDocument doc : set.getDocs()){
+			if(doc.getSource() != null){
+				namesBySource.put(doc.getSource(), doc.toString());
+			}
+		}
+
+		watchService = FileSystems.getDefault().newWatchService();
+		folder.toPath().register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE);
+
+		thread = new Thread(this::run, "document-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop watching the folder
+	 */
+	@Override
+	public void close() throws IOException{
+
+		watchService.close();
+		thread.interrupt();
+	}
+
+	private void run(){
+
+		try {
+			while(true){
+				//wait for a change, or until the listener is due to be told of the last ones
+				WatchKey first;
+				if(numPut + numDeleted > 0){
+					long wait = lastNotified + notifyMillis - System.currentTimeMillis();
+					first = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+					if(first == null){
+						notifyListener();
+						continue;
+					}
+				}else{
+					first = watchService.take();
+				}
+				LinkedHashSet<String> changed = new LinkedHashSet<>();
+				boolean overflow = collect(first, changed);
+
+				//keep gathering until no event has come for SETTLE_MILLIS
+				WatchKey key;
+				while((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null){
+					overflow |= collect(key, changed);
+				}
+
+				if(overflow){
+					System.out.println("Missed changes to " + folder + ", checking every file");
+					changed.addAll(namesBySource.keySet());
+					String[] files = folder.list();
+					if(files != null){
+						for(String file : files) changed.add(file);
+					}
+				}
+				lastFingerprint = fingerprint.getAsLong();
+				update(changed);
+				if(numPut + numDeleted > 0 && System.currentTimeMillis() - lastNotified >= notifyMillis){
+					notifyListener();
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			//closed
+		}
+	}
+
+	/**
+	 * Add the file names of the events of a key to changed
+	 * @return true if events were dropped
+	 */
+	private boolean collect(WatchKey key, LinkedHashSet<String> changed){
+
+		boolean overflow = false;
+		for(WatchEvent<?> event : key.pollEvents()){
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+				overflow = true;
+			}else{
+				changed.add(((Path)event.context()).getFileName().toString());
+			}
+		}
+		key.reset();
+		return overflow;
+	}
+
+	/**
+	 * Tell the listener of the changes it has not been told of
+	 */
+	private void notifyListener(){
+
+		if(listener != null){
+			listener.indexed(numPut, numDeleted, lastFingerprint);
+		}
+		numPut = 0;
+		numDeleted = 0;
+		lastNotified = System.currentTimeMillis();
+	}
+
+	/**
+	 * Put or delete the doc of every changed file
+	 */
+	private void update(LinkedHashSet<String> changed){
+
+		for(String source : changed){
+			if(source.contains("._")){
+				continue;
+			}
+			File file = new File(folder, source);
+			String oldName = namesBySource.get(source);
+
+			try {
+				if(file.isFile()){
+					BowDocument doc = builder.build(file);
+					doc.setSource(source);
+					//the file may now have another itemid
+					if(oldName != null && !oldName.equals(doc.toString())){
+						set.deleteDoc(oldName);
+					}
+					set.putDoc(doc);
+					namesBySource.put(source, doc.toString());
+					numPut++;
+				}else if(oldName != null){
+					set.deleteDoc(oldName);
+					namesBySource.remove(source);
+					numDeleted++;
+				}
+			} catch (Exception e) {
+				System.out.println("Could not index " + file + " : " + e.getMessage());
+			}
+		}
+	}
+}
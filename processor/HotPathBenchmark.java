@@ -0,0 +1,272 @@
+package processor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.stream.Stream;
+
+/**
+ * Times the hot paths of the engine on corpora made by a CorpusGenerator, so a change to
+ * preprocessing, indexing or scoring can be checked for regressions between versions.
+ * Each benchmark is warmed up for WARMUP_ITERATIONS iterations, then run for
+ * MEASURE_ITERATIONS iterations of ITERATION_MILLIS each, and reported as the mean time
+ * an operation took over the iterations with the standard deviation between them.
+ * Every result is kept in a sink so the JIT can not drop the work.
+ *
+ * Results are written one a line, tab separated, to standard out and the results file:
+ * benchmark, corpus size (0 where it does not apply), unit, mean, error, iterations
+ * with times in nanoseconds an operation.
+ * The corpora are seeded so runs of two versions time the same work.
+ *
+ * Usage: java processor.HotPathBenchmark [corpus sizes, comma separated] [results file]
+ */
+public class HotPathBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURE_ITERATIONS = 5;
+	private static final long ITERATION_MILLIS = 1000;
+	private static final long BATCH_NANOS = 10000;
+	private static final int MAX_BATCH = 1024;
+	private static final int NUM_SAMPLES = 200;
+	private static final int K = 200;
+
+	//kept in a field so no benchmarked result is dead code
+	static volatile Object sink;
+
+	/**
+	 * One operation of a benchmark
+	 */
+	private interface Op {
+		Object run(int i) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		String[] sizes = (args.length > 0 ? args[0] : "1000,10000").split(",");
+		File resultsFile = new File(args.length > 1 ? args[1] : "./benchmarks.tsv");
+
+		try (PrintWriter results = new PrintWriter(new FileWriter(resultsFile))) {
+			String header = "benchmark\tdocs\tunit\tmean\terror\titerations";
+			results.println("# java " + System.getProperty("java.version") + ", "
+					+ Runtime.getRuntime().availableProcessors() + " cores");
+			results.println(header);
+			System.out.println(header);
+
+			CorpusGenerator generator = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED, CorpusGenerator.DEFAULT_VOCABULARY_SIZE);
+			StopWords stopWords = new StopWords(CorpusGenerator.STOP_WORDS);
+			String[] docs = new String[NUM_SAMPLES];
+			String[] texts = new String[NUM_SAMPLES];
+			for(int i = 0; i < NUM_SAMPLES; i++){
+				docs[i] = generator.document(i);
+				texts[i] = generator.text(200);
+			}
+
+			measure(results, "tokenize", 0, i -> Preprocessor.tokenize(docs[i % NUM_SAMPLES]));
+
+			ArrayList<ArrayList<String>> tokens = new ArrayList<>();
+			ArrayList<String> words = new ArrayList<>();
+			for(String text : texts){
+				tokens.add(Preprocessor.tokenizeText(text));
+				words.addAll(Preprocessor.tokenizeText(text, stopWords));
+			}
+			//includes copying the tokens, as removeStopWords removes them in place
+			measure(results, "removeStopWords", 0, i -> Preprocessor.removeStopWords(stopWords, new ArrayList<>(tokens.get(i % NUM_SAMPLES))));
+
+			Preprocessor stemmer = new Preprocessor();
+			Preprocessor uncachedStemmer = new Preprocessor(0);
+			measure(results, "stemTerm", 0, i -> stemmer.stemTerm(words.get(i % words.size())));
+			measure(results, "stemTerm uncached", 0, i -> uncachedStemmer.stemTerm(words.get(i % words.size())));
+
+			HashMap<String, Double> weights = new HashMap<>();
+			for(String word : words){
+				weights.merge(word, 1.0, Double::sum);
+			}
+			measure(results, "SortMap.sortMapValueStringDouble", 0, i -> SortMap.sortMapValueStringDouble(weights));
+
+			for(String size : sizes){
+				int numDocs = Integer.parseInt(size.trim());
+				File folder = Files.createTempDirectory("corpus").toFile();
+				try {
+					measureCorpus(results, numDocs, folder, stopWords);
+				} finally {
+					delete(folder);
+				}
+			}
+		}
+		System.out.println("Wrote " + resultsFile);
+	}
+
+	/**
+	 * Run the benchmarks that depend on the size of the corpus
+	 */
+	private static void measureCorpus(
+			PrintWriter results,
+			int numDocs,
+			File folder,
+			StopWords stopWords) throws Exception {
+
+		CorpusGenerator generator = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED + numDocs, CorpusGenerator.DEFAULT_VOCABULARY_SIZE);
+		File documents = generator.writeCorpus(folder, numDocs);
+		Preprocessor stemmer = new Preprocessor();
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		measure(results, "makeDataSet", numDocs, i -> Processor.makeDataSet(documents.getPath(), stopWords, stemmer, threads, false, false));
+
+		Dataset set = Processor.makeDataSet(documents.getPath(), stopWords, stemmer, threads, false, false);
+		MemoryIndexReader reader = set.getReader();
+		CorpusStats stats = set.getStats();
+		ArrayList<BowDocument> docs = set.getDocs();
+		String[] queryTexts = new String[NUM_SAMPLES];
+		ArrayList<ArrayList<String>> queries = new ArrayList<>();
+		for(int i = 0; i < NUM_SAMPLES; i++){
+			queryTexts[i] = generator.query(2 + i % 4);
+			queries.add(stem(queryTexts[i], stopWords, stemmer));
+		}
+
+		measure(results, "Weighting.calculateBM25 doc", numDocs,
+				i -> Weighting.calculateBM25(docs.get(i % docs.size()), stats, queries.get(i % NUM_SAMPLES)));
+		measure(results, "Weighting.calcTfidf", numDocs,
+				i -> Weighting.calcTfidf(stats, docs.get(i % docs.size()), queries.get(i % NUM_SAMPLES).get(0)));
+		measure(results, "Weighting.calculateBM25 index", numDocs,
+				i -> Weighting.calculateBM25(reader, queries.get(i % NUM_SAMPLES)));
+		measure(results, "Searcher.search", numDocs,
+				i -> Searcher.search(reader, queries.get(i % NUM_SAMPLES), K));
+		//BM25F over the title and body, and over the title postings alone
+		measure(results, "Searcher.searchFields", numDocs,
+				i -> Searcher.searchFields(reader, queries.get(i % NUM_SAMPLES), K, Weighting.FieldWeights.DEFAULT));
+		measure(results, "Searcher.searchFields title", numDocs,
+				i -> Searcher.searchFields(reader, queries.get(i % NUM_SAMPLES), K, Weighting.FieldWeights.DEFAULT.titleOnly()));
+		//the same queries over the set split in to shards, scored at once on a thread each
+		for(int numShards : new int[]{2, 4, 8}){
+			try (ShardedIndex index = ShardedIndex.of(set, numShards)) {
+				ShardedReader shards = index.getReader();
+				measure(results, "ShardedReader.search " + numShards + " shards", numDocs,
+						i -> shards.search(queries.get(i % NUM_SAMPLES), K));
+			}
+		}
+		//phrases and proximity clauses of the same words, against a set with positions
+		measure(results, "makeDataSet positions", numDocs, i -> Processor.makeDataSet(documents.getPath(), stopWords, stemmer, threads, false, true));
+		MemoryIndexReader positional = Processor.makeDataSet(documents.getPath(), stopWords, stemmer, threads, false, true).getReader();
+		ArrayList<ArrayList<String>> phrases = new ArrayList<>();
+		ArrayList<ArrayList<String>> nearQueries = new ArrayList<>();
+		for(ArrayList<String> query : queries){
+			phrases.add(new ArrayList<>(Collections.singletonList(new PhraseQuery(query, 0).toTerm())));
+			ArrayList<String> near = new ArrayList<>(query);
+			near.add(new PhraseQuery(query, 10).toTerm());
+			nearQueries.add(near);
+		}
+		measure(results, "Searcher.search positions", numDocs,
+				i -> Searcher.search(positional, queries.get(i % NUM_SAMPLES), K));
+		measure(results, "Searcher.search phrase", numDocs,
+				i -> Searcher.search(positional, phrases.get(i % NUM_SAMPLES), K));
+		measure(results, "Searcher.search proximity", numDocs,
+				i -> Searcher.search(positional, nearQueries.get(i % NUM_SAMPLES), K));
+		//what an interactive query costs, from the typed text to the ranked docs
+		measure(results, "query end to end", numDocs, i -> {
+			synchronized(set){
+				set.setPosNeg(Searcher.search(set.getReader(), stem(queryTexts[i % NUM_SAMPLES], stopWords, stemmer), K));
+				return set.getPosDocs();
+			}
+		});
+	}
+
+	/**
+	 * @return the stemmed terms of query text
+	 */
+	private static ArrayList<String> stem(String text, StopWords stopWords, Preprocessor stemmer) throws Exception {
+
+		ArrayList<String> terms = new ArrayList<>();
+		for(String token : Preprocessor.tokenizeText(text, stopWords)){
+			terms.add(stemmer.stemTerm(token));
+		}
+		return terms;
+	}
+
+	/**
+	 * Time a benchmark and write its result
+	 * @param results results file
+	 * @param name name of benchmark
+	 * @param numDocs corpus size, 0 if it does not use one
+	 * @param op operation to time, given a count of the operations run before it
+	 */
+	private static void measure(
+			PrintWriter results,
+			String name,
+			int numDocs,
+			Op op) throws Exception {
+
+		long count = 0;
+		for(int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++){
+			count += iterate(op, count)[1];
+		}
+
+		double[] nanosPerOp = new double[MEASURE_ITERATIONS];
+		for(int iteration = 0; iteration < MEASURE_ITERATIONS; iteration++){
+			long[] timed = iterate(op, count);
+			count += timed[1];
+			nanosPerOp[iteration] = (double)timed[0] / timed[1];
+		}
+
+		double mean = 0.0;
+		for(double nanos : nanosPerOp){
+			mean += nanos / MEASURE_ITERATIONS;
+		}
+		double variance = 0.0;
+		for(double nanos : nanosPerOp){
+			variance += (nanos - mean) * (nanos - mean) / Math.max(1, MEASURE_ITERATIONS - 1);
+		}
+
+		//every benchmark is in the same unit so results files can be compared line by line
+		String line = name + "\t" + numDocs + "\tns/op\t" + String.format("%.3f", mean) + "\t"
+				+ String.format("%.3f", Math.sqrt(variance)) + "\t" + MEASURE_ITERATIONS;
+		results.println(line);
+		results.flush();
+		System.out.println(line);
+	}
+
+	/**
+	 * Run operations for ITERATION_MILLIS, at least one
+	 * @param first count of the operations run before these
+	 * @return {nanoseconds taken, operations run}
+	 */
+	private static long[] iterate(Op op, long first) throws Exception {
+
+		long start = System.nanoTime();
+		long end = start + ITERATION_MILLIS * 1000000L;
+		long ops = 0;
+		int batch = 1;
+		long last = start;
+		long now;
+		do{
+			for(int b = 0; b < batch; b++){
+				sink = op.run((int)((first + ops++) & Integer.MAX_VALUE));
+			}
+			now = System.nanoTime();
+			//fast operations are run in bigger batches between reads of the clock so reading it costs little
+			if(now - last < BATCH_NANOS && batch < MAX_BATCH){
+				batch <<= 1;
+			}
+			last = now;
+		}while(now < end);
+		return new long[]{now - start, ops};
+	}
+
+	/**
+	 * Delete a folder and everything in it
+	 */
+	private static void delete(File folder) throws IOException {
+
+		try (Stream<Path> paths = Files.walk(folder.toPath())) {
+			for(Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator){
+				Files.delete(path);
+			}
+		}
+	}
+}
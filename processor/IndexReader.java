@@ -0,0 +1,72 @@
+package processor;
+
+/**
+ * Read only view of an index that queries are scored against.
+ * Gives the postings and statistics of terms and the lengths and names of documents,
+ * whether they are held in memory by a Dataset or read from a mapped index file.
+ */
+public interface IndexReader {
+	
+	/**
+	 * @return number of documents in the index
+	 */
+	int getNumDocs();
+	
+	/**
+	 * @return one more than the highest document id, removed documents can leave gaps below it
+	 */
+	int getMaxDoc();
+	
+	/**
+	 * @param docId id of document
+	 * @return true if the document has been deleted, its postings may still be read but it must not be ranked
+	 */
+	boolean isDeleted(int docId);
+	
+	/**
+	 * @return average number of terms in a document
+	 */
+	double getAvgDocLength();
+	
+	/**
+	 * @param docId id of document
+	 * @return number of terms in the document
+	 */
+	int getDocLength(int docId);
+	
+	/**
+	 * @param docId id of document
+	 * @return the documents itemid
+	 */
+	String getDocName(int docId);
+	
+	/**
+	 * @param term term to look up
+	 * @return postings of the term or null if no document contains it
+	 */
+	PostingsList getPostings(String term);
+	
+	/**
+	 * @param term term to look up
+	 * @return BM25 idf of the term
+	 */
+	double getBm25Idf(String term);
+	
+	/**
+	 * @param term term to look up
+	 * @return largest BM25 tf weight the term has in any document, 0 if it is in none
+	 */
+	double getMaxTfWeight(String term);
+	
+	/**
+	 * @param term term to look up
+	 * @return smallest BM25 tf weight the term has in any document that contains it, 0 if it is in none
+	 */
+	double getMinTfWeight(String term);
+	
+	/**
+	 * @param term term to look up
+	 * @return most times the term occurs in any document, 0 if it is in none
+	 */
+	int getMaxTf(String term);
+}
@@ -0,0 +1,488 @@
+package processor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Saves a Dataset to a binary index file and loads it back, so a restart does not
+ * have to parse, tokenize and stem every XML document again.
+ *
+ * The file holds, in order: a header (magic number, format version and a fingerprint
+ * of the source files), the set name, the term dictionary and the segments of the set.
+ * Each segment holds its documents with their source file names and term counts, its
+ * deleted documents and the postings of every term, so a set is saved as it is without
+ * merging its segments and loaded back with the same doc ids. The corpus statistics are
+ * not written, they are summed from the segments once loaded.
+ * Each document has the counts of its title terms after its term counts and the postings
+ * of the titles follow the postings of the whole documents.
+ * A set with positions also has the term id at every position of each document written
+ * after its counts, and the positions of every posting after its doc id and tf, so its
+ * postings are read back as they were written rather than indexed again.
+ * A file written by another format version or from different source files is ignored
+ * by load, so the caller knows to rebuild.
+ */
+public class IndexStore {
+	
+	private static final int MAGIC = 0x424F5749; // "BOWI"
+	public static final int VERSION = 7;
+	
+	/**
+	 * Buffers reads of a file without the lock BufferedInputStream takes on every read,
+	 * which DataInputStream calls four times for each int
+	 */
+	private static final class InputBuffer extends InputStream {
+		
+		private final InputStream in;
+		private final byte[] buffer;
+		private int position;
+		private int limit;
+		
+		private InputBuffer(InputStream in, int size){
+			this.in = in;
+			buffer = new byte[size];
+		}
+		
+		/**
+		 * @return false if the end of the stream has been reached
+		 */
+		private boolean fill() throws IOException{
+			
+			position = 0;
+			limit = Math.max(0, in.read(buffer, 0, buffer.length));
+			return limit > 0;
+		}
+		
+		@Override
+		public int read() throws IOException{
+			
+			if(position == limit && !fill()){
+				return -1;
+			}
+			return buffer[position++] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] into, int offset, int length) throws IOException{
+			
+			if(length == 0){
+				return 0;
+			}
+			if(position == limit && !fill()){
+				return -1;
+			}
+			int n = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, into, offset, n);
+			position += n;
+			return n;
+		}
+		
+		@Override
+		public void close() throws IOException{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Fingerprint the files an index is built from.
+	 * Uses the name, size and modification time of every file so any added, removed
+	 * or changed file gives a different fingerprint.
+	 * @param docsFolder folder of XML documents
+	 * @param stopWordsFile stop words file
+	 * @return fingerprint
+	 */
+	public static long fingerprint(
+			File docsFolder,
+			File stopWordsFile){
+		
+		File[] files = docsFolder.listFiles();
+		if(files == null){
+			files = new File[0];
+		}
+		Arrays.sort(files);
+		
+		long hash = 0xcbf29ce484222325L;
+		for(File file : files){
+			hash = mix(hash, file.getName().hashCode());
+			hash = mix(hash, file.length());
+			hash = mix(hash, file.lastModified());
+		}
+		hash = mix(hash, stopWordsFile.length());
+		hash = mix(hash, stopWordsFile.lastModified());
+		return hash;
+	}
+	
+	/**
+	 * FNV-1a style mixing of a value into a hash
+	 */
+	private static long mix(long hash, long value){
+		
+		for(int i = 0; i < 8; i++){
+			hash ^= (value >>> (i * 8)) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * Write a dataset to an index file
+	 * The segments of a reader of the set are written as they are, with their deleted docs,
+	 * so nothing is merged and the lock of the set is only held while the reader is taken.
+	 * The file is written next to its final location and moved in to place so a
+	 * crash never leaves a half written index behind.
+	 * @param set Dataset to write
+	 * @param file index file
+	 * @param fingerprint fingerprint of the source files of set
+	 * @throws IOException if the file can not be written
+	 */
+	public static void save(
+			Dataset set,
+			File file,
+			long fingerprint)
+					throws IOException{
+		
+		File temp = new File(file.getPath() + ".tmp");
+		MemoryIndexReader index = set.getReader();
+		TermDictionary dictionary = set.getDictionary();
+		//every term of the reader is in the dictionary by now
+		int numTerms = dictionary.size();
+		
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))){
+			
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeUTF(set.toString());
+			out.writeBoolean(set.hasPositions());
+			
+			out.writeInt(numTerms);
+			for(int termId = 0; termId < numTerms; termId++){
+				out.writeUTF(dictionary.getTerm(termId));
+			}
+			
+			out.writeInt(index.getNumSegments());
+			for(int s = 0; s < index.getNumSegments(); s++){
+				writeSegment(out, index.getSegment(s), index.getDeleted(s), set.hasPositions());
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Write the docs, deleted docs and postings of a segment
+	 * Every id of the segment is written, a flag says if it has a doc.
+	 * @param deleted deleted docs of the segment to write
+	 * @param positions true to write the term id at every position of each doc
+	 */
+	private static void writeSegment(
+			DataOutputStream out,
+			Segment segment,
+			BitSet deleted,
+			boolean positions)
+					throws IOException{
+		
+		out.writeInt(segment.getMaxDoc());
+		for(int docId = 0; docId < segment.getMaxDoc(); docId++){
+			BowDocument doc = segment.getDoc(docId);
+			out.writeBoolean(doc != null);
+			if(doc != null){
+				writeDoc(out, doc, positions);
+			}
+		}
+		
+		long[] words = deleted.toLongArray();
+		out.writeInt(words.length);
+		for(long word : words){
+			out.writeLong(word);
+		}
+		
+		out.writeInt(segment.getNumTermIds());
+		for(int termId = 0; termId < segment.getNumTermIds(); termId++){
+			writePostings(out, segment.getPostings(termId), positions);
+		}
+		out.writeInt(segment.getNumTitleTermIds());
+		for(int termId = 0; termId < segment.getNumTitleTermIds(); termId++){
+			writePostings(out, segment.getTitlePostings(termId), false);
+		}
+	}
+	
+	/**
+	 * Write the name, source file name and term counts of a doc, then those of its title
+	 * @param positions true to write the term id at every position
+	 */
+	private static void writeDoc(
+			DataOutputStream out,
+			BowDocument doc,
+			boolean positions)
+					throws IOException{
+		
+		out.writeUTF(doc.toString());
+		out.writeUTF(doc.getSource() == null ? "" : doc.getSource());
+		out.writeInt(doc.getNumWords());
+		out.writeInt(doc.getNumDistinctTerms());
+		IOException[] failed = new IOException[1];
+		doc.forEachTerm((termId, count) -> {
+			try {
+				out.writeInt(termId);
+				out.writeInt(count);
+			} catch (IOException e) {
+				failed[0] = e;
+			}
+		});
+		if(failed[0] != null) throw failed[0];
+		out.writeInt(doc.getNumDistinctTitleTerms());
+		doc.forEachTitleTerm((termId, count) -> {
+			try {
+				out.writeInt(termId);
+				out.writeInt(count);
+			} catch (IOException e) {
+				failed[0] = e;
+			}
+		});
+		if(failed[0] != null) throw failed[0];
+		if(positions){
+			for(int position = 0; position < doc.getNumTerms(); position++){
+				out.writeInt(doc.getTermIdAt(position));
+			}
+		}
+	}
+	
+	/**
+	 * Write the size of a postings list then each doc id and tf,
+	 * followed by the positions of the posting when they are written,
+	 * the number of positions of the list comes before the postings so they are read in to arrays of the right size
+	 * @param postings postings or null for none
+	 * @param positions true to write the positions of every posting
+	 */
+	private static void writePostings(
+			DataOutputStream out,
+			PostingsList postings,
+			boolean positions)
+					throws IOException{
+		
+		int size = postings == null ? 0 : postings.size();
+		out.writeInt(size);
+		if(positions && size > 0){
+			int numPositions = 0;
+			for(int i = 0; i < size; i++){
+				numPositions += postings.getTf(i);
+			}
+			out.writeInt(numPositions);
+		}
+		int[] buffer = new int[16];
+		for(int i = 0; i < size; i++){
+			int tf = postings.getTf(i);
+			out.writeInt(postings.getDocId(i));
+			out.writeInt(tf);
+			if(positions){
+				if(tf > buffer.length){
+					buffer = new int[Math.max(tf, buffer.length * 2)];
+				}
+				postings.getPositions(i, buffer);
+				for(int p = 0; p < tf; p++){
+					out.writeInt(buffer[p]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read the postings written by writePostings
+	 * @param positions true if the positions of every posting were written
+	 * @return Postings or null if the list was empty
+	 */
+	private static Postings readPostings(
+			DataInputStream in,
+			boolean positions)
+					throws IOException{
+		
+		int size = in.readInt();
+		if(size == 0){
+			return null;
+		}
+		int[] docIds = new int[size];
+		int[] tfs = new int[size];
+		if(!positions){
+			for(int i = 0; i < size; i++){
+				docIds[i] = in.readInt();
+				tfs[i] = in.readInt();
+			}
+			return new Postings(docIds, tfs, size);
+		}
+		
+		int[] termPositions = new int[in.readInt()];
+		int[] starts = new int[size];
+		int next = 0;
+		for(int i = 0; i < size; i++){
+			docIds[i] = in.readInt();
+			tfs[i] = in.readInt();
+			starts[i] = next;
+			for(int p = 0; p < tfs[i]; p++){
+				termPositions[next++] = in.readInt();
+			}
+		}
+		return new Postings(docIds, tfs, size, termPositions, starts);
+	}
+	
+	/**
+	 * Read a dataset from an index file, with the default segment size, merge factor and codec
+	 * @param file index file
+	 * @param fingerprint fingerprint of the current source files
+	 * @return Dataset or null if there is no index, it has another version or was built from other files
+	 * @throws IOException if the file exists but can not be read
+	 */
+	public static Dataset load(
+			File file,
+			long fingerprint)
+					throws IOException{
+		
+		return load(file, fingerprint, Dataset.DEFAULT_SEGMENT_DOCS, Dataset.DEFAULT_MERGE_FACTOR,
+				PostingsCodec.forName(Dataset.DEFAULT_POSTINGS_CODEC));
+	}
+	
+	/**
+	 * Read a dataset from an index file
+	 * The file does not depend on how postings are encoded, so the set is given the segment size,
+	 * merge factor and codec it would have been built with.
+	 * @param file index file
+	 * @param fingerprint fingerprint of the current source files
+	 * @param segmentDocs number of docs buffered before they are written as a segment
+	 * @param mergeFactor number of segments of the same size that are merged together
+	 * @param codec PostingsCodec the postings are encoded with
+	 * @return Dataset or null if there is no index, it has another version or was built from other files
+	 * @throws IOException if the file exists but can not be read
+	 */
+	public static Dataset load(
+			File file,
+			long fingerprint,
+			int segmentDocs,
+			int mergeFactor,
+			PostingsCodec codec)
+					throws IOException{
+		
+		if(!file.isFile()){
+			return null;
+		}
+		
+		try(DataInputStream in = new DataInputStream(new InputBuffer(new FileInputStream(file), 1 << 16))){
+			
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != fingerprint){
+				return null;
+			}
+			String name = in.readUTF();
+			boolean positions = in.readBoolean();
+			
+			TermDictionary dictionary = new TermDictionary();
+			int numTerms = in.readInt();
+			for(int termId = 0; termId < numTerms; termId++){
+				dictionary.getOrAdd(in.readUTF());
+			}
+			
+			int numSegments = in.readInt();
+			ArrayList<Segment> segments = new ArrayList<>(numSegments);
+			for(int s = 0; s < numSegments; s++){
+				segments.add(readSegment(in, dictionary, positions, codec));
+			}
+			
+			return new Dataset(name, segmentDocs, mergeFactor, codec, positions, dictionary, segments);
+		} catch (EOFException e) {
+			throw new IOException("Index file " + file + " is truncated", e);
+		}
+	}
+	
+	/**
+	 * Read a segment written by writeSegment and encode its postings
+	 * @param codec PostingsCodec to encode the postings with
+	 * @return Segment with its deleted docs marked
+	 */
+	private static Segment readSegment(
+			DataInputStream in,
+			TermDictionary dictionary,
+			boolean positions,
+			PostingsCodec codec)
+					throws IOException{
+		
+		int maxDoc = in.readInt();
+		ArrayList<BowDocument> docs = new ArrayList<>(maxDoc);
+		int[] docLengths = new int[Math.max(16, maxDoc)];
+		int[] titleLengths = new int[docLengths.length];
+		for(int docId = 0; docId < maxDoc; docId++){
+			BowDocument doc = in.readBoolean() ? readDoc(in, dictionary, positions) : null;
+			docs.add(doc);
+			if(doc != null){
+				docLengths[docId] = doc.getNumTerms();
+				titleLengths[docId] = doc.getNumTitleTerms();
+			}
+		}
+		
+		long[] words = new long[in.readInt()];
+		for(int i = 0; i < words.length; i++){
+			words[i] = in.readLong();
+		}
+		BitSet deleted = BitSet.valueOf(words);
+		
+		int numTermIds = in.readInt();
+		Postings[] postings = new Postings[Math.max(1, numTermIds)];
+		for(int termId = 0; termId < numTermIds; termId++){
+			postings[termId] = readPostings(in, positions);
+		}
+		int numTitleTermIds = in.readInt();
+		Postings[] titlePostings = new Postings[Math.max(1, numTitleTermIds)];
+		for(int termId = 0; termId < numTitleTermIds; termId++){
+			titlePostings[termId] = readPostings(in, false);
+		}
+		InvertedIndex index = new InvertedIndex(dictionary, postings, titlePostings, docLengths, titleLengths, maxDoc, positions);
+		
+		Segment segment = new Segment(index, docs, codec);
+		for(int docId = deleted.nextSetBit(0); docId >= 0; docId = deleted.nextSetBit(docId + 1)){
+			segment.delete(docId);
+		}
+		return segment;
+	}
+	
+	/**
+	 * Read a doc written by writeDoc
+	 * @param positions true if the term id at every position was written
+	 */
+	private static BowDocument readDoc(
+			DataInputStream in,
+			TermDictionary dictionary,
+			boolean positions)
+					throws IOException{
+		
+		BowDocument doc = new BowDocument(in.readUTF(), dictionary, positions);
+		String source = in.readUTF();
+		doc.setSource(source.isEmpty() ? null : source);
+		doc.setNumWords(in.readInt());
+		int numDistinct = in.readInt();
+		for(int i = 0; i < numDistinct; i++){
+			int termId = in.readInt();
+			doc.addTerm(termId, in.readInt());
+		}
+		int numDistinctTitle = in.readInt();
+		for(int i = 0; i < numDistinctTitle; i++){
+			int termId = in.readInt();
+			doc.addTitleTerm(termId, in.readInt());
+		}
+		if(positions){
+			int[] termIds = new int[doc.getNumTerms()];
+			for(int position = 0; position < termIds.length; position++){
+				termIds[position] = in.readInt();
+			}
+			doc.setPositions(termIds);
+		}
+		doc.trim();
+		return doc;
+	}
+}
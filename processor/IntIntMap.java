@@ -0,0 +1,139 @@
+package processor;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from non negative int keys to int values.
+ * Keys and values are held in two primitive arrays so nothing is boxed and
+ * there is no node object per entry. Absent keys have the value 0.
+ */
+public class IntIntMap {
+	
+	private static final int EMPTY = -1;
+	
+	private int[] keys;
+	private int[] values;
+	private int size;
+	
+	/**
+	 * Receives the entries of a map
+	 */
+	public interface EntryConsumer {
+		void accept(int key, int value);
+	}
+	
+	/**
+	 * Class constructor
+	 * Creates an empty map
+	 */
+	public IntIntMap(){
+		
+		keys = new int[8];
+		values = new int[8];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+	}
+	
+	/**
+	 * @param key key to look up
+	 * @return value of key or 0 if it is not in the map
+	 */
+	public int get(int key){
+		
+		int slot = find(keys, key);
+		return keys[slot] == key ? values[slot] : 0;
+	}
+	
+	/**
+	 * @param key key to look up
+	 * @return true if key is in map
+	 */
+	public boolean containsKey(int key){
+		return keys[find(keys, key)] == key;
+	}
+	
+	/**
+	 * Add to the value of a key, adding the key if it is not in the map
+	 * @param key non negative key
+	 * @param amount amount to add
+	 * @return new value of key
+	 */
+	public int increment(int key, int amount){
+		
+		int slot = find(keys, key);
+		if(keys[slot] != key){
+			if((size + 1) * 4 > keys.length * 3){
+				resize(keys.length * 2);
+				slot = find(keys, key);
+			}
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] += amount;
+		return values[slot];
+	}
+	
+	/**
+	 * @return number of keys in map
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * Pass every entry to a consumer, in no particular order
+	 * @param consumer EntryConsumer
+	 */
+	public void forEach(EntryConsumer consumer){
+		
+		for(int i = 0; i < keys.length; i++){
+			if(keys[i] != EMPTY){
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Shrink the arrays to the smallest size that holds the entries,
+	 * for maps that will not be added to again
+	 */
+	public void trim(){
+		
+		int capacity = 8;
+		while(size * 4 > capacity * 3){
+			capacity <<= 1;
+		}
+		if(capacity < keys.length){
+			resize(capacity);
+		}
+	}
+	
+	/**
+	 * @return slot holding key or the empty slot it would go in
+	 */
+	private static int find(int[] keys, int key){
+		
+		int mask = keys.length - 1;
+		int slot = (key * 0x9E3779B9 >>> 16) & mask;
+		while(keys[slot] != EMPTY && keys[slot] != key){
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+	
+	private void resize(int capacity){
+		
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] != EMPTY){
+				int slot = find(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package processor;
+
+import java.util.Arrays;
+
+/**
+ * An inverted index over the BowDocuments of a Dataset.
+ * Maps each term to a postings list of (docId, tf) pairs so a query only has to
+ * visit the documents that contain its terms.
+ * Postings are held in an array indexed by the terms id in the sets TermDictionary.
+ * Documents are given ids in the order they are added, starting at 0.
+ * A removed document has its postings taken out straight away so document frequencies
+ * and lengths only ever count the documents that are still in the index,
+ * its id is not given to another document.
+ * An index made with positions also records where each term occurs in each document,
+ * its documents must be built with positions.
+ * The title of each document is indexed again on its own, with postings of the counts of
+ * its terms in the title, so titles can be searched and scored as a field without
+ * reading the postings of the whole documents.
+ */
+public class InvertedIndex {
+
+	private final TermDictionary dictionary;
+	private final boolean positions;
+	private Postings[] postings;
+	private Postings[] titlePostings;
+	private int[] docLengths;
+	private int[] titleLengths;
+	private int numDocs;
+	private int maxDoc;
+	private long totalDocLength;
+
+	/**
+	 * Class constructor
+	 * Creates an empty index
+	 * @param dictionary TermDictionary the term ids of indexed documents belong to
+	 */
+	public InvertedIndex(TermDictionary dictionary){
+
+		this(dictionary, false);
+	}
+
+	/**
+	 * Class constructor
+	 * Creates an empty index
+	 * @param dictionary TermDictionary the term ids of indexed documents belong to
+	 * @param positions true to record the position of every term occurrence
+	 */
+	public InvertedIndex(TermDictionary dictionary, boolean positions){
+
+		this.dictionary = dictionary;
+		this.positions = positions;
+		postings = new Postings[1024];
+		titlePostings = new Postings[1024];
+		docLengths = new int[16];
+		titleLengths = new int[16];
+		numDocs = 0;
+		maxDoc = 0;
+		totalDocLength = 0;
+	}
+
+	/**
+	 * Class constructor
+	 * Wraps postings and document lengths that have already been read, used when an index is loaded
+	 * @param dictionary TermDictionary the term ids belong to
+	 * @param postings Postings indexed by term id, null for terms without postings
+	 * @param titlePostings Postings of the titles indexed by term id, null for terms in no title
+	 * @param docLengths number of terms in each document
+	 * @param titleLengths number of terms in the title of each document
+	 * @param numDocs number of documents
+	 * @param positions true if the postings hold the position of every occurrence
+	 */
+	InvertedIndex(
+			TermDictionary dictionary,
+			Postings[] postings,
+			Postings[] titlePostings,
+			int[] docLengths,
+			int[] titleLengths,
+			int numDocs,
+			boolean positions){
+
+		this.dictionary = dictionary;
+		this.positions = positions;
+		this.postings = postings;
+		this.titlePostings = titlePostings;
+		this.docLengths = docLengths;
+		this.titleLengths = titleLengths;
+		this.numDocs = numDocs;
+		maxDoc = numDocs;
+		totalDocLength = 0;
+		for(int docId = 0; docId < numDocs; docId++){
+			totalDocLength += docLengths[docId];
+		}
+	}
+
+	/**
+	 * Add the terms of a document to the index
+	 * @param doc BowDocument to index
+	 * @return the id given to the document
+	 */
+	public int addDocument(BowDocument doc){
+
+		if(positions && !doc.hasPositions()){
+			throw new IllegalArgumentException("Doc " + doc + " was built without positions");
+		}
+		int docId = maxDoc++;
+		numDocs++;
+
+		doc.forEachTerm((termId, count) -> {
+			if(termId >= postings.length){
+				postings = Arrays.copyOf(postings, Math.max(postings.length * 2, termId + 1));
+			}
+			Postings list = postings[termId];
+			if(list == null){
+				list = new Postings(positions);
+				postings[termId] = list;
+			}
+			list.add(docId, count);
+		});
+		doc.forEachTitleTerm((termId, count) -> {
+			if(termId >= titlePostings.length){
+				titlePostings = Arrays.copyOf(titlePostings, Math.max(titlePostings.length * 2, termId + 1));
+			}
+			Postings list = titlePostings[termId];
+			if(list == null){
+				list = new Postings();
+				titlePostings[termId] = list;
+			}
+			list.add(docId, count);
+		});
+		if(positions){
+			//the posting of this doc is the last of each of its terms
+			for(int position = 0; position < doc.getNumTerms(); position++){
+				postings[doc.getTermIdAt(position)].addPosition(position);
+			}
+		}
+
+		if(docId == docLengths.length){
+			docLengths = Arrays.copyOf(docLengths, Math.max(16, docLengths.length * 2));
+			titleLengths = Arrays.copyOf(titleLengths, docLengths.length);
+		}
+		docLengths[docId] = doc.getNumTerms();
+		titleLengths[docId] = doc.getNumTitleTerms();
+		totalDocLength += doc.getNumTerms();
+		return docId;
+	}
+
+	/**
+	 * Remove the terms of a document from the index
+	 * @param docId id the document was given by addDocument
+	 * @param doc BowDocument that was added with that id
+	 */
+	public void removeDocument(int docId, BowDocument doc){
+		
+		doc.forEachTerm((termId, count) -> {
+			Postings list = getPostings(termId);
+			if(list != null && list.remove(docId) && list.size() == 0){
+				postings[termId] = null;
+			}
+		});
+		doc.forEachTitleTerm((termId, count) -> {
+			Postings list = getTitlePostings(termId);
+			if(list != null && list.remove(docId) && list.size() == 0){
+				titlePostings[termId] = null;
+			}
+		});
+		
+		totalDocLength -= docLengths[docId];
+		docLengths[docId] = 0;
+		titleLengths[docId] = 0;
+		numDocs--;
+	}
+	
+	/**
+	 * Get the postings list of a term
+	 * @param term term to look up
+	 * @return Postings of the term or null if no document contains it
+	 */
+	public Postings getPostings(String term){
+
+		int termId = dictionary.getId(term);
+		return termId < 0 ? null : getPostings(termId);
+	}
+
+	/**
+	 * Get the postings list of a term
+	 * @param termId id of term in the dictionary
+	 * @return Postings of the term or null if no document contains it
+	 */
+	public Postings getPostings(int termId){
+		return termId < postings.length ? postings[termId] : null;
+	}
+
+	/**
+	 * Get the postings list of a term in the titles of the documents
+	 * @param termId id of term in the dictionary
+	 * @return Postings of the term with its counts in each title or null if no title contains it
+	 */
+	public Postings getTitlePostings(int termId){
+		return termId < titlePostings.length ? titlePostings[termId] : null;
+	}
+
+	/**
+	 * @return one more than the highest term id that may have title postings
+	 */
+	public int getNumTitleTermIds(){
+		return titlePostings.length;
+	}
+
+	/**
+	 * @param docId id of document
+	 * @return number of terms in the title of the document
+	 */
+	public int getTitleLength(int docId){
+		return titleLengths[docId];
+	}
+
+	/**
+	 * @return true if the postings hold the position of every term occurrence
+	 */
+	public boolean hasPositions(){
+		return positions;
+	}
+
+	/**
+	 * @return the dictionary of the indexed terms
+	 */
+	public TermDictionary getDictionary(){
+		return dictionary;
+	}
+
+	/**
+	 * @return one more than the highest term id that may have postings
+	 */
+	public int getNumTermIds(){
+		return postings.length;
+	}
+
+	/**
+	 * @param term term to look up
+	 * @return number of documents that contain the term
+	 */
+	public int getDf(String term){
+
+		Postings list = getPostings(term);
+		if(list == null){
+			return 0;
+		}
+		return list.size();
+	}
+
+	/**
+	 * @param docId id of document
+	 * @return number of terms in the document
+	 */
+	public int getDocLength(int docId){
+		return docLengths[docId];
+	}
+
+	/**
+	 * @return number of documents in the index, not counting removed documents
+	 */
+	public int getNumDocs(){
+		return numDocs;
+	}
+	
+	/**
+	 * @return one more than the highest document id given out
+	 */
+	public int getMaxDoc(){
+		return maxDoc;
+	}
+
+	/**
+	 * @return sum of the lengths of all documents in the index
+	 */
+	public long getTotalDocLength(){
+		return totalDocLength;
+	}
+}
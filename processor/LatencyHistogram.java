@@ -0,0 +1,175 @@
+package processor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations in nanoseconds, bucketed like an HDR histogram.
+ * Values under 32 get a bucket each, above that each power of two is split in to 16
+ * buckets, so any value is counted in a bucket within 1/16 of it whatever its size and
+ * the whole range of a long fits in under a thousand counters.
+ * Recording is a bucket lookup with no loops and three atomic adds, so it can be
+ * done from any number of threads on the hot path. Percentiles are read from a pass over
+ * the counters, values recorded during the pass may or may not be included.
+ */
+public class LatencyHistogram implements Metrics.StageMXBean {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//values below this are counted exactly
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Class constructor
+	 * @param name name the histogram is reported under
+	 */
+	public LatencyHistogram(String name){
+		this.name = name;
+	}
+
+	/**
+	 * @return bucket counting a value
+	 */
+	static int bucketOf(long value){
+
+		if(value < LINEAR_LIMIT){
+			return (int)Math.max(0, value);
+		}
+		//keep the top SUB_BUCKET_BITS + 1 bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int)(value >>> shift);
+	}
+
+	/**
+	 * @return largest value counted in a bucket
+	 */
+	static long highestValueOf(int bucket){
+
+		if(bucket < LINEAR_LIMIT){
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+
+	/**
+	 * Count a duration
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos){
+
+		counts.incrementAndGet(bucketOf(nanos));
+		count.increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Count the time since a start taken with Metrics.start, when metrics are enabled
+	 * @param start System.nanoTime at the start of the work
+	 */
+	public void recordSince(long start){
+
+		if(Metrics.ENABLED){
+			record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @param fraction fraction of values at or below the result, 0.99 for the 99th percentile
+	 * @return nanoseconds, to within 1/16, that fraction of durations took at most, 0 if none were recorded
+	 */
+	public long getValueAt(double fraction){
+
+		long[] snapshot = new long[NUM_BUCKETS];
+		long n = 0;
+		for(int b = 0; b < NUM_BUCKETS; b++){
+			snapshot[b] = counts.get(b);
+			n += snapshot[b];
+		}
+		if(n == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(fraction * n));
+		long seen = 0;
+		for(int b = 0; b < NUM_BUCKETS; b++){
+			seen += snapshot[b];
+			if(seen >= rank){
+				return Math.min(highestValueOf(b), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return name the histogram is reported under
+	 */
+	public String getName(){
+		return name;
+	}
+
+	@Override
+	public long getCount(){
+		return count.sum();
+	}
+
+	@Override
+	public double getTotalMillis(){
+		return total.sum() / 1e6;
+	}
+
+	@Override
+	public double getMeanMicros(){
+
+		long n = count.sum();
+		return n == 0 ? 0.0 : total.sum() / 1e3 / n;
+	}
+
+	@Override
+	public double getP50Micros(){
+		return getValueAt(0.5) / 1e3;
+	}
+
+	@Override
+	public double getP90Micros(){
+		return getValueAt(0.9) / 1e3;
+	}
+
+	@Override
+	public double getP99Micros(){
+		return getValueAt(0.99) / 1e3;
+	}
+
+	@Override
+	public double getMaxMicros(){
+		return max.get() / 1e3;
+	}
+
+	@Override
+	public void reset(){
+
+		for(int b = 0; b < NUM_BUCKETS; b++){
+			counts.set(b, 0);
+		}
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+
+	/**
+	 * get count and latencies
+	 */
+	public String toString(){
+		return String.format("%-14s %10d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f", name, getCount(), getTotalMillis(),
+				getMeanMicros(), getP50Micros(), getP90Micros(), getP99Micros(), getMaxMicros());
+	}
+}
@@ -0,0 +1,72 @@
+package processor;
+
+import java.util.List;
+
+/**
+ * Picks the segments of a Dataset to merge.
+ * Segments are put in levels by size, a segment of up to segmentDocs docs is level 0,
+ * up to segmentDocs * mergeFactor is level 1 and so on. When mergeFactor neighbouring
+ * segments are on the same level they are merged in to one segment of the next level,
+ * so the number of segments grows with the log of the number of docs.
+ * A segment that is mostly deleted docs is merged on its own to drop them.
+ * Only neighbouring segments are merged so docs keep the order they were added in.
+ */
+public class LogMergePolicy {
+
+	//a segment with at least this fraction of its docs deleted is rewritten
+	private static final double MAX_DELETED_FRACTION = 0.5;
+
+	private final int segmentDocs;
+	private final int mergeFactor;
+
+	/**
+	 * Class constructor
+	 * @param segmentDocs number of docs a new segment is written with
+	 * @param mergeFactor number of segments of a level that are merged together
+	 */
+	public LogMergePolicy(int segmentDocs, int mergeFactor){
+
+		this.segmentDocs = Math.max(1, segmentDocs);
+		this.mergeFactor = Math.max(2, mergeFactor);
+	}
+
+	/**
+	 * @return level of a segment by its number of live docs
+	 */
+	private int level(Segment segment){
+
+		long limit = segmentDocs;
+		int level = 0;
+		while(segment.getNumLiveDocs() > limit){
+			limit *= mergeFactor;
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Find segments to merge
+	 * @param segments segments of a set in doc order
+	 * @return {from, to} of the neighbouring segments to merge, to exclusive, or null if none need merging
+	 */
+	public int[] findMerge(List<Segment> segments){
+
+		int runStart = 0;
+		for(int s = 0; s <= segments.size(); s++){
+			if(s == segments.size() || level(segments.get(s)) != level(segments.get(runStart))){
+				if(s - runStart >= mergeFactor){
+					return new int[]{runStart, runStart + mergeFactor};
+				}
+				runStart = s;
+			}
+		}
+
+		for(int s = 0; s < segments.size(); s++){
+			Segment segment = segments.get(s);
+			if(segment.getNumDeleted() > 0 && segment.getNumDeleted() >= segment.getMaxDoc() * MAX_DELETED_FRACTION){
+				return new int[]{s, s + 1};
+			}
+		}
+		return null;
+	}
+}
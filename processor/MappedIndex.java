@@ -0,0 +1,597 @@
+package processor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A read only index segment that is memory mapped instead of loaded on to the heap.
+ * The term dictionary, document table and postings are mapped with FileChannel.map
+ * and read in place, so opening the index costs a few system calls whatever its size,
+ * the OS page cache acts as the buffer pool and the garbage collector never sees the postings.
+ *
+ * File layout, all numbers big endian:
+ * header		magic, version, source fingerprint, numDocs, totalDocLength, numTerms, section offsets
+ * 				and whether the postings are packed
+ * doc lengths	numDocs ints
+ * doc names	numDocs + 1 int offsets in to the name bytes, then the UTF-8 names
+ * term table	numTerms fixed width entries sorted by term bytes:
+ * 				term bytes offset, term bytes length, df, max tf, postings offset, max and min tf weight
+ * term bytes	UTF-8 terms, padded to a multiple of 8 bytes
+ * postings		for each term df (docId, tf) int pairs, or its blocks as BlockPackedCodec.write writes them
+ *
+ * The postings are packed when the set written uses the packed codec, which takes them from
+ * 8 bytes a posting to a little over 1 and so maps and pages in far fewer bytes a query.
+ * A packed term decodes a block of 128 postings at a time from the mapped longs.
+ *
+ * The dictionary and doc table are mapped as one buffer and have to be under 2GB between them.
+ * The postings are mapped in chunks of CHUNK_SIZE bytes, as one buffer can not be over 2GB,
+ * and a posting is read from the chunk and offset its position in the section falls at.
+ * Chunks are a multiple of 8 bytes and everything in the section is 8 byte aligned, so an
+ * int pair or block header is never split between chunks, only a run of packed longs can be.
+ */
+public class MappedIndex implements IndexReader {
+
+	private static final int MAGIC = 0x424F574D; // "BOWM"
+	public static final int VERSION = 3;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int TERM_ENTRY_SIZE = 40;
+	private static final int POSTING_SIZE = 8;
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final ByteBuffer meta;
+	private final Chunks postings;
+	private final boolean packed;
+	private final long fingerprint;
+	private final int numDocs;
+	private final long totalDocLength;
+	private final double avgDocLength;
+	private final int numTerms;
+	private final int docNamesOffset;
+	private final int docNameBytesOffset;
+	private final int termTableOffset;
+	private final int termBytesOffset;
+
+	/**
+	 * The postings section mapped in chunks, read by position in the section
+	 */
+	private static final class Chunks {
+
+		private final ByteBuffer[] buffers;
+		private final LongBuffer[] longs;
+
+		private Chunks(ByteBuffer[] buffers){
+
+			this.buffers = buffers;
+			longs = new LongBuffer[buffers.length];
+			for(int c = 0; c < buffers.length; c++){
+				longs[c] = buffers[c].asLongBuffer();
+			}
+		}
+
+		private int getInt(long position){
+			return buffers[(int)(position >>> CHUNK_SHIFT)].getInt((int)(position & CHUNK_MASK));
+		}
+
+		private byte get(long position){
+			return buffers[(int)(position >>> CHUNK_SHIFT)].get((int)(position & CHUNK_MASK));
+		}
+
+		/**
+		 * Copy n longs starting at an 8 byte aligned position, from two chunks if they cross in to the next
+		 */
+		private void getLongs(long position, long[] words, int n){
+
+			int chunk = (int)(position >>> CHUNK_SHIFT);
+			int word = (int)((position & CHUNK_MASK) >>> 3);
+			int inChunk = Math.min(n, longs[chunk].limit() - word);
+			longs[chunk].get(word, words, 0, inChunk);
+			if(inChunk < n){
+				longs[chunk + 1].get(0, words, inChunk, n - inChunk);
+			}
+		}
+	}
+
+	/**
+	 * Postings of one term read straight from the mapped postings section
+	 * Nearly every list lies in one chunk and is read from its buffer, only a list that
+	 * crosses in to another chunk finds the chunk of each posting.
+	 */
+	private static final class MappedPostings implements PostingsList {
+
+		private final Chunks chunks;
+		private final long offset;
+		private final int size;
+		//the chunk holding the whole list and the offset of the list in it, or null
+		private final ByteBuffer buffer;
+		private final int start;
+
+		private MappedPostings(Chunks chunks, long offset, int size){
+
+			this.chunks = chunks;
+			this.offset = offset;
+			this.size = size;
+			int chunk = (int)(offset >>> CHUNK_SHIFT);
+			boolean oneChunk = size == 0 || chunk == (int)((offset + (long)size * POSTING_SIZE - 1) >>> CHUNK_SHIFT);
+			buffer = oneChunk ? chunks.buffers[chunk] : null;
+			start = (int)(offset & CHUNK_MASK);
+		}
+
+		@Override
+		public int size(){
+			return size;
+		}
+
+		@Override
+		public int getDocId(int i){
+
+			if(buffer != null) return buffer.getInt(start + i * POSTING_SIZE);
+			return chunks.getInt(offset + (long)i * POSTING_SIZE);
+		}
+
+		@Override
+		public int getTf(int i){
+
+			if(buffer != null) return buffer.getInt(start + i * POSTING_SIZE + 4);
+			return chunks.getInt(offset + (long)i * POSTING_SIZE + 4);
+		}
+
+		@Override
+		public int read(int from, int[] docIds, int[] termFrequencies){
+
+			if(buffer == null){
+				return PostingsList.super.read(from, docIds, termFrequencies);
+			}
+			int n = Math.min(docIds.length, size - from);
+			int position = start + from * POSTING_SIZE;
+			for(int i = 0; i < n; i++){
+				docIds[i] = buffer.getInt(position);
+				termFrequencies[i] = buffer.getInt(position + 4);
+				position += POSTING_SIZE;
+			}
+			return n;
+		}
+	}
+
+	/**
+	 * Postings of one term packed in blocks, decoded from the mapped postings section
+	 */
+	private static final class PackedPostings extends BlockPostings {
+
+		private final Chunks chunks;
+		//position of the gaps and of the frequencies of each block
+		private final long[] docWords;
+		private final long[] tfWords;
+		private final byte[] docBits;
+		private final byte[] tfBits;
+		//longs of the block being decoded
+		private final long[] words = new long[BLOCK_SIZE / 2];
+		private final long sizeInBytes;
+
+		private PackedPostings(Chunks chunks, long offset, int size, int[] blockBases){
+
+			super(size, blockBases);
+			this.chunks = chunks;
+			int numBlocks = blockBases.length;
+			docWords = new long[numBlocks];
+			tfWords = new long[numBlocks];
+			docBits = new byte[numBlocks];
+			tfBits = new byte[numBlocks];
+
+			long position = offset + (long)numBlocks * BlockPackedCodec.BLOCK_HEADER_SIZE;
+			for(int b = 0; b < numBlocks; b++){
+				long header = offset + (long)b * BlockPackedCodec.BLOCK_HEADER_SIZE;
+				blockBases[b] = chunks.getInt(header);
+				docBits[b] = chunks.get(header + 4);
+				tfBits[b] = chunks.get(header + 5);
+				int length = blockLength(b);
+				docWords[b] = position;
+				position += BlockPackedCodec.wordsFor(length, docBits[b]) * 8L;
+				tfWords[b] = position;
+				position += BlockPackedCodec.wordsFor(length, tfBits[b]) * 8L;
+			}
+			sizeInBytes = position - offset;
+		}
+
+		private PackedPostings(Chunks chunks, long offset, int size){
+			this(chunks, offset, size, new int[numBlocks(size)]);
+		}
+
+		@Override
+		protected void decodeDocIds(int b, int[] docIds){
+
+			int length = blockLength(b);
+			chunks.getLongs(docWords[b], words, BlockPackedCodec.wordsFor(length, docBits[b]));
+			BlockPackedCodec.decodeDocIds(words, 0, blockBases[b], docIds, length, docBits[b]);
+		}
+
+		@Override
+		protected void decodeTfs(int b, int[] termFrequencies){
+
+			int length = blockLength(b);
+			chunks.getLongs(tfWords[b], words, BlockPackedCodec.wordsFor(length, tfBits[b]));
+			BlockPackedCodec.decodeTfs(words, 0, termFrequencies, length, tfBits[b]);
+		}
+
+		@Override
+		public long getSizeInBytes(){
+			return sizeInBytes;
+		}
+	}
+
+	private MappedIndex(ByteBuffer meta, ByteBuffer[] postings) throws IOException{
+
+		this.meta = meta;
+		this.postings = new Chunks(postings);
+
+		if(meta.getInt(0) != MAGIC){
+			throw new IOException("Not a mapped index file");
+		}
+		if(meta.getInt(4) != VERSION){
+			throw new IOException("Mapped index version " + meta.getInt(4) + " is not " + VERSION);
+		}
+		fingerprint = meta.getLong(8);
+		numDocs = meta.getInt(16);
+		totalDocLength = meta.getLong(20);
+		numTerms = meta.getInt(28);
+		docNamesOffset = meta.getInt(32);
+		termTableOffset = meta.getInt(36);
+		termBytesOffset = meta.getInt(40);
+		packed = meta.getInt(52) != 0;
+		docNameBytesOffset = docNamesOffset + (numDocs + 1) * 4;
+		avgDocLength = (double)totalDocLength / (double)numDocs;
+	}
+
+	/**
+	 * Map an index file
+	 * @param file index file written by write
+	 * @return MappedIndex
+	 * @throws IOException if the file can not be mapped or is not a mapped index
+	 */
+	public static MappedIndex open(
+			File file)
+					throws IOException{
+
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()){
+
+			long length = channel.size();
+			if(length < HEADER_SIZE){
+				throw new IOException("Mapped index " + file + " is truncated");
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			channel.read(header, 0);
+			long postingsOffset = header.getLong(44);
+
+			if(postingsOffset > Integer.MAX_VALUE){
+				throw new IOException("Mapped index dictionary and doc table must be under 2GB");
+			}
+
+			//mappings stay valid after the channel is closed
+			MappedByteBuffer meta = channel.map(FileChannel.MapMode.READ_ONLY, 0, postingsOffset);
+			long postingsLength = length - postingsOffset;
+			ByteBuffer[] postings = new ByteBuffer[(int)((postingsLength + CHUNK_MASK) >>> CHUNK_SHIFT)];
+			for(int c = 0; c < postings.length; c++){
+				long start = (long)c << CHUNK_SHIFT;
+				postings[c] = channel.map(FileChannel.MapMode.READ_ONLY, postingsOffset + start, Math.min(CHUNK_SIZE, postingsLength - start));
+			}
+			return new MappedIndex(meta, postings);
+		}
+	}
+
+	/**
+	 * Open a mapped index if it was built from the current source files
+	 * @param file index file
+	 * @param fingerprint fingerprint of the current source files, from IndexStore.fingerprint
+	 * @return MappedIndex or null if the file is missing, of another version or from other files
+	 */
+	public static MappedIndex openIfCurrent(
+			File file,
+			long fingerprint){
+
+		if(!file.isFile()){
+			return null;
+		}
+		try {
+			MappedIndex index = open(file);
+			return index.fingerprint == fingerprint ? index : null;
+		} catch (IOException e) {
+			System.out.println("Could not map index " + file + " : " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Write a dataset as a mapped index file
+	 * The set is compacted first, as the doc table is read by the ids of the index.
+	 * The postings are packed if the set uses the packed codec and written raw otherwise.
+	 * @param set Dataset to write
+	 * @param file index file
+	 * @param fingerprint fingerprint of the source files of set
+	 * @throws IOException if the file can not be written
+	 */
+	public static void write(
+			Dataset set,
+			File file,
+			long fingerprint)
+					throws IOException{
+
+		File temp = new File(file.getPath() + ".tmp");
+
+		synchronized(set){
+			set.compact();
+			ArrayList<BowDocument> docs = set.getDocs();
+			MemoryIndexReader index = set.getReader();
+			CorpusStats stats = set.getStats();
+			TermDictionary dictionary = set.getDictionary();
+
+			int docCount = docs.size();
+			byte[][] names = new byte[docCount][];
+			int nameBytes = 0;
+			for(int docId = 0; docId < docCount; docId++){
+				names[docId] = docs.get(docId).toString().getBytes(StandardCharsets.UTF_8);
+				nameBytes += names[docId].length;
+			}
+
+			//only terms with postings are written, sorted by their bytes for binary search
+			ArrayList<byte[]> termList = new ArrayList<>();
+			ArrayList<Integer> termIdList = new ArrayList<>();
+			for(int termId = 0; termId < dictionary.size(); termId++){
+				PostingsList list = index.getPostings(termId);
+				if(list != null && list.size() > 0){
+					termList.add(dictionary.getTerm(termId).getBytes(StandardCharsets.UTF_8));
+					termIdList.add(termId);
+				}
+			}
+			Integer[] order = new Integer[termList.size()];
+			for(int i = 0; i < order.length; i++) order[i] = i;
+			Arrays.sort(order, (a, b) -> compare(termList.get(a), termList.get(b)));
+
+			int termCount = order.length;
+			int termBytes = 0;
+			for(byte[] term : termList) termBytes += term.length;
+			int termPadding = -termBytes & 7;
+			boolean packed = BlockPackedCodec.NAME.equals(set.getCodec().getName());
+
+			long docNamesStart = HEADER_SIZE + (long)docCount * 4;
+			long termTableStart = docNamesStart + (long)(docCount + 1) * 4 + nameBytes;
+			long termBytesStart = termTableStart + (long)termCount * TERM_ENTRY_SIZE;
+			long postingsStart = termBytesStart + termBytes + termPadding;
+			if(postingsStart > Integer.MAX_VALUE){
+				throw new IOException("Mapped index dictionary and doc table must be under 2GB");
+			}
+
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))){
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(fingerprint);
+				out.writeInt(docCount);
+				out.writeLong(stats.getTotalDocLength());
+				out.writeInt(termCount);
+				out.writeInt((int)docNamesStart);
+				out.writeInt((int)termTableStart);
+				out.writeInt((int)termBytesStart);
+				out.writeLong(postingsStart);
+				out.writeInt(packed ? 1 : 0);
+				while(out.size() < HEADER_SIZE) out.writeByte(0);
+
+				for(int docId = 0; docId < docCount; docId++){
+					out.writeInt(index.getDocLength(docId));
+				}
+
+				int nameOffset = 0;
+				for(int docId = 0; docId < docCount; docId++){
+					out.writeInt(nameOffset);
+					nameOffset += names[docId].length;
+				}
+				out.writeInt(nameOffset);
+				for(byte[] name : names) out.write(name);
+
+				int termOffset = 0;
+				long postingsOffset = 0;
+				for(int i : order){
+					int termId = termIdList.get(i);
+					PostingsList list = index.getPostings(termId);
+					int df = list.size();
+					out.writeInt(termOffset);
+					out.writeInt(termList.get(i).length);
+					out.writeInt(df);
+					out.writeInt(stats.getMaxTf(termId));
+					out.writeLong(postingsOffset);
+					out.writeDouble(stats.getMaxTfWeight(termId));
+					out.writeDouble(stats.getMinTfWeight(termId));
+					termOffset += termList.get(i).length;
+					postingsOffset += packed ? BlockPackedCodec.writtenSize(list) : (long)df * POSTING_SIZE;
+				}
+
+				for(int i : order) out.write(termList.get(i));
+				for(int i = 0; i < termPadding; i++) out.writeByte(0);
+
+				for(int i : order){
+					PostingsList list = index.getPostings(termIdList.get(i));
+					if(packed){
+						BlockPackedCodec.write(list, out);
+						continue;
+					}
+					for(int p = 0; p < list.size(); p++){
+						out.writeInt(list.getDocId(p));
+						out.writeInt(list.getTf(p));
+					}
+				}
+			}
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Compare byte arrays as unsigned bytes, the order of the term table
+	 */
+	private static int compare(byte[] a, byte[] b){
+
+		int n = Math.min(a.length, b.length);
+		for(int i = 0; i < n; i++){
+			int diff = (a[i] & 0xff) - (b[i] & 0xff);
+			if(diff != 0) return diff;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Binary search the term table
+	 * @return position of term in the table or -1 if it is not in the index
+	 */
+	private int findTerm(String term){
+
+		byte[] key = term.getBytes(StandardCharsets.UTF_8);
+		int lo = 0;
+		int hi = numTerms - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int entry = termTableOffset + mid * TERM_ENTRY_SIZE;
+			int start = termBytesOffset + meta.getInt(entry);
+			int length = meta.getInt(entry + 4);
+
+			int cmp = 0;
+			int n = Math.min(length, key.length);
+			for(int i = 0; i < n && cmp == 0; i++){
+				cmp = (meta.get(start + i) & 0xff) - (key[i] & 0xff);
+			}
+			if(cmp == 0) cmp = length - key.length;
+
+			if(cmp < 0){
+				lo = mid + 1;
+			}else if(cmp > 0){
+				hi = mid - 1;
+			}else{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return offset of the term table entry of term or -1
+	 */
+	private int entryOf(String term){
+
+		int position = findTerm(term);
+		return position < 0 ? -1 : termTableOffset + position * TERM_ENTRY_SIZE;
+	}
+
+	/**
+	 * @return fingerprint of the source files the index was written from
+	 */
+	public long getFingerprint(){
+		return fingerprint;
+	}
+
+	/**
+	 * @return number of distinct terms in the index
+	 */
+	public int getNumTerms(){
+		return numTerms;
+	}
+
+	@Override
+	public int getNumDocs(){
+		return numDocs;
+	}
+
+	@Override
+	public int getMaxDoc(){
+		return numDocs;
+	}
+
+	@Override
+	public boolean isDeleted(int docId){
+		return false;
+	}
+
+	@Override
+	public double getAvgDocLength(){
+		return avgDocLength;
+	}
+
+	@Override
+	public int getDocLength(int docId){
+		return meta.getInt(HEADER_SIZE + docId * 4);
+	}
+
+	@Override
+	public String getDocName(int docId){
+
+		int start = meta.getInt(docNamesOffset + docId * 4);
+		int end = meta.getInt(docNamesOffset + (docId + 1) * 4);
+		byte[] name = new byte[end - start];
+		for(int i = 0; i < name.length; i++){
+			name[i] = meta.get(docNameBytesOffset + start + i);
+		}
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public PostingsList getPostings(String term){
+
+		int entry = entryOf(term);
+		if(entry < 0){
+			return null;
+		}
+		long offset = meta.getLong(entry + 16);
+		int df = meta.getInt(entry + 8);
+		if(packed){
+			return new PackedPostings(postings, offset, df).reader();
+		}
+		return new MappedPostings(postings, offset, df);
+	}
+
+	/**
+	 * @param term term to look up
+	 * @return number of documents that contain the term
+	 */
+	public int getDf(String term){
+
+		int entry = entryOf(term);
+		return entry < 0 ? 0 : meta.getInt(entry + 8);
+	}
+
+	@Override
+	public double getBm25Idf(String term){
+		return CorpusStats.calcBm25Idf(numDocs, getDf(term));
+	}
+
+	@Override
+	public double getMaxTfWeight(String term){
+
+		int entry = entryOf(term);
+		return entry < 0 ? 0.0 : meta.getDouble(entry + 24);
+	}
+
+	@Override
+	public double getMinTfWeight(String term){
+
+		int entry = entryOf(term);
+		return entry < 0 ? 0.0 : meta.getDouble(entry + 32);
+	}
+
+	@Override
+	public int getMaxTf(String term){
+
+		int entry = entryOf(term);
+		return entry < 0 ? 0 : meta.getInt(entry + 12);
+	}
+}
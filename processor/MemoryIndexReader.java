@@ -0,0 +1,288 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * IndexReader over the in-memory segments and statistics of a Dataset.
+ * The segments are numbered one after another, a doc has the id of its place in its
+ * segment plus the number of ids in the segments before it.
+ * The reader holds the deleted docs of each segment as they were when it was made,
+ * so it is not changed by later puts, deletes or merges and needs no lock.
+ * Besides the IndexReader view of whole docs it reads the title field of the docs,
+ * which the body of a doc is the rest of.
+ */
+public class MemoryIndexReader implements IndexReader {
+
+	private final TermDictionary dictionary;
+	private final Segment[] segments;
+	private final BitSet[] deleted;
+	private final int[] docBases;
+	private final int maxDoc;
+	private final CorpusStats stats;
+
+	/**
+	 * Class constructor
+	 * @param dictionary TermDictionary of the segments
+	 * @param segments Segments of a set in doc order
+	 * @param deleted deleted docs of each segment
+	 * @param stats CorpusStats of the same segments
+	 */
+	public MemoryIndexReader(
+			TermDictionary dictionary,
+			Segment[] segments,
+			BitSet[] deleted,
+			CorpusStats stats){
+
+		this.dictionary = dictionary;
+		this.segments = segments;
+		this.deleted = deleted;
+		this.stats = stats;
+		docBases = new int[segments.length];
+		int base = 0;
+		for(int s = 0; s < segments.length; s++){
+			docBases[s] = base;
+			base += segments[s].getMaxDoc();
+		}
+		maxDoc = base;
+	}
+
+	/**
+	 * @return the segment holding a doc id
+	 */
+	private int segmentOf(int docId){
+
+		int lo = 0;
+		int hi = segments.length - 1;
+		while(lo < hi){
+			int mid = (lo + hi + 1) >>> 1;
+			if(docBases[mid] <= docId){
+				lo = mid;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @param docId id of document
+	 * @return BowDocument with the id
+	 */
+	public BowDocument getDoc(int docId){
+
+		int s = segmentOf(docId);
+		return segments[s].getDoc(docId - docBases[s]);
+	}
+
+	/**
+	 * @return one more than the highest term id with postings in any segment
+	 */
+	public int getNumTermIds(){
+
+		int numTermIds = 0;
+		for(Segment segment : segments){
+			numTermIds = Math.max(numTermIds, segment.getNumTermIds());
+		}
+		return numTermIds;
+	}
+
+	/**
+	 * @return bytes of memory the encoded postings of every segment take up
+	 */
+	public long getPostingsSizeInBytes(){
+
+		long bytes = 0;
+		for(Segment segment : segments){
+			bytes += segment.getPostingsSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return number of postings in every segment, including those of deleted docs
+	 */
+	public long getNumPostings(){
+
+		long count = 0;
+		for(Segment segment : segments){
+			count += segment.getNumPostings();
+		}
+		return count;
+	}
+
+	/**
+	 * @return number of segments read
+	 */
+	public int getNumSegments(){
+		return segments.length;
+	}
+
+	/**
+	 * @param segment number of a segment
+	 * @return the segment, whose deleted docs may have changed since this reader was made
+	 */
+	Segment getSegment(int segment){
+		return segments[segment];
+	}
+
+	/**
+	 * @param segment number of a segment
+	 * @return the deleted docs of the segment as they were when this reader was made
+	 */
+	BitSet getDeleted(int segment){
+		return deleted[segment];
+	}
+
+	@Override
+	public int getNumDocs(){
+		return stats.getNumDocs();
+	}
+
+	@Override
+	public int getMaxDoc(){
+		return maxDoc;
+	}
+
+	@Override
+	public boolean isDeleted(int docId){
+
+		int s = segmentOf(docId);
+		return deleted[s].get(docId - docBases[s]);
+	}
+
+	@Override
+	public double getAvgDocLength(){
+		return stats.getAvgDocLength();
+	}
+
+	@Override
+	public int getDocLength(int docId){
+
+		int s = segmentOf(docId);
+		return segments[s].getDocLength(docId - docBases[s]);
+	}
+
+	@Override
+	public String getDocName(int docId){
+		return getDoc(docId).toString();
+	}
+
+	@Override
+	public PostingsList getPostings(String term){
+
+		int termId = dictionary.getId(term);
+		return termId < 0 ? null : getPostings(termId);
+	}
+
+	/**
+	 * @param termId id of term in the dictionary
+	 * @return postings of the term or null if no document contains it
+	 */
+	public PostingsList getPostings(int termId){
+		return join(termId, false);
+	}
+
+	/**
+	 * @param term term to look up
+	 * @return postings of the term with its counts in each title, or null if no title contains it
+	 */
+	public PostingsList getTitlePostings(String term){
+
+		int termId = dictionary.getId(term);
+		return termId < 0 ? null : join(termId, true);
+	}
+
+	/**
+	 * @param termId id of term in the dictionary
+	 * @return postings of the term with its counts in each title, or null if no title contains it
+	 */
+	public PostingsList getTitlePostings(int termId){
+		return join(termId, true);
+	}
+
+	/**
+	 * @param docId id of document
+	 * @return number of terms in the title of the document
+	 */
+	public int getTitleLength(int docId){
+
+		int s = segmentOf(docId);
+		return segments[s].getTitleLength(docId - docBases[s]);
+	}
+
+	/**
+	 * @return average number of terms in the title of a document
+	 */
+	public double getAvgTitleLength(){
+		return stats.getAvgTitleLength();
+	}
+
+	/**
+	 * @return average number of terms in the body of a document, everything but its title
+	 */
+	public double getAvgBodyLength(){
+		return stats.getAvgBodyLength();
+	}
+
+	/**
+	 * @return bytes of memory the encoded title postings of every segment take up
+	 */
+	public long getTitlePostingsSizeInBytes(){
+
+		long bytes = 0;
+		for(Segment segment : segments){
+			bytes += segment.getTitlePostingsSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Read the postings of a term in every segment as one list
+	 * @param title true for the postings of the titles
+	 */
+	private PostingsList join(int termId, boolean title){
+
+		ArrayList<PostingsList> parts = new ArrayList<>();
+		ArrayList<Integer> bases = new ArrayList<>();
+		for(int s = 0; s < segments.length; s++){
+			PostingsList postings = title ? segments[s].getTitlePostings(termId) : segments[s].getPostings(termId);
+			if(postings != null && postings.size() > 0){
+				parts.add(postings);
+				bases.add(docBases[s]);
+			}
+		}
+
+		if(parts.isEmpty()){
+			return null;
+		}
+		if(parts.size() == 1 && bases.get(0) == 0){
+			return parts.get(0);
+		}
+		int[] partBases = new int[bases.size()];
+		for(int p = 0; p < partBases.length; p++){
+			partBases[p] = bases.get(p);
+		}
+		return new MultiPostings(parts.toArray(new PostingsList[0]), partBases);
+	}
+
+	@Override
+	public double getBm25Idf(String term){
+		return stats.getBm25Idf(term);
+	}
+
+	@Override
+	public double getMaxTfWeight(String term){
+		return stats.getMaxTfWeight(term);
+	}
+
+	@Override
+	public double getMinTfWeight(String term){
+		return stats.getMinTfWeight(term);
+	}
+
+	@Override
+	public int getMaxTf(String term){
+		return stats.getMaxTf(term);
+	}
+}
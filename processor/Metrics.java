@@ -0,0 +1,191 @@
+package processor;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timings and counts of the stages of ingest and querying.
+ * Each stage has a LatencyHistogram and each count a Counter, kept in static fields so
+ * recording one is a field read and a few atomic adds with no lookup or lock.
+ * They can be read through JMX, under processor:type=Stage and processor:type=Counter,
+ * or printed as a table with report.
+ *
+ * Timing a stage takes two reads of System.nanoTime, tens of nanoseconds against the
+ * tens of microseconds of a query. -Dprocessor.metrics=false turns recording off,
+ * leaving only the check of a constant the JIT removes.
+ */
+public final class Metrics {
+
+	public static final boolean ENABLED = !"false".equals(System.getProperty("processor.metrics"));
+
+	/**
+	 * Latencies of a stage as seen through JMX
+	 */
+	public interface StageMXBean {
+		long getCount();
+		double getTotalMillis();
+		double getMeanMicros();
+		double getP50Micros();
+		double getP90Micros();
+		double getP99Micros();
+		double getMaxMicros();
+		void reset();
+	}
+
+	/**
+	 * A count as seen through JMX
+	 */
+	public interface CounterMXBean {
+		long getCount();
+		void reset();
+	}
+
+	/**
+	 * A lock free count
+	 */
+	public static final class Counter implements CounterMXBean {
+
+		private final String name;
+		private final LongAdder count = new LongAdder();
+
+		private Counter(String name){
+			this.name = name;
+		}
+
+		/**
+		 * Add to the count when metrics are enabled
+		 */
+		public void add(long n){
+
+			if(ENABLED){
+				count.add(n);
+			}
+		}
+
+		public void increment(){
+			add(1);
+		}
+
+		@Override
+		public long getCount(){
+			return count.sum();
+		}
+
+		@Override
+		public void reset(){
+			count.reset();
+		}
+
+		public String toString(){
+			return String.format("%-22s %12d", name, getCount());
+		}
+	}
+
+	private static final ArrayList<LatencyHistogram> STAGES = new ArrayList<>();
+	private static final ArrayList<Counter> COUNTERS = new ArrayList<>();
+
+	//ingest
+	public static final LatencyHistogram INGEST_BUILD = stage("ingest.build");
+	public static final LatencyHistogram INGEST_DOC = stage("ingest.doc");
+	public static final LatencyHistogram INGEST_PARSE = stage("ingest.parse");
+	public static final LatencyHistogram INGEST_STEM = stage("ingest.stem");
+	public static final LatencyHistogram INGEST_INDEX = stage("ingest.index");
+	public static final Counter DOCS_INGESTED = counter("ingest.docs");
+	public static final Counter DOCS_FAILED = counter("ingest.failedDocs");
+	public static final Counter WORDS_READ = counter("ingest.words");
+	public static final Counter STOP_WORDS_DROPPED = counter("ingest.stopWords");
+
+	//querying
+	public static final LatencyHistogram QUERY_PARSE = stage("query.parse");
+	public static final LatencyHistogram QUERY_SCORE = stage("query.score");
+	public static final LatencyHistogram QUERY_SPLIT = stage("query.split");
+	public static final Counter QUERIES = counter("query.queries");
+	public static final Counter QUERIES_SCORED = counter("query.scored");
+
+	private static boolean registered;
+	private static ScheduledExecutorService dumper;
+
+	private Metrics(){
+	}
+
+	private static LatencyHistogram stage(String name){
+
+		LatencyHistogram stage = new LatencyHistogram(name);
+		STAGES.add(stage);
+		return stage;
+	}
+
+	private static Counter counter(String name){
+
+		Counter counter = new Counter(name);
+		COUNTERS.add(counter);
+		return counter;
+	}
+
+	/**
+	 * @return System.nanoTime to time a stage from, 0 when metrics are off
+	 */
+	public static long start(){
+		return ENABLED ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Register every stage and counter with the platform MBean server, once
+	 */
+	public static synchronized void registerMBeans() throws JMException{
+
+		if(registered){
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(LatencyHistogram stage : STAGES){
+			server.registerMBean(stage, new ObjectName("processor:type=Stage,name=" + stage.getName()));
+		}
+		for(Counter counter : COUNTERS){
+			server.registerMBean(counter, new ObjectName("processor:type=Counter,name=" + counter.name));
+		}
+		registered = true;
+	}
+
+	/**
+	 * Print the report every so often on a daemon thread
+	 * @param seconds seconds between reports
+	 */
+	public static synchronized void dumpEvery(int seconds){
+
+		if(dumper != null || seconds <= 0){
+			return;
+		}
+		dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		dumper.scheduleAtFixedRate(() -> System.out.println(report()), seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return table of the latencies of each stage in microseconds and of each count
+	 */
+	public static String report(){
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-14s %10s %12s %10s %10s %10s %10s %10s%n",
+				"stage", "count", "total ms", "mean us", "p50 us", "p90 us", "p99 us", "max us"));
+		for(LatencyHistogram stage : STAGES){
+			report.append(stage).append('\n');
+		}
+		for(Counter counter : COUNTERS){
+			report.append(counter).append('\n');
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,102 @@
+package processor;
+
+/**
+ * The postings of one term across several segments, read as a single list.
+ * Each segments postings are shifted by the id of its first doc so the list is
+ * in ascending doc id order like the postings of a single index.
+ * Remembers the segment of the last posting read, as postings are mostly read in order.
+ */
+public class MultiPostings implements PostingsList {
+
+	private final PostingsList[] parts;
+	private final int[] docBases;
+	private final int[] starts;
+	private int current;
+
+	/**
+	 * Class constructor
+	 * @param parts postings of the term in each segment, in segment order
+	 * @param docBases id of the first doc of the segment of each part
+	 */
+	MultiPostings(PostingsList[] parts, int[] docBases){
+
+		this.parts = parts;
+		this.docBases = docBases;
+		starts = new int[parts.length + 1];
+		for(int p = 0; p < parts.length; p++){
+			starts[p + 1] = starts[p] + parts[p].size();
+		}
+		current = 0;
+	}
+
+	/**
+	 * @return the part that holds posting i
+	 */
+	private int partOf(int i){
+
+		if(i >= starts[current] && i < starts[current + 1]){
+			return current;
+		}
+		int lo = 0;
+		int hi = parts.length - 1;
+		while(lo < hi){
+			int mid = (lo + hi + 1) >>> 1;
+			if(starts[mid] <= i){
+				lo = mid;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		current = lo;
+		return lo;
+	}
+
+	@Override
+	public int size(){
+		return starts[parts.length];
+	}
+
+	@Override
+	public int getDocId(int i){
+
+		int p = partOf(i);
+		return docBases[p] + parts[p].getDocId(i - starts[p]);
+	}
+
+	@Override
+	public int advance(int from, int target){
+
+		if(from >= size()) return from;
+		for(int p = partOf(from); p < parts.length; p++){
+			int local = parts[p].advance(Math.max(0, from - starts[p]), target - docBases[p]);
+			if(local < parts[p].size()){
+				current = p;
+				return starts[p] + local;
+			}
+		}
+		return size();
+	}
+
+	@Override
+	public int getTf(int i){
+
+		int p = partOf(i);
+		return parts[p].getTf(i - starts[p]);
+	}
+
+	@Override
+	public boolean hasPositions(){
+
+		for(PostingsList part : parts){
+			if(!part.hasPositions()) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int getPositions(int i, int[] into){
+
+		int p = partOf(i);
+		return parts[p].getPositions(i - starts[p], into);
+	}
+}
@@ -0,0 +1,116 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes the query of the terms with the highest average tf*idf over every document of a set.
+ * A term scores nothing in a document that does not contain it, so a term's total is the
+ * sum over its postings of tf * idf, with the idf taken from the CorpusStats.
+ * Each posting is read once, which is the same work as reading every document's own terms,
+ * and postings are summed in doc order so a term gets the same total as adding up its
+ * score document by document.
+ * Workers take term ids a chunk at a time and keep only their best terms in a TopKHeap,
+ * the heaps are merged at the end so no score is held for every term.
+ */
+public class OptimalQuery {
+
+	//term ids a worker takes at a time, small enough to share out the common terms
+	private static final int CHUNK_SIZE = 256;
+
+	/**
+	 * Find the best terms of a set
+	 * @param set Dataset to make the query for
+	 * @param numTerms number of terms in the query
+	 * @param numThreads number of worker threads, 1 works on the calling thread
+	 * @return terms ranked by average tf*idf, best first
+	 */
+	public static ArrayList<String> make(
+			Dataset set,
+			int numTerms,
+			int numThreads) throws InterruptedException{
+
+		MemoryIndexReader reader = set.getReader();
+		CorpusStats stats = set.getStats();
+		TopKHeap best = new TopKHeap(numTerms);
+		AtomicInteger nextChunk = new AtomicInteger();
+
+		if(numThreads <= 1){
+			merge(best, scoreTerms(reader, stats, numTerms, nextChunk));
+		}else{
+			ExecutorService pool = Workers.newPool(numThreads, false, "optimal-query");
+			try {
+				ArrayList<Future<TopDocs>> parts = new ArrayList<>();
+				for(int t = 0; t < numThreads; t++){
+					parts.add(pool.submit(() -> scoreTerms(reader, stats, numTerms, nextChunk)));
+				}
+				for(Future<TopDocs> part : parts){
+					merge(best, part.get());
+				}
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Could not score terms", e.getCause());
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		TopDocs ranked = best.toTopDocs();
+		ArrayList<String> query = new ArrayList<>();
+		for(int rank = 0; rank < ranked.size(); rank++){
+			query.add(set.getDictionary().getTerm(ranked.getDocId(rank)));
+		}
+		return query;
+	}
+
+	/**
+	 * Score chunks of term ids until there are none left
+	 * @param reader MemoryIndexReader of the set
+	 * @param stats CorpusStats of the same set
+	 * @param numTerms number of best terms to keep
+	 * @param nextChunk number of the next chunk of term ids to take, shared by the workers
+	 * @return best terms scored, as term ids with their average tf*idf
+	 */
+	private static TopDocs scoreTerms(
+			MemoryIndexReader reader,
+			CorpusStats stats,
+			int numTerms,
+			AtomicInteger nextChunk){
+
+		TopKHeap best = new TopKHeap(numTerms);
+		int numTermIds = reader.getNumTermIds();
+		double numDocs = stats.getNumDocs();
+
+		int start;
+		while((start = nextChunk.getAndIncrement() * CHUNK_SIZE) < numTermIds){
+			int end = Math.min(numTermIds, start + CHUNK_SIZE);
+			for(int termId = start; termId < end; termId++){
+				PostingsList postings = reader.getPostings(termId);
+				if(postings == null) continue;
+
+				double idf = stats.getIdf(termId);
+				double sum = 0.0;
+				for(int i = 0; i < postings.size(); i++){
+					if(reader.isDeleted(postings.getDocId(i))) continue;
+					sum += Weighting.normaliseTf(postings.getTf(i)) * idf;
+				}
+				if(stats.getDf(termId) > 0){
+					best.offer(termId, sum / numDocs);
+				}
+			}
+		}
+		return best.toTopDocs();
+	}
+
+	/**
+	 * Offer the terms of one worker to the overall best
+	 */
+	private static void merge(TopKHeap best, TopDocs part){
+
+		for(int rank = 0; rank < part.size(); rank++){
+			best.offer(part.getDocId(rank), part.getScore(rank));
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A phrase or proximity clause of a query, matched against an index with positions.
+ * A phrase matches where its terms occur in order one after another, a proximity clause
+ * with a slop of n also matches where up to n other terms come between them, in all.
+ * Positions count the terms left once stop words are taken out, at indexing and in queries,
+ * so "bank of england" matches "bank england" in a document as well.
+ *
+ * A clause is carried through a query as a single term, the phrase in quotes with ~slop on
+ * the end when it has one, so the query cache, batch runs and the search server all take
+ * phrases without knowing about them. The Searcher scores a clause as BM25 of a term whose
+ * postings are the documents it matches in and whose tf is the number of matches in each.
+ *
+ * Matching intersects the postings of the terms, rarest first, skipping ahead with advance
+ * so the common terms of a phrase are only read near the documents of its rare ones, and only
+ * reads the positions of documents that hold every term.
+ */
+public class PhraseQuery {
+
+	//slops above this are taken as this, any match is closer than a document is long
+	public static final int MAX_SLOP = 100000;
+
+	private static final char QUOTE = '"';
+	private static final char SLOP = '~';
+
+	private final String[] terms;
+	private final int slop;
+
+	/**
+	 * Class constructor
+	 * @param terms stemmed terms of the phrase in order
+	 * @param slop number of other terms that may come between them, 0 for an exact phrase
+	 */
+	public PhraseQuery(List<String> terms, int slop){
+
+		this.terms = terms.toArray(new String[0]);
+		this.slop = Math.max(0, Math.min(MAX_SLOP, slop));
+	}
+
+	/**
+	 * @return stemmed terms of the phrase in order
+	 */
+	public String[] getTerms(){
+		return terms.clone();
+	}
+
+	/**
+	 * @return number of other terms that may come between the terms of the phrase
+	 */
+	public int getSlop(){
+		return slop;
+	}
+
+	/**
+	 * @return the clause as a query term, "a b" or "a b"~n
+	 */
+	public String toTerm(){
+
+		StringBuilder term = new StringBuilder().append(QUOTE).append(String.join(" ", terms)).append(QUOTE);
+		if(slop > 0){
+			term.append(SLOP).append(slop);
+		}
+		return term.toString();
+	}
+
+	/**
+	 * Read a clause back from a query term
+	 * Stemmed terms never hold quotes so no plain term is taken for a clause.
+	 * @param term query term
+	 * @return PhraseQuery or null if the term is a plain term
+	 */
+	public static PhraseQuery fromTerm(String term){
+
+		int close = term.lastIndexOf(QUOTE);
+		if(term.isEmpty() || term.charAt(0) != QUOTE || close <= 0){
+			return null;
+		}
+		int slop = close + 2 < term.length() ? Integer.parseInt(term.substring(close + 2)) : 0;
+		ArrayList<String> words = new ArrayList<>();
+		for(String word : term.substring(1, close).split(" ")){
+			words.add(word);
+		}
+		return new PhraseQuery(words, slop);
+	}
+
+	/**
+	 * Make the terms of query text with phrases, quoted text is a phrase and "..."~n
+	 * a proximity clause, the rest is split in to plain terms
+	 * @param text text of the query
+	 * @param analyzer makes the stemmed terms of plain text
+	 * @param positions false when the index has no positions, phrases are then taken as plain terms
+	 * @param proximitySlop when at least 0 and there are two or more plain terms, they are also
+	 * added as a proximity clause with this slop so documents with them close together rank higher
+	 * @return query terms, each phrase as one term
+	 */
+	public static ArrayList<String> parse(
+			String text,
+			BatchSearcher.QueryParser analyzer,
+			boolean positions,
+			int proximitySlop) throws Exception{
+
+		ArrayList<String> query = new ArrayList<>();
+		ArrayList<String> plain = new ArrayList<>();
+		int from = 0;
+		while(from < text.length()){
+			int open = text.indexOf(QUOTE, from);
+			ArrayList<String> words = analyzer.parse(text.substring(from, open < 0 ? text.length() : open));
+			query.addAll(words);
+			plain.addAll(words);
+			if(open < 0){
+				break;
+			}
+
+			int close = text.indexOf(QUOTE, open + 1);
+			if(close < 0){
+				close = text.length();
+			}
+			words = analyzer.parse(text.substring(open + 1, close));
+			//empty stems are not indexed so take no position
+			words.removeIf(String::isEmpty);
+
+			int slop = 0;
+			from = close + 1;
+			if(from < text.length() && text.charAt(from) == SLOP){
+				from++;
+				while(from < text.length() && Character.isDigit(text.charAt(from))){
+					slop = Math.min(MAX_SLOP, slop * 10 + text.charAt(from++) - '0');
+				}
+			}
+
+			if(positions && words.size() > 1){
+				query.add(new PhraseQuery(words, slop).toTerm());
+			}else{
+				query.addAll(words);
+			}
+		}
+
+		if(positions && proximitySlop >= 0){
+			ArrayList<String> near = new ArrayList<>(plain);
+			near.removeIf(String::isEmpty);
+			if(near.size() > 1){
+				query.add(new PhraseQuery(near, proximitySlop).toTerm());
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * Find the documents the clause matches in
+	 * @param index IndexReader with positions
+	 * @return postings of the documents that are not deleted with the number of matches in each as tf,
+	 * empty if a term is in no document
+	 * @throws IllegalStateException if the index has no positions
+	 */
+	public Postings match(IndexReader index){
+
+		int n = terms.length;
+		Postings matches = new Postings();
+		PostingsList[] lists = new PostingsList[n];
+		for(int t = 0; t < n; t++){
+			lists[t] = index.getPostings(terms[t]);
+			if(lists[t] == null){
+				return matches;
+			}
+			if(!lists[t].hasPositions()){
+				throw new IllegalStateException("The index has no positions to match " + toTerm() + " with");
+			}
+		}
+
+		//terms ordered by number of postings, smallest first
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		for(int i = 1; i < n; i++){
+			int t = order[i];
+			int j = i - 1;
+			while(j >= 0 && lists[order[j]].size() > lists[t].size()){
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = t;
+		}
+
+		int[] cursors = new int[n];
+		int[][] positions = new int[n][16];
+		int[] lengths = new int[n];
+		int[] next = new int[n];
+		int docId = 0;
+
+		while(true){
+			//move every cursor to docId, starting again from a later doc when one is not on it
+			boolean aligned = true;
+			for(int i = 0; i < n && aligned; i++){
+				int t = order[i];
+				cursors[t] = lists[t].advance(cursors[t], docId);
+				if(cursors[t] >= lists[t].size()){
+					return matches;
+				}
+				int found = lists[t].getDocId(cursors[t]);
+				if(found != docId){
+					docId = found;
+					aligned = false;
+				}
+			}
+			if(!aligned){
+				continue;
+			}
+
+			if(!index.isDeleted(docId)){
+				for(int t = 0; t < n; t++){
+					int tf = lists[t].getTf(cursors[t]);
+					if(positions[t].length < tf){
+						positions[t] = new int[Math.max(tf, positions[t].length * 2)];
+					}
+					lengths[t] = lists[t].getPositions(cursors[t], positions[t]);
+				}
+				int count = countMatches(positions, lengths, next, slop);
+				if(count > 0){
+					matches.add(docId, count);
+				}
+			}
+			docId++;
+		}
+	}
+
+	/**
+	 * Count the matches of a phrase in one document
+	 * Each position of the first term starts at most one match, the terms after it are
+	 * each taken at their first position after the term before, which gives the shortest
+	 * match from that start. Starts only move forward so every list is passed over once.
+	 * @param positions positions of each term of the phrase in ascending order
+	 * @param lengths number of positions of each term
+	 * @param next working space, one int for each term
+	 * @param slop number of other terms allowed between the terms
+	 * @return number of positions a match starts at
+	 */
+	static int countMatches(int[][] positions, int[] lengths, int[] next, int slop){
+
+		int n = lengths.length;
+		for(int t = 1; t < n; t++){
+			next[t] = 0;
+		}
+		int count = 0;
+		for(int a = 0; a < lengths[0]; a++){
+			int first = positions[0][a];
+			int previous = first;
+			for(int t = 1; t < n; t++){
+				while(next[t] < lengths[t] && positions[t][next[t]] <= previous){
+					next[t]++;
+				}
+				if(next[t] == lengths[t]){
+					return count;
+				}
+				previous = positions[t][next[t]];
+			}
+			if(previous - first - (n - 1) <= slop){
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,121 @@
+package processor;
+
+import java.util.Arrays;
+
+/**
+ * Encoded postings of a term with the positions of each occurrence stored alongside them.
+ * The doc ids and term frequencies are left to the PostingsCodec of the segment, the
+ * positions of each posting are written after them as variable byte gaps from the
+ * position before, so positions close together, as most are, take a byte each.
+ * The offset of the first position of every posting is kept so the positions of a
+ * posting can be read without decoding the postings before it, which a phrase query
+ * only does for the documents that hold every one of its terms.
+ */
+public class PositionalPostings implements PostingsCodec.EncodedPostings {
+
+	private final PostingsCodec.EncodedPostings postings;
+	private final byte[] positions;
+	//offset in to positions of the first position of each posting
+	private final int[] starts;
+
+	/**
+	 * Reads the postings through the reader of the codec and the positions from their bytes
+	 */
+	private static final class Reader implements PostingsList {
+
+		private final PositionalPostings owner;
+		private final PostingsList postings;
+
+		private Reader(PositionalPostings owner){
+
+			this.owner = owner;
+			postings = owner.postings.reader();
+		}
+
+		@Override
+		public int size(){
+			return postings.size();
+		}
+
+		@Override
+		public int getDocId(int i){
+			return postings.getDocId(i);
+		}
+
+		@Override
+		public int getTf(int i){
+			return postings.getTf(i);
+		}
+
+		@Override
+		public int advance(int from, int target){
+			return postings.advance(from, target);
+		}
+
+		@Override
+		public boolean hasPositions(){
+			return true;
+		}
+
+		@Override
+		public int getPositions(int i, int[] into){
+
+			int tf = postings.getTf(i);
+			VByteCodec.read(owner.positions, owner.starts[i], tf, into);
+			int position = -1;
+			for(int p = 0; p < tf; p++){
+				position += into[p] + 1;
+				into[p] = position;
+			}
+			return tf;
+		}
+	}
+
+	/**
+	 * Class constructor
+	 * @param postings the postings encoded by a codec
+	 * @param source the same postings with their positions
+	 */
+	PositionalPostings(PostingsCodec.EncodedPostings postings, PostingsList source){
+
+		this.postings = postings;
+		int size = source.size();
+		starts = new int[size];
+		byte[] out = new byte[Math.max(16, size * 4)];
+		int length = 0;
+		int[] buffer = new int[16];
+
+		for(int i = 0; i < size; i++){
+			int tf = source.getTf(i);
+			if(buffer.length < tf){
+				buffer = new int[Math.max(tf, buffer.length * 2)];
+			}
+			source.getPositions(i, buffer);
+			if(out.length - length < tf * 5){
+				out = Arrays.copyOf(out, Math.max(out.length * 2, length + tf * 5));
+			}
+			starts[i] = length;
+			int previous = -1;
+			for(int p = 0; p < tf; p++){
+				length = VByteCodec.write(out, length, buffer[p] - previous - 1);
+				previous = buffer[p];
+			}
+		}
+		positions = Arrays.copyOf(out, length);
+	}
+
+	@Override
+	public int size(){
+		return postings.size();
+	}
+
+	@Override
+	public long getSizeInBytes(){
+		return postings.getSizeInBytes() + positions.length + (long)starts.length * 4;
+	}
+
+	@Override
+	public PostingsList reader(){
+		return new Reader(this);
+	}
+}
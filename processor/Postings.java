@@ -0,0 +1,206 @@
+package processor;
+
+import java.util.Arrays;
+
+/**
+ * A postings list for a single term.
+ * Holds the ids of the documents that contain the term, in the order the
+ * documents were added to the index, alongside the number of occurrences
+ * of the term in each of those documents.
+ * A list made with positions also holds the position of every occurrence,
+ * the positions of each posting in ascending order after those of the posting before.
+ */
+public class Postings implements PostingsList {
+	
+	private static final int INITIAL_CAPACITY = 4;
+	
+	private int[] docIds;
+	private int[] termFrequencies;
+	private int size;
+	//null when positions are not kept, positionStarts[i] is where the positions of posting i start
+	private int[] positions;
+	private int[] positionStarts;
+	private int numPositions;
+	
+	/**
+	 * Class constructor
+	 * Creates an empty postings list
+	 */
+	Postings(){
+		
+		this(false);
+	}
+	
+	/**
+	 * Class constructor
+	 * Creates an empty postings list
+	 * @param withPositions true to keep the position of every occurrence
+	 */
+	Postings(boolean withPositions){
+		
+		docIds = new int[INITIAL_CAPACITY];
+		termFrequencies = new int[INITIAL_CAPACITY];
+		size = 0;
+		if(withPositions){
+			positions = new int[INITIAL_CAPACITY];
+			positionStarts = new int[INITIAL_CAPACITY];
+		}
+	}
+	
+	/**
+	 * Class constructor
+	 * Wraps postings that have already been read, used when an index is loaded
+	 * @param docIds ascending document ids
+	 * @param termFrequencies term frequency of each document
+	 * @param size number of postings in the arrays
+	 */
+	Postings(int[] docIds, int[] termFrequencies, int size){
+		
+		this.docIds = docIds;
+		this.termFrequencies = termFrequencies;
+		this.size = size;
+	}
+	
+	/**
+	 * Class constructor
+	 * Wraps postings and positions that have already been read, used when an index is loaded
+	 * @param docIds ascending document ids
+	 * @param termFrequencies term frequency of each document
+	 * @param size number of postings in the arrays
+	 * @param positions positions of every posting, each posting after the one before
+	 * @param positionStarts where the positions of each posting start
+	 */
+	Postings(int[] docIds, int[] termFrequencies, int size, int[] positions, int[] positionStarts){
+		
+		this(docIds, termFrequencies, size);
+		this.positions = positions;
+		this.positionStarts = positionStarts;
+		numPositions = positions.length;
+	}
+	
+	/**
+	 * Append a posting to the end of this list
+	 * @param docId id of the document, must be greater than the last id added
+	 * @param tf number of occurrences of the term in the document
+	 */
+	void add(int docId, int tf){
+		
+		if(size == docIds.length){
+			int newCapacity = Math.max(INITIAL_CAPACITY, size * 2);
+			docIds = Arrays.copyOf(docIds, newCapacity);
+			termFrequencies = Arrays.copyOf(termFrequencies, newCapacity);
+			if(positions != null){
+				positionStarts = Arrays.copyOf(positionStarts, newCapacity);
+			}
+		}
+		docIds[size] = docId;
+		termFrequencies[size] = tf;
+		if(positions != null){
+			positionStarts[size] = numPositions;
+		}
+		size++;
+	}
+	
+	/**
+	 * Append a position to the last posting, its tf positions must be added in ascending order
+	 * @param position position of the occurrence in the document
+	 */
+	void addPosition(int position){
+		
+		if(numPositions == positions.length){
+			positions = Arrays.copyOf(positions, Math.max(INITIAL_CAPACITY, numPositions * 2));
+		}
+		positions[numPositions++] = position;
+	}
+	
+	/**
+	 * Remove the posting of a document from this list
+	 * @param docId id of the document
+	 * @return true if the document was in the list
+	 */
+	boolean remove(int docId){
+		
+		int i = Arrays.binarySearch(docIds, 0, size, docId);
+		if(i < 0){
+			return false;
+		}
+		System.arraycopy(docIds, i + 1, docIds, i, size - i - 1);
+		System.arraycopy(termFrequencies, i + 1, termFrequencies, i, size - i - 1);
+		if(positions != null){
+			int start = positionStarts[i];
+			int end = i + 1 < size ? positionStarts[i + 1] : numPositions;
+			System.arraycopy(positions, end, positions, start, numPositions - end);
+			for(int j = i + 1; j < size; j++){
+				positionStarts[j - 1] = positionStarts[j] - (end - start);
+			}
+			numPositions -= end - start;
+		}
+		size--;
+		return true;
+	}
+	
+	/**
+	 * Shrink the arrays to fit, called once no more postings will be added
+	 */
+	void trim(){
+		
+		if(size < docIds.length){
+			docIds = Arrays.copyOf(docIds, size);
+			termFrequencies = Arrays.copyOf(termFrequencies, size);
+			if(positions != null){
+				positionStarts = Arrays.copyOf(positionStarts, size);
+			}
+		}
+		if(positions != null && numPositions < positions.length){
+			positions = Arrays.copyOf(positions, numPositions);
+		}
+	}
+	
+	/**
+	 * @return bytes of memory the arrays take up
+	 */
+	long getSizeInBytes(){
+		
+		long bytes = (long)docIds.length * 8;
+		if(positions != null){
+			bytes += (long)positionStarts.length * 4 + (long)positions.length * 4;
+		}
+		return bytes;
+	}
+	
+	@Override
+	public int size(){
+		return size;
+	}
+	
+	@Override
+	public int getDocId(int i){
+		return docIds[i];
+	}
+	
+	@Override
+	public int getTf(int i){
+		return termFrequencies[i];
+	}
+	
+	@Override
+	public int read(int from, int[] docIds, int[] termFrequencies){
+		
+		int n = Math.min(docIds.length, size - from);
+		System.arraycopy(this.docIds, from, docIds, 0, n);
+		System.arraycopy(this.termFrequencies, from, termFrequencies, 0, n);
+		return n;
+	}
+	
+	@Override
+	public boolean hasPositions(){
+		return positions != null;
+	}
+	
+	@Override
+	public int getPositions(int i, int[] into){
+		
+		System.arraycopy(positions, positionStarts[i], into, 0, termFrequencies[i]);
+		return termFrequencies[i];
+	}
+}
@@ -0,0 +1,60 @@
+package processor;
+
+/**
+ * Encodes the postings of a term when they are written to a Segment.
+ * Segments never change so their postings can be stored in a compact form,
+ * the buffer of a Dataset keeps plain Postings as it is still being added to.
+ * Encoded postings are read through a PostingsList made for each query,
+ * so a list can keep the block it last decoded without being shared between threads.
+ */
+public interface PostingsCodec {
+
+	/**
+	 * Postings in the form a codec stored them
+	 */
+	interface EncodedPostings {
+
+		/**
+		 * @return number of postings
+		 */
+		int size();
+
+		/**
+		 * @return bytes of memory the encoded postings take up
+		 */
+		long getSizeInBytes();
+
+		/**
+		 * @return a list to read the postings through, for use by one thread
+		 */
+		PostingsList reader();
+	}
+
+	/**
+	 * @return name the codec is chosen by
+	 */
+	String getName();
+
+	/**
+	 * Encode postings
+	 * @param postings postings in ascending doc id order
+	 * @return EncodedPostings holding the same postings
+	 */
+	EncodedPostings encode(PostingsList postings);
+
+	/**
+	 * Get a codec by name
+	 * @param name raw, vbyte or packed
+	 * @return PostingsCodec
+	 * @throws IllegalArgumentException if there is no codec with the name
+	 */
+	static PostingsCodec forName(String name){
+
+		switch(name){
+			case RawCodec.NAME: return new RawCodec();
+			case VByteCodec.NAME: return new VByteCodec();
+			case BlockPackedCodec.NAME: return new BlockPackedCodec();
+			default: throw new IllegalArgumentException("Unknown postings codec " + name);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package processor;
+
+/**
+ * Read access to the postings of one term, in ascending document id order.
+ * Implemented by in-memory Postings, by compressed postings and by postings read
+ * from a mapped index file.
+ */
+public interface PostingsList {
+	
+	/**
+	 * @return number of documents in this list, the document frequency of the term
+	 */
+	int size();
+	
+	/**
+	 * @param i index of posting
+	 * @return document id of the i'th posting
+	 */
+	int getDocId(int i);
+	
+	/**
+	 * @param i index of posting
+	 * @return term frequency of the i'th posting
+	 */
+	int getTf(int i);
+	
+	/**
+	 * Read a run of postings in one go, for loops that visit every posting of a list
+	 * Compressed lists decode the block holding from straight in to the arrays and stop
+	 * at its end, so each posting costs one decode and no call of its own.
+	 * @param from index of the first posting to read
+	 * @param docIds filled with the doc ids read
+	 * @param termFrequencies filled with the term frequencies read, the same length as docIds
+	 * @return number of postings read, at least 1 while from is below size()
+	 */
+	default int read(int from, int[] docIds, int[] termFrequencies){
+		
+		int n = Math.min(docIds.length, size() - from);
+		for(int i = 0; i < n; i++){
+			docIds[i] = getDocId(from + i);
+			termFrequencies[i] = getTf(from + i);
+		}
+		return n;
+	}
+	
+	/**
+	 * @return true if the list holds the position of every occurrence of the term
+	 */
+	default boolean hasPositions(){
+		return false;
+	}
+	
+	/**
+	 * Read the positions of the term in the document of a posting
+	 * @param i index of posting
+	 * @param into filled with the positions in ascending order, must hold getTf(i) values
+	 * @return number of positions read, the term frequency of the posting
+	 * @throws UnsupportedOperationException if the list has no positions
+	 */
+	default int getPositions(int i, int[] into){
+		throw new UnsupportedOperationException("Postings have no positions");
+	}
+	
+	/**
+	 * Find the first posting at or after from with a document id of at least target
+	 * Gallops ahead then binary searches so long skips touch few postings,
+	 * compressed lists skip whole blocks instead.
+	 * @param from index of posting to start at
+	 * @param target lowest document id wanted
+	 * @return index of the posting, size() if there is none
+	 */
+	default int advance(int from, int target){
+		
+		int lo = from;
+		if(lo >= size() || getDocId(lo) >= target) return lo;
+		
+		int step = 1;
+		int hi = lo + 1;
+		while(hi < size() && getDocId(hi) < target){
+			lo = hi;
+			step <<= 1;
+			hi = lo + step;
+		}
+		if(hi > size()) hi = size();
+		
+		//getDocId(lo) < target, answer is in (lo, hi]
+		while(lo + 1 < hi){
+			int mid = (lo + hi) >>> 1;
+			if(getDocId(mid) < target){
+				lo = mid;
+			}else{
+				hi = mid;
+			}
+		}
+		return hi;
+	}
+}
@@ -1,7 +1,6 @@
 package processor;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,43 +17,78 @@ import org.tartarus.snowball.SnowballStemmer;
  * converting to lower case,
  * the separation of this text in to terms   
  * and the stemming of these terms.
+ * One Preprocessor can be shared by threads ingesting documents in parallel.
  */
 public class Preprocessor {
 	
-	//Snowball stemmer that will be used
-		private static SnowballStemmer stemmer;
+	private static final Pattern TEXT_PATTERN = Pattern.compile("<text>.*<" + "\\" + "/text>");
+	//StopWords is never changed once built, so one empty set serves every call that drops none
+	private static final StopWords NO_STOP_WORDS = new StopWords(new String[0]);
+	
+	//Snowball stemmer class that will be used
+		private static final String STEMMER_CLASS = "org.tartarus.snowball.ext.englishStemmer";
+		public static final int DEFAULT_STEM_CACHE_SIZE = 50000;
+	
+	//Snowball stemmers keep the word being stemmed as state, so each thread gets its own
+		private final ThreadLocal<SnowballStemmer> stemmer;
+		
+	//Stems of recently seen words, shared by all threads
+		private final StemCache stemCache;
 		
 		/**
 		 * Class constructor
+		 * Uses a stem cache of DEFAULT_STEM_CACHE_SIZE words
 		 */
 		public Preprocessor(){
+			this(DEFAULT_STEM_CACHE_SIZE);
+		}
+		
+		/**
+		 * Class constructor
+		 * @param stemCacheSize most words to keep the stems of
+		 */
+		public Preprocessor(int stemCacheSize){
+			
+			stemCache = new StemCache(stemCacheSize);
 			
 			//Initialize stemmer
-			 Class<?> stemClass;
+			 Class<?> stemClass = null;
 			try {
-				stemClass = Class.forName("org.tartarus.snowball.ext.englishStemmer");
-				stemmer = (SnowballStemmer)stemClass.newInstance();
-			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+				stemClass = Class.forName(STEMMER_CLASS);
+			} catch (ClassNotFoundException e) {
 				System.out.println(e.getMessage());
 				e.printStackTrace();
 			}		 
+			stemmer = stemClass == null ? null : ThreadLocal.withInitial(() -> newStemmer(STEMMER_CLASS));
+		}
+		
+		/**
+		 * Create a snowball stemmer
+		 * @param className name of stemmer class
+		 * @return SnowballStemmer or null if it could not be created
+		 */
+		private static SnowballStemmer newStemmer(String className){
+			
+			try {
+				return (SnowballStemmer)Class.forName(className).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				System.out.println(e.getMessage());
+				e.printStackTrace();
+				return null;
+			}
 		}
 	
 	/**
-	 * Removes all words in stop words array from terms array list
-	 * @param stopWords String array of stop words
+	 * Removes all stop words from terms array list in one pass
+	 * @param stopWords StopWords set of stop words
 	 * @param terms	String array list of terms
 	 * @return terms array list with all words from stopWords removed
 	 */
 	public static ArrayList<String> removeStopWords(
-			String[] stopWords, 
+			StopWords stopWords, 
 			ArrayList<String> terms){
 		
-		for(String stopWord : stopWords){
-			while(terms.contains(stopWord)){
-				terms.remove(stopWord);
-			}
-		}
+		terms.removeIf(stopWords::contains);
 		return terms;
 	}
 			
@@ -66,31 +100,47 @@ public class Preprocessor {
  	public static ArrayList<String> tokenize(
  			String rawDoc){
  		
-		String docText = getText(rawDoc);
-		docText = removeNonAlphabeticalChars(docText);	
+		return tokenizeText(getText(rawDoc));
+	}
+ 	
+ 	/**
+ 	 * Tokenizes text that has already been taken out of its document in one pass with a Tokenizer,
+ 	 * dropping punctuation, converting to lowercase and splitting out occurrences of "quot"
+ 	 * @param text String containing the text of a document or a query
+ 	 * @return tokens of text, never containing an empty token
+ 	 */
+ 	public static ArrayList<String> tokenizeText(
+ 			String text){
+ 		
+ 		return tokenizeText(text, NO_STOP_WORDS);
+ 	}
+ 	
+ 	/**
+ 	 * Tokenizes text that has already been taken out of its document, dropping stop words as they are found
+ 	 * @param text String containing the text of a document or a query
+ 	 * @param stopWords StopWords set of stop words
+ 	 * @return tokens of text that are not stop words
+ 	 */
+ 	public static ArrayList<String> tokenizeText(
+ 			String text,
+ 			StopWords stopWords){
+ 		
 		ArrayList<String> tokens = new ArrayList<>();
-		Collections.addAll(tokens, docText.split(" "));
+		Tokenizer tokenizer = new Tokenizer(token -> {
+			if(!stopWords.contains(token)){
+				tokens.add(token.toString());
+			}
+		});
+		try {
+			tokenizer.feed(text);
+			tokenizer.finish();
+		} catch (Exception e) {
+			//only thrown by the consumer, adding to a list does not throw
+			throw new IllegalStateException(e);
+		}
 		return tokens;
 	}
 	
-	/**
-	 * Removes all non a-z characters, makes string lower case, adds spacing around occurrences of "quot"
-	 * @param doc String containing text section of document
-	 * @return String containing only lowercase a-z text  
-	 */
-	private static String removeNonAlphabeticalChars(
-			String doc){	
-		
-	    String temp  = doc.toLowerCase();		
-		
-		temp = temp.replaceAll("[^a-z ]", "");		
-		temp = temp.replaceAll("quot", " quot ");
-		temp = temp.replaceAll("-", " ");
-		temp = temp.replaceAll("[.]", " ");
-		
-		return temp;
-	}
-	
 	/**
 	 * Removes all text that does not exist with in the documents <text> tags
 	 * Removes all <p> and </p> tags
@@ -100,11 +150,8 @@ public class Preprocessor {
 	private static String getText(
 			String doc){
 		
-		String pattern = "<text>.*<" + "\\" + "/text>";
-	    Pattern r = Pattern.compile(pattern);
-		 
 	     String temp = doc;
-	     Matcher m = r.matcher(doc);
+	     Matcher m = TEXT_PATTERN.matcher(doc);
 	     if (m.find( )) {
 	        temp = doc.substring(m.start()+6, m.end()-7);
 	        temp = doc.replaceAll("<p>", "");
@@ -114,7 +161,8 @@ public class Preprocessor {
 	}
 			
 	 /**
-	 *Stems a inputed term using the snowball tartarus stemmer
+	 *Stems a inputed term using the snowball tartarus stemmer,
+	 *taking the stem from the stem cache when the term has been stemmed recently
 	 * @param term a String
 	 * @param stemmer to be used
 	 * @return a stemmed form of given word
@@ -122,14 +170,41 @@ public class Preprocessor {
 	 */
 	public String stemTerm(
 			String term) throws Exception {		
-		if(stemmer != null){
-			stemmer.setCurrent(term);		
-			stemmer.stem();
+		
+		String stem = stemCache.get(term);
+		if(stem == null){
+			stem = stemUncached(term);
+			stemCache.put(term, stem);
+		}
+		return stem;
+	}
+	
+	/**
+	 * Stems a term with this threads snowball stemmer
+	 * @param term a String
+	 * @return a stemmed form of given word
+	 * @throws Exception if the stemmer could not be created
+	 */
+	private String stemUncached(
+			String term) throws Exception {		
+		
+		SnowballStemmer threadStemmer = stemmer == null ? null : stemmer.get();
+		if(threadStemmer != null){
+			threadStemmer.setCurrent(term);		
+			threadStemmer.stem();
 		}else{
 			throw new Exception("Stemmer not initialised");
 		}
 		
 		
-		return stemmer.getCurrent();
+		return threadStemmer.getCurrent();
 	}	 
+	
+	/**
+	 * get the cache of stems, for its hit and miss counts
+	 * @return StemCache
+	 */
+	public StemCache getStemCache(){
+		return stemCache;
+	}
 }
@@ -3,9 +3,11 @@ package processor;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 /**
  * 
@@ -16,17 +18,149 @@ import java.util.*;
  * This works for XML documents with <title> and <text> tags.
  * The number of document will have to me manually changed when there is more or less than 10 docs.
  * The Location of the documents and stop words will also have to be manually inputed.
- * 
+ *
+ * The dataset is saved to an index file and reopened from it on the next run, it is only
+ * rebuilt when the documents or stop words have changed. Queries are read from the menu
+ * unless a topics file, HTTP port or shards are given. The title of each document is
+ * indexed as a field of its own and can be searched alone from the menu.
+ *
+ * Options are set with -Dprocessor.name=value:
+ * <pre>
+ * name                 default          what it does
+ *
+ * indexing
+ * ingestThreads        cores            threads documents are parsed and stemmed on
+ * virtualThreads       false            parse each document on a virtual thread
+ * stemCacheSize        50000            words whose stems are cached
+ * segmentDocs          1000             docs a new segment holds
+ * mergeFactor          10               segments of one size merged in the background
+ * postingsCodec        raw              how postings are stored, raw, vbyte or packed,
+ *                                       packed also packs the postings of a mapped index
+ * positions            false            index where terms occur, for "phrases" and "proximity clauses"~n
+ * watch                false            index files as they are added, changed or deleted in the documents folder
+ * watchSaveSeconds     10               least time between saves of the index while watching
+ *
+ * ranking
+ * bm25f                false            rank with BM25F over the title and body instead of BM25
+ * titleBoost           2.0              weight of the title with bm25f
+ * bodyBoost            1.0              weight of the body with bm25f
+ * proximitySlop        off              also rank docs higher where the query words are within n of each other
+ * queryCacheResults    100000           results cached until the documents change
+ * optimalQueryThreads  cores            threads optimal queries are found on
+ *
+ * serving
+ * mappedIndex          false            query a memory mapped index file, without optimal queries,
+ *                                       title search, positions or bm25f
+ * shards               1                split the dataset in to n shards searched at once, for the menu only,
+ *                                       not with mappedIndex, topics, httpPort or watch
+ * topics               none             run every query of a topics file instead of the menu
+ * queryThreads         cores            threads the topics are run on
+ * run                  ./run.txt        TREC run of the topics, with the time of each query in run.latency
+ * runTag               bm25             tag written on each result of the run
+ * httpPort             off              serve queries on the loopback address instead of the menu
+ * httpMaxConcurrent    256              most searches served at once
+ * httpTimeoutMillis    5000             longest a request waits to start and to finish its search
+ *
+ * monitoring
+ * metrics              true             publish the time of each stage of ingest and querying through JMX
+ * metricsDumpSeconds   0                print the metrics every n seconds, 0 never
+ * </pre>
  */
 public class Processor {
 	private static final String STOP_WORDS_FILE = "./stopWords.txt";
 	private static final String XML_DOCUMENTS = "./documents/";
+	private static final String INDEX_FILE = "./index.bow";
+	private static final String MAPPED_INDEX_FILE = "./index.seg";
+	private static final int NUM_RESULTS = 200;
+	private static final int INGEST_THREADS = Integer.getInteger("processor.ingestThreads", Runtime.getRuntime().availableProcessors());
+	private static final boolean INGEST_VIRTUAL_THREADS = Boolean.getBoolean("processor.virtualThreads");
+	private static final int STEM_CACHE_SIZE = Integer.getInteger("processor.stemCacheSize", Preprocessor.DEFAULT_STEM_CACHE_SIZE);
+	private static final boolean MAPPED_INDEX = Boolean.getBoolean("processor.mappedIndex");
+	private static final boolean WATCH_DOCUMENTS = Boolean.getBoolean("processor.watch");
+	private static final long WATCH_SAVE_SECONDS = Long.getLong("processor.watchSaveSeconds", 10);
+	private static final int SEGMENT_DOCS = Integer.getInteger("processor.segmentDocs", Dataset.DEFAULT_SEGMENT_DOCS);
+	private static final int MERGE_FACTOR = Integer.getInteger("processor.mergeFactor", Dataset.DEFAULT_MERGE_FACTOR);
+	private static final String POSTINGS_CODEC = System.getProperty("processor.postingsCodec", Dataset.DEFAULT_POSTINGS_CODEC);
+	private static final int OPTIMAL_QUERY_THREADS = Integer.getInteger("processor.optimalQueryThreads", Runtime.getRuntime().availableProcessors());
+	private static final String TOPICS_FILE = System.getProperty("processor.topics");
+	private static final String RUN_FILE = System.getProperty("processor.run", "./run.txt");
+	private static final String RUN_TAG = System.getProperty("processor.runTag", BatchSearcher.DEFAULT_RUN_TAG);
+	private static final int QUERY_THREADS = Integer.getInteger("processor.queryThreads", Runtime.getRuntime().availableProcessors());
+	private static final int HTTP_PORT = Integer.getInteger("processor.httpPort", -1);
+	private static final int HTTP_MAX_CONCURRENT = Integer.getInteger("processor.httpMaxConcurrent", SearchServer.DEFAULT_MAX_CONCURRENT);
+	private static final int HTTP_TIMEOUT_MILLIS = Integer.getInteger("processor.httpTimeoutMillis", SearchServer.DEFAULT_TIMEOUT_MILLIS);
+	private static final int METRICS_DUMP_SECONDS = Integer.getInteger("processor.metricsDumpSeconds", 0);
+	private static final boolean POSITIONS = Boolean.getBoolean("processor.positions");
+	private static final int PROXIMITY_SLOP = Integer.getInteger("processor.proximitySlop", -1);
+	private static final boolean BM25F = Boolean.getBoolean("processor.bm25f");
+	private static final int SHARDS = Integer.getInteger("processor.shards", 1);
+	private static final Weighting.FieldWeights FIELD_WEIGHTS = new Weighting.FieldWeights(
+			Double.parseDouble(System.getProperty("processor.titleBoost", String.valueOf(Weighting.FieldWeights.DEFAULT_TITLE_BOOST))),
+			Weighting.FieldWeights.DEFAULT_TITLE_B,
+			Double.parseDouble(System.getProperty("processor.bodyBoost", String.valueOf(Weighting.FieldWeights.DEFAULT_BODY_BOOST))),
+			Weighting.FieldWeights.DEFAULT_BODY_B);
+	//weights queries are ranked with, null for plain BM25
+	private static final Weighting.FieldWeights RANKING_WEIGHTS = BM25F ? FIELD_WEIGHTS : null;
+	private static final QueryCache QUERY_CACHE = new QueryCache(Integer.getInteger("processor.queryCacheResults", QueryCache.DEFAULT_CAPACITY));
 	 
 	 public static void main(String[] args) throws Exception {	 
 		
-		 Preprocessor stemmer = new Preprocessor();
-		 String[] stopWords = getStopWords(STOP_WORDS_FILE);
-		 Dataset set = makeDataSet(XML_DOCUMENTS, stopWords, stemmer);
+		 if(Metrics.ENABLED){
+			 Metrics.registerMBeans();
+			 Metrics.dumpEvery(METRICS_DUMP_SECONDS);
+		 }
+		 Preprocessor stemmer = new Preprocessor(STEM_CACHE_SIZE);
+		 StopWords stopWords = getStopWords(STOP_WORDS_FILE);
+		 
+		 if(MAPPED_INDEX && BM25F){
+			 System.out.println("BM25F needs the titles of the full dataset, run without -Dprocessor.mappedIndex");
+			 return;
+		 }
+		 if(SHARDS > 1){
+			 String unsharded = MAPPED_INDEX ? "mappedIndex" : TOPICS_FILE != null ? "topics"
+					 : HTTP_PORT >= 0 ? "httpPort" : WATCH_DOCUMENTS ? "watch" : null;
+			 if(unsharded != null){
+				 System.out.println("Shards are only searched from the menu, run without -Dprocessor.shards or -Dprocessor." + unsharded);
+				 return;
+			 }
+			 try (ShardedIndex shards = openShardedIndex(XML_DOCUMENTS, INDEX_FILE, stopWords, stemmer)) {
+				 runSharded(shards, queryParser(stopWords, stemmer, shards.getShard(0).hasPositions()));
+			 }
+			 return;
+		 }
+		 //the mapped index has no positions, so phrases are taken as plain words
+		 if(MAPPED_INDEX && TOPICS_FILE != null){
+			 runBatch(openMappedIndex(XML_DOCUMENTS, MAPPED_INDEX_FILE, stopWords, stemmer), queryParser(stopWords, stemmer, false));
+			 return;
+		 }
+		 if(MAPPED_INDEX && HTTP_PORT >= 0){
+			 MappedIndex index = openMappedIndex(XML_DOCUMENTS, MAPPED_INDEX_FILE, stopWords, stemmer);
+			 //the mapped index never changes so its results are always generation 0
+			 serve(() -> new SearchServer.Snapshot(index, 0), queryParser(stopWords, stemmer, false));
+			 return;
+		 }
+		 if(MAPPED_INDEX){
+			 runMapped(openMappedIndex(XML_DOCUMENTS, MAPPED_INDEX_FILE, stopWords, stemmer), queryParser(stopWords, stemmer, false));
+			 return;
+		 }
+		 
+		 Dataset set = openDataSet(XML_DOCUMENTS, INDEX_FILE, stopWords, stemmer);
+		 BatchSearcher.QueryParser parser = queryParser(stopWords, stemmer, set.hasPositions());
+		 if(TOPICS_FILE != null){
+			 runBatch(set.getReader(), parser);
+			 return;
+		 }
+		 if(WATCH_DOCUMENTS){
+			 watchDocuments(set, XML_DOCUMENTS, INDEX_FILE, stopWords, stemmer);
+		 }
+		 if(HTTP_PORT >= 0){
+			 serve(() -> {
+				 synchronized(set){
+					 return new SearchServer.Snapshot(set.getReader(), set.getGeneration());
+				 }
+			 }, parser);
+			 return;
+		 }
 		 		 
 		 
 		 Scanner reader = new Scanner(System.in);		 
@@ -34,210 +168,563 @@ public class Processor {
 		 while(true){
 			System.out.println("Enter one of the following options:"
 						+ "\n1	:	 to query dataset"
-		 				+ "\n2	:	 to find optimal query for dataset");
+		 				+ "\n2	:	 to find optimal query for dataset"
+		 				+ "\n3	:	 to search titles");
 			
 			String input = reader.nextLine();
 			
 			if(input.equals("1")){			
 				
-				 ArrayList<String> queryTerms = getQuery(reader, stopWords, stemmer);		
-				 HashMap<String, Double> bmScores = SortMap.sortMapValueStringDouble(calcBM25(set, queryTerms));
-				 set.setPosNeg(bmScores);
-				 set.printWeightedMap();
-				 System.out.println();
+				 ArrayList<String> queryTerms = getQuery(reader, parser);		
+				 synchronized(set){
+					 set.setPosNeg(calcBM25(set, queryTerms));
+					 set.printWeightedMap();
+				 }
+				 System.out.println(QUERY_CACHE + "\n");
 			}else if(input.equals("2")){
 
 				int numWordsInQuery = 5;
-				ArrayList<String> queryTerms = makeOptimalQuery(set, numWordsInQuery);
-				System.out.println("Optimal query : " + makeOptimalQuery(set, numWordsInQuery) + "\n");
-
-				HashMap<String, Double> bmScores = SortMap.sortMapValueStringDouble(calcBM25(set, queryTerms));
-				set.setPosNeg(bmScores);
-				set.printWeightedMap();
+				synchronized(set){
+					ArrayList<String> queryTerms = makeOptimalQuery(set, numWordsInQuery);
+					System.out.println("Optimal query : " + queryTerms + "\n");
+	
+					set.setPosNeg(calcBM25(set, queryTerms));
+					set.printWeightedMap();
+				}
 				System.out.println();
 				
+			}else if(input.equals("3")){
+				
+				 ArrayList<String> queryTerms = getQuery(reader, parser);
+				 synchronized(set){
+					 try {
+						 set.setPosNeg(searchTitles(set, queryTerms));
+						 set.printWeightedMap();
+					 } catch (IllegalArgumentException e) {
+						 System.out.println(e.getMessage());
+					 }
+				 }
+				 System.out.println();
 			}else System.out.println("invalid input");								
 		 }		 
 	}	
 	 
 	/**
-	* used tfidf to make queries from document 
-	* @return Sting[] new queries
-	*/
-	public static ArrayList<String> makeOptimalQuery(Dataset set, int numTermsInQuery){		
-		HashMap<String, Double> setTermIFIDF = buildTFIDFMap(set);		
-		setTermIFIDF = SortMap.sortMapValueStringDouble(setTermIFIDF);
-		return getQueryFromTFIDFMap(setTermIFIDF, numTermsInQuery);
+	 * Query loop for a memory mapped index
+	 * @param index MappedIndex to query
+	 */
+	private static void runMapped(
+			MappedIndex index,
+			BatchSearcher.QueryParser parser) throws Exception{
+		
+		Scanner reader = new Scanner(System.in);
+		
+		while(true){
+			System.out.println("Enter one of the following options:"
+						+ "\n1	:	 to query dataset"
+		 				+ "\n2	:	 to find optimal query for dataset"
+		 				+ "\n3	:	 to search titles");
+			
+			String input = reader.nextLine();
+			
+			if(input.equals("1")){
+				
+				ArrayList<String> queryTerms = getQuery(reader, parser);
+				//the mapped index never changes so its results are always generation 0
+				TopDocs results = QUERY_CACHE.get(queryTerms, NUM_RESULTS, null, 0);
+				if(results == null){
+					results = Searcher.search(index, queryTerms, NUM_RESULTS);
+					QUERY_CACHE.put(queryTerms, NUM_RESULTS, null, 0, results);
+				}
+				printResults(index, results);
+				System.out.println(QUERY_CACHE + "\n");
+			}else if(input.equals("2")){
+				System.out.println("Optimal queries need the full dataset, run without -Dprocessor.mappedIndex\n");
+			}else if(input.equals("3")){
+				System.out.println("Title search needs the full dataset, run without -Dprocessor.mappedIndex\n");
+			}else System.out.println("invalid input");
+		}
 	}
 	
 	/**
-	 * Builds the tfidf hashmap where the key is a term and the value 
-	 * is the tfidf score
-	 * @param set Dataset to use
-	 * @param setTermList ArrayList<String> of terms in dataset
-	 * @return HashMap<String, Double>
+	 * Query loop for a dataset split in to shards
+	 * @param index ShardedIndex to query
 	 */
-	private static HashMap<String, Double> buildTFIDFMap(Dataset set){
-		HashMap<String, Double> setTermIFIDF = new HashMap<>();
-		ArrayList<String> setTermList = buildSetTermList(set);
+	private static void runSharded(
+			ShardedIndex index,
+			BatchSearcher.QueryParser parser) throws Exception{
 		
-		//build map
-		for(BowDocument doc : set.getDocs()){
-			for(String term : setTermList){
+		Scanner reader = new Scanner(System.in);
+		System.out.println("Split dataset in to " + index.getNumShards() + " shards");
+		
+		while(true){
+			System.out.println("Enter one of the following options:"
+						+ "\n1	:	 to query dataset"
+		 				+ "\n2	:	 to find optimal query for dataset"
+		 				+ "\n3	:	 to search titles");
+			
+			String input = reader.nextLine();
+			
+			if(input.equals("1")){
 				
-				double score = Weighting.calcTfidf(set.getDocs(), doc, term);
+				ArrayList<String> queryTerms = getQuery(reader, parser);
+				Metrics.QUERIES.increment();
+				ShardedReader shards = index.getReader();
+				long generation = index.getGeneration();
+				TopDocs results = QUERY_CACHE.get(queryTerms, NUM_RESULTS, RANKING_WEIGHTS, generation);
+				if(results == null){
+					long start = Metrics.start();
+					results = BM25F ? shards.searchFields(queryTerms, NUM_RESULTS, FIELD_WEIGHTS) : shards.search(queryTerms, NUM_RESULTS);
+					Metrics.QUERY_SCORE.recordSince(start);
+					Metrics.QUERIES_SCORED.increment();
+					QUERY_CACHE.put(queryTerms, NUM_RESULTS, RANKING_WEIGHTS, generation, results);
+				}
+				printResults(shards, results);
+				System.out.println(QUERY_CACHE + "\n");
+			}else if(input.equals("2")){
+				System.out.println("Optimal queries need the full dataset, run without -Dprocessor.shards\n");
+			}else if(input.equals("3")){
 				
-				if(setTermIFIDF.containsKey(term)){
-					setTermIFIDF.put(term, setTermIFIDF.get(term) + score);
-				}else{
-					setTermIFIDF.put(term, score);
+				ArrayList<String> queryTerms = getQuery(reader, parser);
+				Metrics.QUERIES.increment();
+				ShardedReader shards = index.getReader();
+				long start = Metrics.start();
+				try {
+					TopDocs results = shards.searchFields(queryTerms, NUM_RESULTS, FIELD_WEIGHTS.titleOnly());
+					Metrics.QUERY_SCORE.recordSince(start);
+					Metrics.QUERIES_SCORED.increment();
+					printResults(shards, results);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
 				}
-			}
+				System.out.println();
+			}else System.out.println("invalid input");
 		}
-		
-		//average scores
-		for(String term : setTermIFIDF.keySet()){
-			setTermIFIDF.put(term, setTermIFIDF.get(term) / (double)set.getDocs().size() );
-		}		
-		return setTermIFIDF;
 	}
 	
 	/**
-	 * Adds the terms in the map with the highest tfidf score to a string
-	 * and returns the new query
-	 * @param setTermIFIDF HashMap<String,  Double> where key is term and value is tfidf score
-	 * @param numTermsToAddToQuery
-	 * @return String newQuery of term length specified
+	 * Serve queries over HTTP until the process is stopped
+	 * @param snapshots gives the index to search as it is at the start of each request
 	 */
-	private static ArrayList<String> getQueryFromTFIDFMap(HashMap<String, Double> setTermIFIDF, int numTermsToAddToQuery){
-		int numTermsInQuery = 0;
+	private static void serve(
+			Supplier<SearchServer.Snapshot> snapshots,
+			BatchSearcher.QueryParser parser) throws Exception{
 		
-		ArrayList<String> queryTerms = new ArrayList<>();
-		
-		for(String term : setTermIFIDF.keySet()){
-			queryTerms.add(term);
-			if(numTermsInQuery >= numTermsToAddToQuery){
-				break;
-			}else{
-				numTermsInQuery++;
-			}
-		}		
-		return queryTerms;
+		SearchServer server = new SearchServer(HTTP_PORT, snapshots, parser, RANKING_WEIGHTS,
+				QUERY_CACHE, HTTP_MAX_CONCURRENT, HTTP_TIMEOUT_MILLIS);
+		server.start();
+		System.out.println("Serving queries on http://localhost:" + server.getPort() + "/search?q=");
 	}
+	
+	/**
+	 * Run the queries of the topics file, writing a TREC run and the latency of each query
+	 * @param index IndexReader to query, must not change while the queries run
+	 */
+	private static void runBatch(
+			IndexReader index,
+			BatchSearcher.QueryParser parser) throws Exception{
 		
+		File runFile = new File(RUN_FILE);
+		File latencyFile = new File(RUN_FILE + ".latency");
+		long start = System.nanoTime();
+		double[] latencies = BatchSearcher.run(index, new File(TOPICS_FILE), runFile, latencyFile, parser,
+				RANKING_WEIGHTS, NUM_RESULTS, QUERY_THREADS, RUN_TAG);
+		System.out.println("Wrote run " + runFile + " and latencies " + latencyFile);
+		System.out.println(BatchSearcher.summary(latencies, (System.nanoTime() - start) / 1e6));
+	}
+	
 	/**
-	 * Makes an array list containing one of every term that is contained with in the
-	 * documents in the inputed set
-	 * @param set Dataset to build list from
-	 * @return	ArrayList<String> of terms
+	 * Print ranked results the same way as Dataset.printWeightedMap,
+	 * the top 20 percent are positive and the rest negative
+	 * @param index IndexReader the results came from
+	 * @param results TopDocs ranked best first
 	 */
-	private static ArrayList<String> buildSetTermList(Dataset set){
-		ArrayList<String> setTermList = new ArrayList<>();
+	private static void printResults(
+			IndexReader index,
+			TopDocs results){
 		
-		for(BowDocument doc : set.getDocs()){
-			for(String term : doc.getTermList()){
-				if(!setTermList.contains(term)){
-					setTermList.add(term);
-				}
-			}
+		String title = "rank\t Doc\tWeight bm25";
+		double numPosDocs = ((double)results.size() / 100.0) * 20;
+		
+		System.out.println("D+");
+		System.out.println(title);
+		int rank = 0;
+		for(; rank < results.size() && rank < numPosDocs; rank++){
+			System.out.println((rank + 1) + "\t" + index.getDocName(results.getDocId(rank)) + "\t" + results.getScore(rank));
 		}
-		return setTermList;
+		
+		System.out.println("\nD-");
+		System.out.println(title);
+		for(; rank < results.size(); rank++){
+			System.out.println((rank + 1) + "\t" + index.getDocName(results.getDocId(rank)) + "\t" + results.getScore(rank));
+		}
+	}
+	
+	/**
+	* used tfidf to make queries from document 
+	* @return ArrayList<String> terms of the new query
+	*/
+	public static ArrayList<String> makeOptimalQuery(Dataset set, int numTermsInQuery) throws InterruptedException{		
+		return OptimalQuery.make(set, numTermsInQuery, OPTIMAL_QUERY_THREADS);
 	}
 	 
 	 /**
-	  * Calculates BM25 weighting and saves to docs and bm hashmap
+	  * Calculates BM25 weighting, or BM25F with -Dprocessor.bm25f, of the best NUM_RESULTS docs for a query
+	  * Scores are taken from the postings of the sets inverted index,
+	  * or from the query cache if the query was run since the set last changed.
+	  * Must hold the lock of the set so it does not change before the results are used.
 	  */
-	 private static HashMap<String, Double> calcBM25(
+	 private static TopDocs calcBM25(
 			 Dataset set, 
 			 ArrayList<String> query){
 		 
-		 HashMap<String, Double> bmScores = new HashMap<>();
-		 for(BowDocument doc : set.getDocs()){
-			 bmScores.put(doc.toString(), Weighting.calculateBM25(doc, set.getDocs(), query));
+		 Metrics.QUERIES.increment();
+		 MemoryIndexReader reader = set.getReader();
+		 long generation = set.getGeneration();
+		 TopDocs results = QUERY_CACHE.get(query, NUM_RESULTS, RANKING_WEIGHTS, generation);
+		 if(results == null){
+			 long start = Metrics.start();
+			 results = Searcher.search(reader, query, NUM_RESULTS, RANKING_WEIGHTS);
+			 Metrics.QUERY_SCORE.recordSince(start);
+			 Metrics.QUERIES_SCORED.increment();
+			 QUERY_CACHE.put(query, NUM_RESULTS, RANKING_WEIGHTS, generation, results);
 		 }
-		 return bmScores;
+		 return results;
 	 } 
 	 
+	 /**
+	  * Ranks the best NUM_RESULTS docs for a query by their titles alone, with BM25F,
+	  * reading only the title postings
+	  * Titles have no positions, so a query with a phrase clause is refused with an IllegalArgumentException.
+	  * The results are not cached as the cache holds results of the whole docs.
+	  * Must hold the lock of the set so it does not change before the results are used.
+	  */
+	 private static TopDocs searchTitles(
+			 Dataset set,
+			 ArrayList<String> query){
+		 
+		 Metrics.QUERIES.increment();
+		 long start = Metrics.start();
+		 TopDocs results = Searcher.searchFields(set.getReader(), query, NUM_RESULTS, FIELD_WEIGHTS.titleOnly());
+		 Metrics.QUERY_SCORE.recordSince(start);
+		 Metrics.QUERIES_SCORED.increment();
+		 return results;
+	 }
+	 
 	 /**
 	  * Prompts user to input query then saves it
 	 * @throws Exception 
 	  */
 	 private static ArrayList<String> getQuery(
 			 Scanner reader, 
-			 String[] stopWords,
-			 Preprocessor stemmer) throws Exception{		
+			 BatchSearcher.QueryParser parser) throws Exception{		
 		 
 		 System.out.print("Enter query: ");
 		 String query = reader.nextLine();		
-		 ArrayList<String> tokens = new ArrayList<>();
-		 tokens =  Preprocessor.tokenize(query);
-		 tokens =  Preprocessor.removeStopWords(stopWords, tokens);
-		 return stemTerms(tokens, stemmer);
+		 long start = Metrics.start();
+		 ArrayList<String> terms = parser.parse(query);
+		 Metrics.QUERY_PARSE.recordSince(start);
+		 return terms;
+		 
+	 }
+	 
+	 /**
+	  * Make the parser that turns query text in to terms
+	  * @param positions true if the index has positions, so phrases and proximity clauses can be matched
+	  * @return QueryParser that tokenizes, removes stop words and stems the text
+	  */
+	 private static BatchSearcher.QueryParser queryParser(
+			 StopWords stopWords,
+			 Preprocessor stemmer,
+			 boolean positions){
+		 
+		 BatchSearcher.QueryParser words = text -> stemTerms(Preprocessor.tokenizeText(text, stopWords), stemmer);
+		 return text -> PhraseQuery.parse(text, words, positions, PROXIMITY_SLOP);
+	 }
+	 
+	 /**
+	  * Open the dataset saved in an index file, or build it from the documents folder
+	  * and save it when there is no index or the documents have changed since it was written
+	  * @param docsLocation folder contain documents to put in to dataset
+	  * @param indexLocation path of index file
+	  * @param stopWords set of stop words
+	  * @param stemmer Preprocessor object to be used to stem terms
+	  * @return populated Dataset
+	  */
+	 private static Dataset openDataSet(
+			 String docsLocation,
+			 String indexLocation,
+			 StopWords stopWords,
+			 Preprocessor stemmer){
+		 
+		 File indexFile = new File(indexLocation);
+		 long fingerprint = IndexStore.fingerprint(new File(docsLocation), new File(STOP_WORDS_FILE));
+		 
+		 try {
+			 Dataset set = IndexStore.load(indexFile, fingerprint, SEGMENT_DOCS, MERGE_FACTOR, PostingsCodec.forName(POSTINGS_CODEC));
+			 if(set != null && set.hasPositions() != POSITIONS){
+				 System.out.println("Index " + indexLocation + (POSITIONS ? " has no" : " has") + " positions, rebuilding");
+			 }else if(set != null){
+				 System.out.println("Opened index " + indexLocation + " with " + set.getDocs().size() + " docs");
+				 return set;
+			 }
+		 } catch (Exception e) {
+			 System.out.println("Could not read index " + indexLocation + ", rebuilding : " + e.getMessage());
+		 }
+		 
+		 Dataset set = makeDataSet(docsLocation, stopWords, stemmer, INGEST_THREADS, INGEST_VIRTUAL_THREADS, POSITIONS);
+		 System.out.println(stemmer.getStemCache());
+		 try {
+			 IndexStore.save(set, indexFile, fingerprint);
+		 } catch (Exception e) {
+			 System.out.println("Could not save index " + indexLocation + " : " + e.getMessage());
+		 }
+		 return set;
+	 }
+	 
+	 /**
+	  * Keep a dataset up to date with its documents folder,
+	  * saving the index at most every WATCH_SAVE_SECONDS while it changes so a restart does not rebuild
+	  * The index is saved with the fingerprint taken before the changes saved were read,
+	  * so a change made while they were read makes a restart rebuild rather than miss it.
+	  * @param set Dataset built from docsLocation
+	  * @param docsLocation folder contain documents
+	  * @param indexLocation path of index file
+	  * @param stopWords set of stop words
+	  * @param stemmer Preprocessor object to be used to stem terms
+	  * @return DocumentWatcher of the folder
+	  */
+	 private static DocumentWatcher watchDocuments(
+			 Dataset set,
+			 String docsLocation,
+			 String indexLocation,
+			 StopWords stopWords,
+			 Preprocessor stemmer) throws Exception{
+		 
+		 File docsFolder = new File(docsLocation);
+		 return new DocumentWatcher(docsFolder, set,
+				 file -> buildBdoc(file, stopWords, stemmer, set.getDictionary(), set.hasPositions()),
+				 () -> IndexStore.fingerprint(docsFolder, new File(STOP_WORDS_FILE)),
+				 (numPut, numDeleted, fingerprint) -> {
+					 System.out.println("Indexed " + numPut + " changed and " + numDeleted + " deleted docs");
+					 try {
+						 IndexStore.save(set, new File(indexLocation), fingerprint);
+					 } catch (Exception e) {
+						 System.out.println("Could not save index " + indexLocation + " : " + e.getMessage());
+					 }
+				 },
+				 WATCH_SAVE_SECONDS * 1000);
+	 }
+	 
+	 /**
+	  * Open the dataset and split it in to SHARDS shards
+	  * The dataset is only held until it is split, so its segments can be collected
+	  * while the shards are searched.
+	  * @param docsLocation folder contain documents to put in to dataset
+	  * @param indexLocation path of saved index file
+	  * @param stopWords set of stop words
+	  * @param stemmer Preprocessor object to be used to stem terms
+	  * @return ShardedIndex
+	  */
+	 private static ShardedIndex openShardedIndex(
+			 String docsLocation,
+			 String indexLocation,
+			 StopWords stopWords,
+			 Preprocessor stemmer) throws Exception{
 		 
+		 Dataset set = openDataSet(docsLocation, indexLocation, stopWords, stemmer);
+		 return ShardedIndex.of(set, SHARDS);
 	 }
 	 
 	 /**
-	  * Make a dataset and populate it with BowDocuments from a inputed folder
+	  * Map the index file, building the dataset and writing the file first
+	  * when there is no index or the documents have changed since it was written
+	  * The dataset is only held while the file is written.
 	  * @param docsLocation folder contain documents to put in to dataset
-	  * @param stopWords array of stop words
+	  * @param indexLocation path of mapped index file
+	  * @param stopWords set of stop words
 	  * @param stemmer Preprocessor object to be used to stem terms
+	  * @return MappedIndex
+	  */
+	 private static MappedIndex openMappedIndex(
+			 String docsLocation,
+			 String indexLocation,
+			 StopWords stopWords,
+			 Preprocessor stemmer) throws Exception{
+		 
+		 File indexFile = new File(indexLocation);
+		 long fingerprint = IndexStore.fingerprint(new File(docsLocation), new File(STOP_WORDS_FILE));
+		 
+		 MappedIndex index = MappedIndex.openIfCurrent(indexFile, fingerprint);
+		 if(index == null){
+			 //the mapped index does not store positions
+			 Dataset set = makeDataSet(docsLocation, stopWords, stemmer, INGEST_THREADS, INGEST_VIRTUAL_THREADS, false);
+			 System.out.println(stemmer.getStemCache());
+			 MappedIndex.write(set, indexFile, fingerprint);
+			 index = MappedIndex.open(indexFile);
+		 }
+		 System.out.println("Mapped index " + indexLocation + " with " + index.getNumDocs() + " docs");
+		 return index;
+	 }
+	 
+	 /**
+	  * Make a dataset and populate it with BowDocuments from a inputed folder,
+	  * parsing, tokenizing and stemming the documents on a pool of workers.
+	  * Docs are added to the set in folder order so they get the same ids as a single threaded build.
+	  * @param docsLocation folder contain documents to put in to dataset
+	  * @param stopWords set of stop words
+	  * @param stemmer Preprocessor object to be used to stem terms
+	  * @param numThreads number of worker threads, 1 builds on the calling thread
+	  * @param virtualThreads true to build each doc on a virtual thread
+	  * @param positions true to index the position of every term
 	  * @return populated Dataset  
 	  */
-	 private static Dataset makeDataSet(
+	 static Dataset makeDataSet(
 			 String docsLocation, 
-			 String[] stopWords, 
-			 Preprocessor stemmer){
+			 StopWords stopWords, 
+			 Preprocessor stemmer,
+			 int numThreads,
+			 boolean virtualThreads,
+			 boolean positions){
 		 
+		long start = Metrics.start();
 		Dataset set;	
 		File docsFolder = new File(docsLocation);
 		File[] docs = docsFolder.listFiles();
 		
-		set = new Dataset(docsFolder.getName());
+		set = new Dataset(docsFolder.getName(), SEGMENT_DOCS, MERGE_FACTOR, PostingsCodec.forName(POSTINGS_CODEC), positions);
 		
-		for(File doc : docs){	
-			if(!doc.getName().contains("._")){
+		if(numThreads <= 1 && !virtualThreads){
+			for(File doc : docs){	
+				if(!doc.getName().contains("._")){
+					try {
+						addDoc(set, buildBdoc(doc, stopWords, stemmer, set.getDictionary(), positions));
+					} catch (Exception e) {
+						Metrics.DOCS_FAILED.increment();
+						System.out.println(e.getMessage());
+						e.printStackTrace();
+					}
+				}											
+			}
+			Metrics.INGEST_BUILD.recordSince(start);
+			return set;
+		}
+		
+		ExecutorService pool = Workers.newPool(numThreads, virtualThreads, "ingest");
+		try {
+			ArrayList<Future<BowDocument>> built = new ArrayList<>();
+			for(File doc : docs){	
+				if(!doc.getName().contains("._")){
+					built.add(pool.submit(() -> buildBdoc(doc, stopWords, stemmer, set.getDictionary(), positions)));
+				}											
+			}
+			for(Future<BowDocument> bDoc : built){
 				try {
-					set.addDoc(buildBdoc(doc, stopWords, stemmer));
+					addDoc(set, bDoc.get());
+				} catch (ExecutionException e) {
+					Metrics.DOCS_FAILED.increment();
+					System.out.println(e.getCause().getMessage());
+					e.getCause().printStackTrace();
 				} catch (Exception e) {
+					Metrics.DOCS_FAILED.increment();
 					System.out.println(e.getMessage());
 					e.printStackTrace();
 				}
-			}											
+			}
+		} finally {
+			pool.shutdown();
 		}
+		Metrics.INGEST_BUILD.recordSince(start);
 		return set;
 	 }
 	 
+	 /**
+	  * Add a doc to a set, timing how long indexing it takes
+	  */
+	 private static void addDoc(
+			 Dataset set,
+			 BowDocument doc) throws Exception{
+		 
+		 long start = Metrics.start();
+		 set.addDoc(doc);
+		 Metrics.INGEST_INDEX.recordSince(start);
+	 }
+	 
  	/**
 	* Make a BowDocument from a XML file
+	* The file is streamed and only the text of its <title> and <text> elements is tokenized,
+	* chunk by chunk as it is read
 	* @param doc	XML file to make BowDucument form
+	* @param dictionary TermDictionary of the set the doc will be added to
+	* @param positions true to keep the position of every term
 	* @return	BowDocument
 	* @throws Exception 
 	*/
 	private static BowDocument buildBdoc(
 			File doc, 
-			String[] stopWords, 
-			Preprocessor stemmer) 
+			StopWords stopWords, 
+			Preprocessor stemmer,
+			TermDictionary dictionary,
+			boolean positions) 
 					throws Exception{
 		
-		String rawDoc = getDocString(doc);
-		String docID = findDocID(rawDoc);	
+		long start = Metrics.start();
+		ArrayList<String> tokens = new ArrayList<>();
+		//tokens that are in the title, by their index in tokens
+		BitSet titleTokens = new BitSet();
+		boolean[] inTitle = new boolean[1];
+		int[] numWords = new int[1];
+		String[] docID = new String[1];
 		
-		BowDocument bDoc = new BowDocument(docID);	
+		//stop words are dropped as they are found so they are never stored
+		Tokenizer tokenizer = new Tokenizer(token -> {
+			numWords[0]++;
+			if(!stopWords.contains(token)){
+				titleTokens.set(tokens.size(), inTitle[0]);
+				tokens.add(token.toString());
+			}
+		});
 		
-		ArrayList<String> tokens = Preprocessor.tokenize(rawDoc);				
-		int numWords = tokens.size();
+		XmlDocumentReader.read(doc, new XmlDocumentReader.Handler() {
+			
+			@Override
+			public void docId(String id){
+				docID[0] = id;
+			}
+			
+			@Override
+			public void field(String element){
+				inTitle[0] = element.equals(XmlDocumentReader.TITLE_ELEMENT);
+			}
+			
+			@Override
+			public void text(char[] chars, int start, int length) throws Exception{
+				tokenizer.feed(chars, start, length);
+			}
+		});
+		tokenizer.finish();
+		//reading, extracting the text and tokenizing are one streamed pass so are timed together
+		Metrics.INGEST_PARSE.recordSince(start);
+		Metrics.WORDS_READ.add(numWords[0]);
+		Metrics.STOP_WORDS_DROPPED.add(numWords[0] - tokens.size());
 		
-		tokens = Preprocessor.removeStopWords(stopWords, tokens);
+		BowDocument bDoc = new BowDocument(docID[0], dictionary, positions);	
+		bDoc.setSource(doc.getName());
+		long stemStart = Metrics.start();
 		ArrayList<String> terms = stemTerms(tokens, stemmer);												
+		Metrics.INGEST_STEM.recordSince(stemStart);
 		
-		for(String term : terms){
+		for(int i = 0; i < terms.size(); i++){
+			String term = terms.get(i);
 			if(!term.equals("")){
-				bDoc.addTerm(term);
+				bDoc.addTerm(term, titleTokens.get(i));
 			}else{
-				numWords--;
+				numWords[0]--;
 			}
 		}
-		bDoc.setNumWords(numWords);	
+		bDoc.setNumWords(numWords[0]);	
+		Metrics.INGEST_DOC.recordSince(start);
+		Metrics.DOCS_INGESTED.increment();
 		return bDoc;
 	}
 		
@@ -259,38 +746,16 @@ public class Processor {
 		return terms;
 	}	 
 		
-	/**
-	 * Finds the doc ID of inputed document	
-	 * @param doc String containing unedited document
-	 * @return doc id [0-9]* or null id no id was found
-	 */
-	private static String findDocID(
-			String doc) 
-					throws Exception{
-		
-		String pattern = "itemid=\"[0-9]*";
-	    Pattern r = Pattern.compile(pattern);
-		 
-	     String temp = null;
-	     Matcher m = r.matcher(doc);
-	     if (m.find()) {
-	        temp = doc.substring(m.start() + 8, m.end());
-	     }else {
-	        throw new Exception("No Doc id found");
-	     }     
-	     return temp;
-	}
-	
 	/**
 	 * Get a list of stop words contained in a 	comma separated file
 	 * @param file containing the stop words
-	 * @return String array of stop words
+	 * @return StopWords set of stop words
 	 */
-	public static String[] getStopWords(
+	public static StopWords getStopWords(
 			String file){
 		
 		String rawString = getDocString(new File(file));
-		return rawString.split(",");
+		return new StopWords(rawString.split(","));
 	}
 		
 	/**
@@ -302,17 +767,17 @@ public class Processor {
 			File file){
 		
 		String thisLine = null;
-		String line = "";
+		StringBuilder line = new StringBuilder();
 		
 		try {
 		     BufferedReader br = new BufferedReader(new FileReader(file));
 		     while ((thisLine = br.readLine()) != null) {
-	    		 line += thisLine;	   
+	    		 line.append(thisLine);	   
 		     }
 		     br.close();
 		  } catch(Exception e) {
 		     e.printStackTrace();
 		  }
-		return line;
+		return line.toString();
 	}	
 }
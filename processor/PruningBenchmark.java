@@ -0,0 +1,166 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares pruned and exhaustive top-k BM25 search on a synthetic corpus.
+ * Terms are drawn from a Zipfian vocabulary so a few terms are in most documents,
+ * as in real text. Every query is checked against a ranking of the exhaustive
+ * Weighting.calculateBM25 scores before any timing is reported.
+ * Each way of searching is timed RUNS times, taking turns after a warm up, and the fastest
+ * run of each is reported, as one run on a busy machine can be off by more than they differ.
+ *
+ * Usage: java processor.PruningBenchmark [numDocs] [numQueries] [k]
+ */
+public class PruningBenchmark {
+
+	private static final int VOCABULARY_SIZE = 50000;
+	private static final int TERMS_PER_QUERY = 5;
+	private static final long SEED = 42;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		Random random = new Random(SEED);
+		double[] zipf = buildZipf(VOCABULARY_SIZE);
+
+		System.out.println("Building " + numDocs + " documents");
+		Dataset set = new Dataset("synthetic");
+		for(int d = 0; d < numDocs; d++){
+			BowDocument doc = new BowDocument(Integer.toString(d), set.getDictionary());
+			int length = 50 + random.nextInt(450);
+			for(int i = 0; i < length; i++){
+				doc.addTerm(term(sample(zipf, random)));
+			}
+			doc.setNumWords(length);
+			set.addDoc(doc);
+		}
+		IndexReader reader = set.getReader();
+
+		//query terms come from the frequent end of the vocabulary, like the terms makeOptimalQuery picks
+		ArrayList<ArrayList<String>> queries = new ArrayList<>();
+		for(int q = 0; q < numQueries; q++){
+			ArrayList<String> query = new ArrayList<>();
+			for(int i = 0; i < TERMS_PER_QUERY; i++){
+				query.add(term(random.nextInt(2000)));
+			}
+			queries.add(query);
+		}
+
+		int mismatches = 0;
+		for(ArrayList<String> query : queries){
+			if(!same(reference(reader, query, k), Searcher.search(reader, query, k))){
+				mismatches++;
+			}
+		}
+		System.out.println("Queries whose pruned results differ from calculateBM25 : " + mismatches);
+
+		//warm up both paths before timing
+		run(reader, queries, k, false);
+		run(reader, queries, k, true);
+
+		long exhaustive = Long.MAX_VALUE;
+		long pruned = Long.MAX_VALUE;
+		for(int r = 0; r < RUNS; r++){
+			exhaustive = Math.min(exhaustive, run(reader, queries, k, false));
+			pruned = Math.min(pruned, run(reader, queries, k, true));
+		}
+
+		System.out.println("docs\tqueries\tk\texhaustive ms/query\tpruned ms/query\tspeedup");
+		System.out.println(numDocs + "\t" + numQueries + "\t" + k + "\t"
+				+ String.format("%.3f", exhaustive / 1e6 / numQueries) + "\t"
+				+ String.format("%.3f", pruned / 1e6 / numQueries) + "\t"
+				+ String.format("%.2f", (double)exhaustive / (double)pruned));
+	}
+
+	/**
+	 * Time every query once
+	 * @return elapsed nanoseconds
+	 */
+	private static long run(IndexReader reader, ArrayList<ArrayList<String>> queries, int k, boolean prune){
+
+		long start = System.nanoTime();
+		for(ArrayList<String> query : queries){
+			if(prune){
+				Searcher.search(reader, query, k);
+			}else{
+				Searcher.searchExhaustive(reader, query, k);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Rank the documents containing a query term by their Weighting.calculateBM25 score
+	 */
+	private static TopDocs reference(IndexReader reader, ArrayList<String> query, int k){
+
+		double[] scores = Weighting.calculateBM25(reader, query);
+		boolean[] matches = new boolean[scores.length];
+		for(String term : query){
+			PostingsList postings = reader.getPostings(term);
+			for(int i = 0; postings != null && i < postings.size(); i++){
+				matches[postings.getDocId(i)] = true;
+			}
+		}
+
+		TopKHeap heap = new TopKHeap(k);
+		for(int docId = 0; docId < scores.length; docId++){
+			if(matches[docId]){
+				heap.offer(docId, scores[docId]);
+			}
+		}
+		return heap.toTopDocs();
+	}
+
+	private static boolean same(TopDocs a, TopDocs b){
+
+		if(a.size() != b.size()) return false;
+		for(int i = 0; i < a.size(); i++){
+			if(a.getDocId(i) != b.getDocId(i) || a.getScore(i) != b.getScore(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return cumulative Zipf distribution over ranks 0..size-1
+	 */
+	static double[] buildZipf(int size){
+
+		double[] cumulative = new double[size];
+		double sum = 0.0;
+		for(int i = 0; i < size; i++){
+			sum += 1.0 / (i + 1);
+			cumulative[i] = sum;
+		}
+		for(int i = 0; i < size; i++){
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+
+	static int sample(double[] cumulative, Random random){
+
+		double r = random.nextDouble();
+		int lo = 0;
+		int hi = cumulative.length - 1;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(cumulative[mid] < r){
+				lo = mid + 1;
+			}else{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	static String term(int rank){
+		return "t" + rank;
+	}
+}
@@ -0,0 +1,197 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded, thread safe cache of the ranked results of queries.
+ * Queries are keyed on their stemmed terms sorted with their counts, so the same words
+ * in another order hit the same entry, along with the number of results asked for and how
+ * they were ranked, BM25 or BM25F with its field weights.
+ * Results are only valid for the generation of the index they were scored against,
+ * the whole cache is dropped the first time it is used with a newer generation.
+ * The cache is bounded by the number of results it holds rather than the number of queries,
+ * the least recently used queries are evicted until it fits. Hits, misses, evictions and
+ * invalidated entries are counted so the cache can be sized.
+ */
+public class QueryCache {
+
+	public static final int DEFAULT_CAPACITY = 100000;
+
+	private final LinkedHashMap<String, TopDocs> entries;
+	private final int capacity;
+	private long generation;
+	private long numResults;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Class constructor
+	 * @param capacity most results the cache holds, counting each query as at least one
+	 */
+	public QueryCache(int capacity){
+
+		this.capacity = capacity;
+		entries = new LinkedHashMap<>(16, 0.75f, true);
+		generation = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Make the key of a query
+	 * @param query stemmed query terms
+	 * @param k number of results
+	 * @param weights FieldWeights the results were ranked with by BM25F, or null for BM25
+	 * @return the distinct terms in order, each with its count, followed by k and the ranking
+	 */
+	static String key(ArrayList<String> query, int k, Weighting.FieldWeights weights){
+
+		TreeMap<String, Integer> counts = new TreeMap<>();
+		for(String term : query){
+			counts.merge(term, 1, Integer::sum);
+		}
+		StringBuilder key = new StringBuilder();
+		for(Map.Entry<String, Integer> count : counts.entrySet()){
+			key.append(count.getKey()).append(':').append(count.getValue()).append(' ');
+		}
+		key.append('#').append(k);
+		return weights == null ? key.append(" bm25").toString() : key.append(" bm25f ").append(weights).toString();
+	}
+
+	/**
+	 * Get the cached results of a query
+	 * @param query stemmed query terms
+	 * @param k number of results
+	 * @param weights FieldWeights the results are ranked with by BM25F, or null for BM25
+	 * @param generation generation of the index the results are for
+	 * @return TopDocs or null if the query is not cached for this generation
+	 */
+	public synchronized TopDocs get(ArrayList<String> query, int k, Weighting.FieldWeights weights, long generation){
+
+		moveTo(generation);
+		TopDocs results = generation == this.generation ? entries.get(key(query, k, weights)) : null;
+		if(results == null){
+			misses++;
+		}else{
+			hits++;
+		}
+		return results;
+	}
+
+	/**
+	 * Cache the results of a query
+	 * Results for an older generation than the cache holds are not cached.
+	 * @param query stemmed query terms
+	 * @param k number of results
+	 * @param weights FieldWeights the results were ranked with by BM25F, or null for BM25
+	 * @param generation generation of the index the results were scored against
+	 * @param results TopDocs of the query
+	 */
+	public synchronized void put(ArrayList<String> query, int k, Weighting.FieldWeights weights, long generation, TopDocs results){
+
+		if(generation < this.generation){
+			return;
+		}
+		moveTo(generation);
+		TopDocs old = entries.put(key(query, k, weights), results);
+		if(old != null){
+			numResults -= weight(old);
+		}
+		numResults += weight(results);
+
+		Iterator<TopDocs> eldest = entries.values().iterator();
+		while(numResults > capacity && eldest.hasNext()){
+			numResults -= weight(eldest.next());
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drop every entry if the index has moved on to a new generation
+	 */
+	private void moveTo(long generation){
+
+		if(generation > this.generation){
+			invalidations += entries.size();
+			entries.clear();
+			numResults = 0;
+			this.generation = generation;
+		}
+	}
+
+	private static int weight(TopDocs results){
+		return Math.max(1, results.size());
+	}
+
+	/**
+	 * @return number of queries cached
+	 */
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	/**
+	 * @return number of results cached
+	 */
+	public synchronized long getNumResults(){
+		return numResults;
+	}
+
+	/**
+	 * @return most results the cache holds
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * @return number of lookups that found results
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that did not find results
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * @return number of queries evicted to make room
+	 */
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+
+	/**
+	 * @return number of queries dropped because the index changed
+	 */
+	public synchronized long getInvalidations(){
+		return invalidations;
+	}
+
+	/**
+	 * @return fraction of lookups that found results
+	 */
+	public synchronized double getHitRate(){
+
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double)hits / (double)total;
+	}
+
+	/**
+	 * get cache size and counters
+	 */
+	public synchronized String toString(){
+		return "Query cache : " + size() + " queries, " + numResults + "/" + capacity + " results, " + hits + " hits, "
+				+ misses + " misses, " + evictions + " evictions, " + invalidations + " invalidated, hit rate "
+				+ String.format("%.3f", getHitRate());
+	}
+}
@@ -0,0 +1,59 @@
+package processor;
+
+/**
+ * Keeps postings as the int arrays they were built in, 8 bytes a posting
+ * and 4 bytes a position when the index has positions.
+ * Reading is a plain array access, the baseline the other codecs are measured against.
+ */
+public class RawCodec implements PostingsCodec {
+
+	public static final String NAME = "raw";
+
+	/**
+	 * Postings held as they are, they are no longer added to once in a segment
+	 * so the same list can be read by every thread
+	 */
+	private static final class RawPostings implements EncodedPostings {
+
+		private final Postings postings;
+
+		private RawPostings(Postings postings){
+			this.postings = postings;
+		}
+
+		@Override
+		public int size(){
+			return postings.size();
+		}
+
+		@Override
+		public long getSizeInBytes(){
+			return postings.getSizeInBytes();
+		}
+
+		@Override
+		public PostingsList reader(){
+			return postings;
+		}
+	}
+
+	@Override
+	public String getName(){
+		return NAME;
+	}
+
+	@Override
+	public EncodedPostings encode(PostingsList postings){
+
+		if(postings instanceof Postings){
+			((Postings)postings).trim();
+			return new RawPostings((Postings)postings);
+		}
+		Postings copy = new Postings();
+		for(int i = 0; i < postings.size(); i++){
+			copy.add(postings.getDocId(i), postings.getTf(i));
+		}
+		copy.trim();
+		return new RawPostings(copy);
+	}
+}
@@ -0,0 +1,268 @@
+package processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves queries over HTTP on the loopback address with the JDK HttpServer.
+ * GET /search?q=text&k=10 returns the top k hits as JSON,
+ * {"query":..,"terms":[..],"generation":..,"tookMs":..,"hits":[{"rank":..,"doc":..,"score":..}]}
+ *
+ * Every request and every search runs on its own virtual thread when the JVM has them,
+ * otherwise on pools of maxConcurrent platform threads, searches on their own pool so a
+ * request waiting for its search never holds up the thread the search needs.
+ * A search takes a snapshot of the index when it starts, a MemoryIndexReader or MappedIndex
+ * that later updates do not change, and keeps its results to itself rather than setting them
+ * on the Dataset, so any number of searches can run at once without locking each other out.
+ * At most maxConcurrent searches run at a time, a request that cannot start one within the
+ * timeout gets 503 and one whose search does not finish within the timeout gets 504.
+ * Queries are ranked with BM25, or BM25F when the server is given field weights.
+ * Results are shared with the QueryCache of the Processor.
+ */
+public class SearchServer {
+
+	public static final int DEFAULT_MAX_CONCURRENT = 256;
+	public static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+	public static final int DEFAULT_K = 10;
+	public static final int MAX_K = 1000;
+
+	/**
+	 * An index that does not change, with the generation of the set it was taken from
+	 */
+	public static final class Snapshot {
+
+		private final IndexReader reader;
+		private final long generation;
+
+		public Snapshot(IndexReader reader, long generation){
+			this.reader = reader;
+			this.generation = generation;
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService workers;
+	private final ExecutorService searchers;
+	private final Supplier<Snapshot> snapshots;
+	private final BatchSearcher.QueryParser parser;
+	private final Weighting.FieldWeights weights;
+	private final QueryCache cache;
+	private final Semaphore permits;
+	private final long timeoutMillis;
+
+	/**
+	 * Class constructor
+	 * Binds the port but does not start serving
+	 * @param port port to listen on, 0 for any free port
+	 * @param snapshots gives the index to search as it is at the start of each request
+	 * @param parser QueryParser to make the terms of each query
+	 * @param weights FieldWeights to rank with BM25F, or null for BM25
+	 * @param cache QueryCache to share results through
+	 * @param maxConcurrent most searches that run at once
+	 * @param timeoutMillis longest a request waits to start and then to finish its search
+	 */
+	public SearchServer(
+			int port,
+			Supplier<Snapshot> snapshots,
+			BatchSearcher.QueryParser parser,
+			Weighting.FieldWeights weights,
+			QueryCache cache,
+			int maxConcurrent,
+			long timeoutMillis) throws IOException{
+
+		this.snapshots = snapshots;
+		this.parser = parser;
+		this.weights = weights;
+		this.cache = cache;
+		this.timeoutMillis = timeoutMillis;
+		permits = new Semaphore(Math.max(1, maxConcurrent));
+		workers = Workers.newPool(maxConcurrent, true, "http");
+		searchers = Workers.newPool(maxConcurrent, true, "search");
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/search", this::handleSearch);
+		server.setExecutor(workers);
+	}
+
+	/**
+	 * Start serving requests on background threads
+	 */
+	public void start(){
+		server.start();
+	}
+
+	/**
+	 * Stop serving, waiting up to delaySeconds for requests being handled to finish
+	 */
+	public void stop(int delaySeconds){
+
+		server.stop(delaySeconds);
+		workers.shutdown();
+		searchers.shutdown();
+	}
+
+	/**
+	 * @return port the server is listening on
+	 */
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	private void handleSearch(HttpExchange exchange) throws IOException{
+
+		try {
+			if(!exchange.getRequestMethod().equals("GET")){
+				exchange.getResponseHeaders().set("Allow", "GET");
+				respond(exchange, 405, error("Only GET is supported"));
+				return;
+			}
+			HashMap<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			String text = params.get("q");
+			if(text == null || text.trim().isEmpty()){
+				respond(exchange, 400, error("Missing q parameter"));
+				return;
+			}
+			int k;
+			try {
+				k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : DEFAULT_K;
+			} catch (NumberFormatException e) {
+				k = -1;
+			}
+			if(k < 1 || k > MAX_K){
+				respond(exchange, 400, error("k must be a number from 1 to " + MAX_K));
+				return;
+			}
+
+			if(!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)){
+				respond(exchange, 503, error("Too many concurrent searches"));
+				return;
+			}
+			long start = System.nanoTime();
+			int numResults = k;
+			//the permit is held until the search ends, even if the request has timed out
+			CompletableFuture<String> search = CompletableFuture.supplyAsync(() -> search(text, numResults, start), searchers);
+			search.whenComplete((result, failure) -> permits.release());
+			try {
+				respond(exchange, 200, search.get(timeoutMillis, TimeUnit.MILLISECONDS));
+			} catch (TimeoutException e) {
+				respond(exchange, 504, error("Search timed out after " + timeoutMillis + " ms"));
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause() == null ? e : e.getCause();
+				respond(exchange, 500, error(String.valueOf(cause.getMessage())));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, error("Server is stopping"));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Run a query against a snapshot of the index and format the hits
+	 * @return JSON response body
+	 */
+	private String search(String text, int k, long start){
+
+		ArrayList<String> terms;
+		try {
+			terms = parser.parse(text);
+		} catch (Exception e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		Snapshot snapshot = snapshots.get();
+		TopDocs results = cache.get(terms, k, weights, snapshot.generation);
+		if(results == null){
+			results = Searcher.search(snapshot.reader, terms, k, weights);
+			cache.put(terms, k, weights, snapshot.generation, results);
+		}
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"query\":").append(quote(text)).append(",\"terms\":[");
+		for(int i = 0; i < terms.size(); i++){
+			json.append(i == 0 ? "" : ",").append(quote(terms.get(i)));
+		}
+		json.append("],\"generation\":").append(snapshot.generation).append(",\"hits\":[");
+		for(int rank = 0; rank < results.size(); rank++){
+			json.append(rank == 0 ? "" : ",")
+				.append("{\"rank\":").append(rank + 1)
+				.append(",\"doc\":").append(quote(snapshot.reader.getDocName(results.getDocId(rank))))
+				.append(",\"score\":").append(number(results.getScore(rank))).append('}');
+		}
+		json.append("],\"tookMs\":").append(String.format("%.3f", (System.nanoTime() - start) / 1e6)).append('}');
+		return json.toString();
+	}
+
+	/**
+	 * Split a raw query string in to decoded parameters, the first value of a name is kept
+	 */
+	private static HashMap<String, String> parseQuery(String rawQuery){
+
+		HashMap<String, String> params = new HashMap<>();
+		if(rawQuery == null){
+			return params;
+		}
+		for(String pair : rawQuery.split("&")){
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+			String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+			params.putIfAbsent(name, value);
+		}
+		return params;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException{
+
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String error(String message){
+		return "{\"error\":" + quote(message) + "}";
+	}
+
+	/**
+	 * @return a JSON number, or null for a score that is not finite
+	 */
+	private static String number(double value){
+		return Double.isFinite(value) ? Double.toString(value) : "null";
+	}
+
+	/**
+	 * @return a JSON string of text
+	 */
+	static String quote(String text){
+
+		StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			if(c == '"' || c == '\\'){
+				quoted.append('\\').append(c);
+			}else if(c < 0x20){
+				quoted.append(String.format("\\u%04x", (int)c));
+			}else{
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
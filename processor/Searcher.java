@@ -0,0 +1,527 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs top-k BM25 queries against an IndexReader.
+ * Postings of the query terms are merged document at a time and each matching
+ * document is offered to a TopKHeap, so only k results are held per query
+ * instead of a score for every document in the set.
+ *
+ * search prunes with MaxScore: the query terms are ordered by the most they can
+ * add to a score and the terms that together cannot lift a document over the
+ * current k'th best score are only checked for documents found through the other terms.
+ * Whether a document found can make the top k is judged with bounds for its own length,
+ * the tf weight a term would have in it at the most times the term occurs in any document,
+ * which are far below the bounds over every document for all but the shortest ones.
+ * Every document that is scored gets its exact BM25 score so the results are the
+ * same as searchExhaustive gives. Deleted documents are never ranked.
+ *
+ * A query term may be a phrase or proximity clause made by PhraseQuery, it is matched
+ * before the postings are merged and then scored like any other term, with the number
+ * of times it matched in a document as its tf.
+ *
+ * searchFields ranks with BM25F over the title and body of documents instead, term at a time.
+ * Its phrase and proximity clauses are matched against the whole document and scored with BM25
+ * as search scores them, as the title postings have no positions to split the matches by field.
+ * A ShardedReader runs both on each of its shards at once and merges their results.
+ */
+public class Searcher {
+
+	//bounds are widened by this fraction so rounding can never prune a document that ties or wins
+	private static final double BOUND_SLACK = 1e-9;
+
+	/**
+	 * The postings, weights and cursors of the terms of one query
+	 */
+	private static final class QueryPlan {
+
+		private final int numTerms;
+		private final PostingsList[] postings;
+		private final double[] idfs;
+		private final double[] tfsInQuery;
+		private final double[] upperBounds;
+		//normalised tf of the most times each term occurs in a document
+		private final double[] maxTfs;
+		//what each term adds to a score apart from its tf weight
+		private final double[] termWeights;
+		private final int[] cursors;
+		//doc id under each cursor, Integer.MAX_VALUE once the postings are used up
+		private final int[] docIds;
+		private final int[] queryTerms;
+
+		/**
+		 * @param matches postings of the phrase clauses of the query matched beforehand, or null to match them here
+		 * @param phraseDfs document frequency of each phrase clause, or null to count the docs it matches here
+		 */
+		private QueryPlan(
+				IndexReader index,
+				ArrayList<String> query,
+				Map<String, ? extends PostingsList> matches,
+				Map<String, Integer> phraseDfs){
+
+			//one entry per distinct query term, in the order they first appear
+			LinkedHashMap<String, PostingsList> distinct = new LinkedHashMap<>();
+			LinkedHashMap<String, Integer> ids = new LinkedHashMap<>();
+			for(String term : query){
+				if(!distinct.containsKey(term)){
+					PhraseQuery phrase = PhraseQuery.fromTerm(term);
+					PostingsList list;
+					if(phrase == null){
+						list = index.getPostings(term);
+					}else{
+						list = matches == null ? phrase.match(index) : matches.get(term);
+					}
+					distinct.put(term, list);
+					if(list != null && list.size() > 0){
+						ids.put(term, ids.size());
+					}
+				}
+			}
+
+			numTerms = ids.size();
+			postings = new PostingsList[numTerms];
+			idfs = new double[numTerms];
+			tfsInQuery = new double[numTerms];
+			upperBounds = new double[numTerms];
+			maxTfs = new double[numTerms];
+			termWeights = new double[numTerms];
+			cursors = new int[numTerms];
+			docIds = new int[numTerms];
+
+			for(String term : ids.keySet()){
+				int t = ids.get(term);
+				postings[t] = distinct.get(term);
+				tfsInQuery[t] = Weighting.calcTermFrequencyInQuery(query, term);
+
+				double maxTfWeight;
+				double minTfWeight;
+				if(PhraseQuery.fromTerm(term) != null){
+					//a phrase has no stats of its own, they are taken from the docs it matched
+					int df = phraseDfs == null ? postings[t].size() : phraseDfs.get(term);
+					idfs[t] = CorpusStats.calcBm25Idf(index.getNumDocs(), df);
+					maxTfWeight = 0.0;
+					minTfWeight = Double.MAX_VALUE;
+					int maxTf = 0;
+					for(int i = 0; i < postings[t].size(); i++){
+						double K = Weighting.calcK(index.getDocLength(postings[t].getDocId(i)), index.getAvgDocLength());
+						double tfWeight = Weighting.calcTfWeight(Weighting.normaliseTf(postings[t].getTf(i)), K);
+						maxTfWeight = Math.max(maxTfWeight, tfWeight);
+						minTfWeight = Math.min(minTfWeight, tfWeight);
+						maxTf = Math.max(maxTf, postings[t].getTf(i));
+					}
+					maxTfs[t] = Weighting.normaliseTf(maxTf);
+				}else{
+					idfs[t] = index.getBm25Idf(term);
+					maxTfWeight = index.getMaxTfWeight(term);
+					minTfWeight = index.getMinTfWeight(term);
+					maxTfs[t] = Weighting.normaliseTf(index.getMaxTf(term));
+				}
+
+				//a negative idf scores best in the document with the smallest tf weight
+				double tfWeight = idfs[t] >= 0 ? maxTfWeight : minTfWeight;
+				termWeights[t] = tfsInQuery[t] * idfs[t] * Weighting.calcQueryWeight(tfsInQuery[t]);
+				upperBounds[t] = Math.max(0.0, termWeights[t] * tfWeight);
+				docIds[t] = postings[t].getDocId(0);
+			}
+
+			//maps each query position to its distinct term so repeated terms are summed
+			//in the same order as Weighting.calculateBM25
+			queryTerms = new int[query.size()];
+			for(int i = 0; i < query.size(); i++){
+				Integer t = ids.get(query.get(i));
+				queryTerms[i] = t == null ? -1 : t;
+			}
+		}
+
+		/**
+		 * @param K length normalisation of a document
+		 * @return the most term t can add to the score of a document of that length
+		 */
+		private double upperBound(int t, double K){
+
+			if(idfs[t] < 0){
+				return upperBounds[t];
+			}
+			return Math.min(upperBounds[t], termWeights[t] * Weighting.calcTfWeight(maxTfs[t], K));
+		}
+
+		/**
+		 * @return true if the cursor of term t is on docId
+		 */
+		private boolean isOn(int t, int docId){
+			return docIds[t] == docId;
+		}
+
+		/**
+		 * @return lowest document id under the cursors of terms from..numTerms-1 in order,
+		 * Integer.MAX_VALUE when they are all exhausted
+		 */
+		private int minDocId(int[] order, int from){
+
+			int docId = Integer.MAX_VALUE;
+			for(int i = from; i < numTerms; i++){
+				int t = order[i];
+				if(docIds[t] < docId){
+					docId = docIds[t];
+				}
+			}
+			return docId;
+		}
+
+		/**
+		 * Move the cursor of term t to the first posting with an id of at least target
+		 */
+		private void advance(int t, int target){
+
+			if(docIds[t] >= target) return;
+			moveTo(t, postings[t].advance(cursors[t], target));
+		}
+
+		/**
+		 * Move the cursor of term t to the next posting
+		 */
+		private void next(int t){
+			moveTo(t, cursors[t] + 1);
+		}
+
+		private void moveTo(int t, int cursor){
+
+			cursors[t] = cursor;
+			docIds[t] = cursor < postings[t].size() ? postings[t].getDocId(cursor) : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Exact BM25 score of a document whose postings are under the cursors
+		 */
+		private double score(IndexReader index, double avgDocLength, int docId){
+
+			double K = Weighting.calcK(index.getDocLength(docId), avgDocLength);
+			double score = 0.0;
+			for(int t : queryTerms){
+				if(t >= 0 && isOn(t, docId)){
+					score += Weighting.calcBM(idfs[t], Weighting.normaliseTf(postings[t].getTf(cursors[t])), K, tfsInQuery[t]);
+				}
+			}
+			return score;
+		}
+	}
+
+	/**
+	 * Find the k documents that score highest for a query, skipping documents
+	 * that cannot make the top k
+	 * Only documents containing at least one query term are ranked.
+	 * Scores are the same as Weighting.calculateBM25 gives.
+	 * @param index IndexReader of the dataset
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @return TopDocs ranked best first
+	 */
+	public static TopDocs search(
+			IndexReader index,
+			ArrayList<String> query,
+			int k){
+
+		return search(index, query, k, null, null);
+	}
+
+	/**
+	 * Find the k documents that score highest for a query with BM25, or with BM25F when
+	 * field weights are given
+	 * BM25F needs the titles of the documents, which only a MemoryIndexReader or ShardedReader has.
+	 * @param index IndexReader of the dataset
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @param weights FieldWeights of the title and body, or null for BM25
+	 * @return TopDocs ranked best first
+	 * @throws IllegalArgumentException when weights are given for an index without titles
+	 */
+	public static TopDocs search(
+			IndexReader index,
+			ArrayList<String> query,
+			int k,
+			Weighting.FieldWeights weights){
+
+		if(weights == null){
+			return search(index, query, k);
+		}
+		if(index instanceof ShardedReader){
+			return ((ShardedReader)index).searchFields(query, k, weights);
+		}
+		if(index instanceof MemoryIndexReader){
+			return searchFields((MemoryIndexReader)index, query, k, weights);
+		}
+		throw new IllegalArgumentException("BM25F needs the titles of the documents, " + index.getClass().getSimpleName() + " has none");
+	}
+
+	/**
+	 * Find the k documents that score highest for a query in one shard of a corpus
+	 * The phrase clauses of the query are matched in every shard first, as their idf
+	 * comes from the number of docs they match in the whole corpus.
+	 * @param index IndexReader of the shard, with the statistics of the corpus
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @param matches postings each phrase clause of the query matched in the shard, or null to match them here
+	 * @param phraseDfs number of docs of the corpus each phrase clause matched, or null for those of the shard
+	 * @return TopDocs ranked best first
+	 */
+	static TopDocs search(
+			IndexReader index,
+			ArrayList<String> query,
+			int k,
+			Map<String, ? extends PostingsList> matches,
+			Map<String, Integer> phraseDfs){
+
+		QueryPlan plan = new QueryPlan(index, query, matches, phraseDfs);
+		TopKHeap heap = new TopKHeap(k);
+		double avgDocLength = index.getAvgDocLength();
+		int n = plan.numTerms;
+
+		//terms ordered by upper bound, smallest first
+		int[] order = new int[n];
+		for(int i = 0; i < n; i++) order[i] = i;
+		for(int i = 1; i < n; i++){
+			int t = order[i];
+			int j = i - 1;
+			while(j >= 0 && plan.upperBounds[order[j]] > plan.upperBounds[t]){
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = t;
+		}
+
+		//prefixBounds[i] is the most the first i terms of order can add together
+		double[] prefixBounds = new double[n + 1];
+		for(int i = 0; i < n; i++){
+			prefixBounds[i + 1] = prefixBounds[i] + plan.upperBounds[order[i]];
+		}
+
+		//terms before firstEssential cannot get a document into the heap on their own
+		int firstEssential = 0;
+		double[] docBounds = new double[n];
+
+		while(true){
+
+			double threshold = heap.threshold();
+			while(firstEssential < n && cannotBeat(prefixBounds[firstEssential + 1], threshold)){
+				firstEssential++;
+			}
+
+			int docId = plan.minDocId(order, firstEssential);
+			if(docId == Integer.MAX_VALUE) break;
+
+			//deleted docs are passed over without checking the non-essential terms
+			boolean live = !index.isDeleted(docId);
+
+			//bounds of the terms for the length of the doc, the essential ones only where they are on it
+			double bound = 0.0;
+			if(live){
+				double K = Weighting.calcK(index.getDocLength(docId), avgDocLength);
+				for(int i = 0; i < n; i++){
+					int t = order[i];
+					docBounds[t] = plan.upperBound(t, K);
+					if(i < firstEssential || plan.isOn(t, docId)){
+						bound += docBounds[t];
+					}
+				}
+			}
+
+			//check the non-essential terms, biggest first, dropping their bound when absent
+			for(int i = firstEssential - 1; live && i >= 0 && !cannotBeat(bound, threshold); i--){
+				int t = order[i];
+				plan.advance(t, docId);
+				if(!plan.isOn(t, docId)){
+					bound -= docBounds[t];
+				}
+			}
+
+			if(live && !cannotBeat(bound, threshold)){
+				//every cursor must be positioned before the exact score is taken
+				for(int i = 0; i < firstEssential; i++){
+					plan.advance(order[i], docId);
+				}
+				heap.offer(docId, plan.score(index, avgDocLength, docId));
+			}
+
+			for(int i = firstEssential; i < n; i++){
+				if(plan.isOn(order[i], docId)){
+					plan.next(order[i]);
+				}
+			}
+		}
+		return heap.toTopDocs();
+	}
+
+	/**
+	 * Find the k documents that score highest for a query by scoring every
+	 * document that contains a query term
+	 * Gives the same results as search without pruning.
+	 * @param index IndexReader of the dataset
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @return TopDocs ranked best first
+	 */
+	public static TopDocs searchExhaustive(
+			IndexReader index,
+			ArrayList<String> query,
+			int k){
+
+		QueryPlan plan = new QueryPlan(index, query, null, null);
+		TopKHeap heap = new TopKHeap(k);
+		double avgDocLength = index.getAvgDocLength();
+		int[] order = new int[plan.numTerms];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+
+		while(true){
+
+			int docId = plan.minDocId(order, 0);
+			if(docId == Integer.MAX_VALUE) break;
+
+			if(!index.isDeleted(docId)){
+				heap.offer(docId, plan.score(index, avgDocLength, docId));
+			}
+
+			for(int t = 0; t < plan.numTerms; t++){
+				if(plan.isOn(t, docId)){
+					plan.next(t);
+				}
+			}
+		}
+		return heap.toTopDocs();
+	}
+
+	/**
+	 * Find the k documents that score highest for a query with BM25F over their title and body
+	 * The postings of the whole documents are read with the title postings alongside, the body
+	 * tf being the rest. When the body is not scored only the title postings are read, so a
+	 * title search touches a far smaller part of the index.
+	 * Only documents containing a query term in a scored field are ranked.
+	 * Scores of plain terms are the same as Weighting.calculateBM25F gives. The title postings
+	 * have no positions, so a phrase clause is matched in the whole document and adds the
+	 * same BM25 score as it does in search, and a title only search can not hold one.
+	 * @param index MemoryIndexReader of the dataset
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @param weights FieldWeights of the title and body
+	 * @return TopDocs ranked best first
+	 * @throws IllegalArgumentException when the body is not scored and the query has a phrase clause
+	 */
+	public static TopDocs searchFields(
+			MemoryIndexReader index,
+			ArrayList<String> query,
+			int k,
+			Weighting.FieldWeights weights){
+
+		return searchFields(index, query, k, weights, null, null);
+	}
+
+	/**
+	 * Find the k documents that score highest for a query with BM25F in one shard of a corpus
+	 * The phrase clauses of the query are matched in every shard first, as their idf
+	 * comes from the number of docs they match in the whole corpus.
+	 * @param index MemoryIndexReader of the shard, with the statistics of the corpus
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @param weights FieldWeights of the title and body
+	 * @param matches postings each phrase clause of the query matched in the shard, or null to match them here
+	 * @param phraseDfs number of docs of the corpus each phrase clause matched, or null for those of the shard
+	 * @return TopDocs ranked best first
+	 */
+	static TopDocs searchFields(
+			MemoryIndexReader index,
+			ArrayList<String> query,
+			int k,
+			Weighting.FieldWeights weights,
+			Map<String, ? extends PostingsList> matches,
+			Map<String, Integer> phraseDfs){
+
+		double avgTitleLength = index.getAvgTitleLength();
+		double avgBodyLength = index.getAvgBodyLength();
+		double avgDocLength = index.getAvgDocLength();
+		boolean bodies = weights.getBodyBoost() != 0.0;
+		double[] scores = new double[index.getMaxDoc()];
+		BitSet matched = new BitSet(scores.length);
+		//docs each phrase clause matched, so a repeated clause is only matched once
+		HashMap<String, PostingsList> phrases = new HashMap<>();
+
+		//terms are visited in query order so repeated terms add up the same way as calculateBM25F
+		for(String term : query){
+
+			PhraseQuery phrase = PhraseQuery.fromTerm(term);
+			if(phrase != null){
+				if(!bodies){
+					throw new IllegalArgumentException("Titles have no positions to match " + term + " with");
+				}
+				PostingsList found = phrases.get(term);
+				if(found == null){
+					found = matches == null ? phrase.match(index) : matches.get(term);
+					phrases.put(term, found);
+				}
+				//a phrase has no stats of its own, they are taken from the docs it matched
+				int df = phraseDfs == null ? found.size() : phraseDfs.get(term);
+				double idf = CorpusStats.calcBm25Idf(index.getNumDocs(), df);
+				double tfInQuery = Weighting.calcTermFrequencyInQuery(query, term);
+				for(int i = 0; i < found.size(); i++){
+					int docId = found.getDocId(i);
+					double K = Weighting.calcK(index.getDocLength(docId), avgDocLength);
+					scores[docId] += Weighting.calcBM(idf, Weighting.normaliseTf(found.getTf(i)), K, tfInQuery);
+					matched.set(docId);
+				}
+				continue;
+			}
+
+			PostingsList titles = index.getTitlePostings(term);
+			PostingsList postings = bodies ? index.getPostings(term) : titles;
+			if(postings == null) continue;
+
+			double idf = index.getBm25Idf(term);
+			double tfInQuery = Weighting.calcTermFrequencyInQuery(query, term);
+			int title = 0;
+
+			for(int i = 0; i < postings.size(); i++){
+				int docId = postings.getDocId(i);
+				if(index.isDeleted(docId)) continue;
+
+				//every title posting is also a posting of the whole doc
+				int titleTf = 0;
+				if(!bodies){
+					titleTf = postings.getTf(i);
+				}else if(titles != null){
+					title = titles.advance(title, docId);
+					if(title < titles.size() && titles.getDocId(title) == docId){
+						titleTf = titles.getTf(title);
+					}
+				}
+				int titleLength = index.getTitleLength(docId);
+				int bodyTf = bodies ? postings.getTf(i) - titleTf : 0;
+				int bodyLength = bodies ? index.getDocLength(docId) - titleLength : 0;
+
+				double fieldsTf = Weighting.calcFieldsTf(weights, titleTf, titleLength, avgTitleLength,
+						bodyTf, bodyLength, avgBodyLength);
+				scores[docId] += Weighting.calcBM25F(idf, fieldsTf, tfInQuery);
+				matched.set(docId);
+			}
+		}
+
+		TopKHeap heap = new TopKHeap(k);
+		for(int docId = matched.nextSetBit(0); docId >= 0; docId = matched.nextSetBit(docId + 1)){
+			heap.offer(docId, scores[docId]);
+		}
+		return heap.toTopDocs();
+	}
+
+	/**
+	 * Whether a document with a score of at most bound can get into the heap
+	 * A document scored now has a higher id than any already in the heap, so it loses ties.
+	 * @param bound upper bound of the documents score
+	 * @param threshold score to beat
+	 * @return true if the document can be skipped
+	 */
+	private static boolean cannotBeat(double bound, double threshold){
+		return bound + Math.abs(bound) * BOUND_SLACK + BOUND_SLACK <= threshold;
+	}
+}
@@ -0,0 +1,314 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * An immutable block of documents with their own inverted index.
+ * A Dataset collects new documents in a buffer and writes them out as a new segment,
+ * segments are never added to again, only merged in to bigger segments.
+ * Documents are deleted by marking them in a bit set, which is copied on every delete
+ * so a reader holding the old set is not affected. Merging drops the deleted documents.
+ * Term ids belong to the TermDictionary of the Dataset, shared by all its segments.
+ * The postings are encoded by a PostingsCodec when the segment is made, the index they
+ * were built in is not kept. A segment of an index with positions keeps them as PositionalPostings.
+ * The title postings and title lengths of the docs are kept alongside, encoded the same way.
+ * The document frequency of each term and the total length of the docs that are not deleted
+ * are counted when the segment is made and taken down as docs are deleted, so the statistics
+ * of a set are summed from its segments without reading their postings.
+ */
+public class Segment {
+
+	private final PostingsCodec codec;
+	private final boolean positions;
+	private final PostingsCodec.EncodedPostings[] postings;
+	private final PostingsCodec.EncodedPostings[] titlePostings;
+	private final int[] docLengths;
+	private final int[] titleLengths;
+	private final BowDocument[] docs;
+	private volatile BitSet deleted;
+	private int numDeleted;
+	//statistics of the docs that are not deleted
+	private final int[] dfs;
+	private long totalDocLength;
+	private long totalTitleLength;
+
+	/**
+	 * Class constructor
+	 * Encodes the postings of an index, nothing may be added to or removed from it after this
+	 * @param index InvertedIndex of the docs
+	 * @param docs BowDocuments in id order, null for ids that were removed from the index
+	 * @param codec PostingsCodec to encode the postings with
+	 */
+	Segment(InvertedIndex index, ArrayList<BowDocument> docs, PostingsCodec codec){
+
+		this.codec = codec;
+		positions = index.hasPositions();
+		this.docs = docs.toArray(new BowDocument[0]);
+		docLengths = new int[this.docs.length];
+		titleLengths = new int[this.docs.length];
+		for(int docId = 0; docId < docLengths.length; docId++){
+			docLengths[docId] = index.getDocLength(docId);
+			titleLengths[docId] = index.getTitleLength(docId);
+		}
+		int numTermIds = index.getNumTermIds();
+		while(numTermIds > 0 && index.getPostings(numTermIds - 1) == null){
+			numTermIds--;
+		}
+		postings = new PostingsCodec.EncodedPostings[numTermIds];
+		dfs = new int[numTermIds];
+		for(int termId = 0; termId < numTermIds; termId++){
+			Postings list = index.getPostings(termId);
+			if(list != null){
+				//the docs removed from the index are already out of its postings
+				dfs[termId] = list.size();
+				PostingsCodec.EncodedPostings encoded = codec.encode(list);
+				//raw postings are read straight from the list, positions and all
+				if(positions && !encoded.reader().hasPositions()){
+					encoded = new PositionalPostings(encoded, list);
+				}
+				postings[termId] = encoded;
+			}
+		}
+
+		int numTitleTermIds = index.getNumTitleTermIds();
+		while(numTitleTermIds > 0 && index.getTitlePostings(numTitleTermIds - 1) == null){
+			numTitleTermIds--;
+		}
+		titlePostings = new PostingsCodec.EncodedPostings[numTitleTermIds];
+		for(int termId = 0; termId < numTitleTermIds; termId++){
+			Postings list = index.getTitlePostings(termId);
+			if(list != null){
+				titlePostings[termId] = codec.encode(list);
+			}
+		}
+
+		BitSet removed = new BitSet(this.docs.length);
+		for(int docId = 0; docId < this.docs.length; docId++){
+			if(this.docs[docId] == null){
+				removed.set(docId);
+			}else{
+				totalDocLength += docLengths[docId];
+				totalTitleLength += titleLengths[docId];
+			}
+		}
+		deleted = removed;
+		numDeleted = removed.cardinality();
+	}
+
+	/**
+	 * Merge segments in to one, dropping their deleted docs
+	 * Docs keep their order, the docs of segments[0] first.
+	 * @param dictionary TermDictionary of the segments
+	 * @param segments segments to merge
+	 * @param deleted deleted docs of each segment to drop
+	 * @param newIds filled with the id each doc has in the merged segment, -1 for dropped docs
+	 * @param codec PostingsCodec of the merged segment
+	 * @return merged Segment
+	 */
+	static Segment merge(
+			TermDictionary dictionary,
+			Segment[] segments,
+			BitSet[] deleted,
+			int[][] newIds,
+			PostingsCodec codec){
+
+		boolean positions = true;
+		for(Segment segment : segments){
+			positions &= segment.positions;
+		}
+		InvertedIndex merged = new InvertedIndex(dictionary, positions);
+		ArrayList<BowDocument> docs = new ArrayList<>();
+		for(int s = 0; s < segments.length; s++){
+			Segment segment = segments[s];
+			newIds[s] = new int[segment.docs.length];
+			for(int docId = 0; docId < segment.docs.length; docId++){
+				if(deleted[s].get(docId)){
+					newIds[s][docId] = -1;
+				}else{
+					docs.add(segment.docs[docId]);
+					newIds[s][docId] = merged.addDocument(segment.docs[docId]);
+				}
+			}
+		}
+		return new Segment(merged, docs, codec);
+	}
+
+	/**
+	 * Mark a doc as deleted and take it out of the statistics of this segment
+	 * Must only be called by the Dataset holding this segment, under its lock.
+	 * @param docId id of the doc in this segment
+	 */
+	void delete(int docId){
+
+		if(deleted.get(docId)){
+			return;
+		}
+		BitSet copy = (BitSet)deleted.clone();
+		copy.set(docId);
+		deleted = copy;
+		numDeleted++;
+		docs[docId].forEachTerm((termId, count) -> dfs[termId]--);
+		totalDocLength -= docLengths[docId];
+		totalTitleLength -= titleLengths[docId];
+	}
+
+	/**
+	 * @return the deleted docs, this set is never changed so it can be held by a reader
+	 */
+	public BitSet getDeleted(){
+		return deleted;
+	}
+
+	/**
+	 * Get the postings of a term, including deleted docs
+	 * @param termId id of term in the dictionary
+	 * @return a list to read the postings through, for use by one thread, or null if no doc contains the term
+	 */
+	public PostingsList getPostings(int termId){
+		return termId < postings.length && postings[termId] != null ? postings[termId].reader() : null;
+	}
+
+	/**
+	 * Get the postings of a term in the titles of the docs, including deleted docs
+	 * @param termId id of term in the dictionary
+	 * @return a list to read the postings through, for use by one thread, or null if no title contains the term
+	 */
+	public PostingsList getTitlePostings(int termId){
+		return termId < titlePostings.length && titlePostings[termId] != null ? titlePostings[termId].reader() : null;
+	}
+
+	/**
+	 * @param docId id of the doc in this segment
+	 * @return number of terms in the title of the doc
+	 */
+	public int getTitleLength(int docId){
+		return titleLengths[docId];
+	}
+
+	/**
+	 * @return bytes of memory the encoded title postings of this segment take up
+	 */
+	public long getTitlePostingsSizeInBytes(){
+
+		long bytes = 0;
+		for(PostingsCodec.EncodedPostings list : titlePostings){
+			if(list != null) bytes += list.getSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return true if the postings hold the position of every term occurrence
+	 */
+	public boolean hasPositions(){
+		return positions;
+	}
+
+	/**
+	 * @return one more than the highest term id with postings in this segment
+	 */
+	public int getNumTermIds(){
+		return postings.length;
+	}
+
+	/**
+	 * @return one more than the highest term id with title postings in this segment
+	 */
+	public int getNumTitleTermIds(){
+		return titlePostings.length;
+	}
+
+	/**
+	 * @param docId id of the doc in this segment
+	 * @return number of terms in the doc
+	 */
+	public int getDocLength(int docId){
+		return docLengths[docId];
+	}
+
+	/**
+	 * @return PostingsCodec the postings of this segment are encoded with
+	 */
+	public PostingsCodec getCodec(){
+		return codec;
+	}
+
+	/**
+	 * @return bytes of memory the encoded postings of this segment take up
+	 */
+	public long getPostingsSizeInBytes(){
+
+		long bytes = 0;
+		for(PostingsCodec.EncodedPostings list : postings){
+			if(list != null) bytes += list.getSizeInBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return number of postings in this segment, including those of deleted docs
+	 */
+	public long getNumPostings(){
+
+		long count = 0;
+		for(PostingsCodec.EncodedPostings list : postings){
+			if(list != null) count += list.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @param docId id of the doc in this segment
+	 * @return BowDocument, null if it was removed before the segment was written
+	 */
+	public BowDocument getDoc(int docId){
+		return docs[docId];
+	}
+
+	/**
+	 * @return number of ids in this segment, including deleted docs
+	 */
+	public int getMaxDoc(){
+		return docs.length;
+	}
+
+	/**
+	 * @return number of docs in this segment that have not been deleted
+	 */
+	public int getNumLiveDocs(){
+		return docs.length - numDeleted;
+	}
+
+	/**
+	 * @return number of deleted docs in this segment
+	 */
+	public int getNumDeleted(){
+		return numDeleted;
+	}
+
+	/**
+	 * Must be read under the lock of the Dataset holding this segment, as deletes change it
+	 * @param termId id of term in the dictionary
+	 * @return number of docs in this segment that have not been deleted with the term
+	 */
+	public int getDf(int termId){
+		return termId < dfs.length ? dfs[termId] : 0;
+	}
+
+	/**
+	 * Must be read under the lock of the Dataset holding this segment, as deletes change it
+	 * @return sum of the lengths of the docs in this segment that have not been deleted
+	 */
+	public long getTotalDocLength(){
+		return totalDocLength;
+	}
+
+	/**
+	 * Must be read under the lock of the Dataset holding this segment, as deletes change it
+	 * @return sum of the title lengths of the docs in this segment that have not been deleted
+	 */
+	public long getTotalTitleLength(){
+		return totalTitleLength;
+	}
+}
@@ -0,0 +1,219 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A corpus of BowDocuments split in to shards, each a Dataset with segments, postings
+ * and statistics of its own, queried on every shard at once through a ShardedReader.
+ * A doc goes to the shard picked by the hash of its itemid, so a doc put again goes back to
+ * the same shard. The shards share one TermDictionary, so a doc is built before its shard
+ * is known and the statistics of the shards line up by term id.
+ *
+ * Scores need the statistics of the whole corpus, not of one shard, so a reader sums the
+ * document counts, lengths and document frequencies of the shards and reads each shard with
+ * them. Each shard keeps the tf weight bounds of its own docs, taken with the average length
+ * of the corpus, so it prunes against the best docs it holds.
+ * The order docs are added in is kept, so ties rank the same as in a Dataset.
+ * The shards are searched on a pool of threads owned by the index, close it to stop them,
+ * its readers can not be searched afterwards.
+ */
+public class ShardedIndex implements AutoCloseable {
+
+	private final TermDictionary dictionary;
+	private final Dataset[] shards;
+	private final ExecutorService pool;
+	//order each doc was added in, by itemid
+	private final HashMap<String, Long> addedAt;
+	private long numAdded;
+	private ShardedReader reader;
+	private long generation;
+
+	/**
+	 * Class constructor
+	 * @param numShards number of shards to split docs between
+	 * @param segmentDocs number of docs each shard buffers before it writes them as a segment
+	 * @param mergeFactor number of segments of the same size a shard merges together
+	 * @param dictionary TermDictionary docs are built with
+	 * @param codec PostingsCodec the postings of the shards are encoded with
+	 * @param positions true to index the position of every term
+	 */
+	public ShardedIndex(
+			int numShards,
+			int segmentDocs,
+			int mergeFactor,
+			TermDictionary dictionary,
+			PostingsCodec codec,
+			boolean positions){
+
+		this.dictionary = dictionary;
+		shards = new Dataset[Math.max(1, numShards)];
+		for(int s = 0; s < shards.length; s++){
+			shards[s] = new Dataset("shard-" + s, segmentDocs, mergeFactor, codec, positions, dictionary);
+		}
+		//the calling thread searches the first shard
+		pool = Workers.newPool(shards.length - 1, false, "shard");
+		addedAt = new HashMap<>();
+	}
+
+	/**
+	 * Split the docs of a set in to shards, in the order of their ids in the set
+	 * The docs are shared with the set, which can be dropped afterwards.
+	 * Reading the docs of the set does not change it, its segments are left as they are.
+	 * The shards are made with the segment size, merge factor, codec and positions of the set.
+	 * @param set Dataset to split
+	 * @param numShards number of shards
+	 * @return ShardedIndex with the docs of the set
+	 * @throws Exception when a doc can not be added
+	 */
+	public static ShardedIndex of(
+			Dataset set,
+			int numShards)
+					throws Exception{
+
+		ShardedIndex index = new ShardedIndex(numShards, set.getSegmentDocs(), set.getMergeFactor(),
+				set.getDictionary(), set.getCodec(), set.hasPositions());
+		for(BowDocument doc : set.getDocs()){
+			index.addDoc(doc);
+		}
+		return index;
+	}
+
+	/**
+	 * @param name itemid of a doc
+	 * @return number of the shard the doc belongs in
+	 */
+	public int shardOf(String name){
+
+		int h = name.hashCode();
+		return Math.floorMod(h ^ (h >>> 16), shards.length);
+	}
+
+	/**
+	 * add a bow doc to its shard
+	 * @param doc BowDocument to be added
+	 * @throws Exception	when doc was not built with the dictionary of this index
+	 */
+	public synchronized void addDoc(
+			BowDocument doc)
+					throws Exception{
+
+		shards[shardOf(doc.toString())].addDoc(doc);
+		addedAt.put(doc.toString(), numAdded++);
+		changed();
+	}
+
+	/**
+	 * add a bow doc to its shard, replacing the doc with the same itemid if there is one
+	 * @param doc BowDocument to be added
+	 * @return true if a doc was replaced
+	 * @throws Exception	when doc was not built with the dictionary of this index
+	 */
+	public synchronized boolean putDoc(
+			BowDocument doc)
+					throws Exception{
+
+		boolean replaced = deleteDoc(doc.toString());
+		addDoc(doc);
+		return replaced;
+	}
+
+	/**
+	 * delete a bow doc from its shard
+	 * @param name itemid of the doc
+	 * @return true if the doc was in this index
+	 */
+	public synchronized boolean deleteDoc(
+			String name){
+
+		if(!shards[shardOf(name)].deleteDoc(name)){
+			return false;
+		}
+		addedAt.remove(name);
+		changed();
+		return true;
+	}
+
+	/**
+	 * Forget the reader after docs have changed
+	 */
+	private void changed(){
+
+		reader = null;
+		generation++;
+	}
+
+	/**
+	 * @return number of shards
+	 */
+	public int getNumShards(){
+		return shards.length;
+	}
+
+	/**
+	 * @param shard number of a shard
+	 * @return Dataset of the shard
+	 */
+	public Dataset getShard(int shard){
+		return shards[shard];
+	}
+
+	/**
+	 * get the dictionary docs of this index must be built with
+	 * @return TermDictionary
+	 */
+	public TermDictionary getDictionary(){
+		return dictionary;
+	}
+
+	/**
+	 * get the generation of this index, which goes up every time docs are added or deleted,
+	 * so results of a query stay valid while it is the same
+	 * @return generation
+	 */
+	public synchronized long getGeneration(){
+		return generation;
+	}
+
+	/**
+	 * get a read only view of every shard for scoring queries, with the statistics of the corpus
+	 * The statistics of the shards are summed and each shard is read with the sum, the work
+	 * for each shard is done on the pool, which reads addedAt while the lock of this index is held.
+	 * The reader does not change as docs are put or deleted.
+	 * @return ShardedReader
+	 */
+	public synchronized ShardedReader getReader(){
+
+		if(reader == null){
+			ArrayList<CorpusStats> stats = ShardedReader.scatter(pool, shards.length, s -> shards[s].getStats());
+			CorpusStats corpus = CorpusStats.sum(dictionary, stats.toArray(new CorpusStats[0]));
+			ArrayList<MemoryIndexReader> readers = ShardedReader.scatter(pool, shards.length, s -> shards[s].getShardReader(corpus));
+			ArrayList<long[]> order = ShardedReader.scatter(pool, shards.length, s -> addedAtOf(readers.get(s)));
+			reader = new ShardedReader(readers.toArray(new MemoryIndexReader[0]), order.toArray(new long[0][]), pool);
+		}
+		return reader;
+	}
+
+	/**
+	 * @return order each doc of a shard was added in, by its id in the shard
+	 */
+	private long[] addedAtOf(MemoryIndexReader shard){
+
+		long[] order = new long[shard.getMaxDoc()];
+		for(int docId = 0; docId < order.length; docId++){
+			//deleted docs are never ranked
+			order[docId] = shard.isDeleted(docId) ? Long.MAX_VALUE : addedAt.get(shard.getDocName(docId));
+		}
+		return order;
+	}
+
+	/**
+	 * Stop the threads the shards are searched on
+	 * Searches already running finish, readers of this index can not start new ones.
+	 */
+	@Override
+	public void close(){
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,371 @@
+package processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * IndexReader over the shards of a ShardedIndex as they were at one point in time.
+ * Each shard is read through a MemoryIndexReader that scores with the statistics of the
+ * whole corpus, so a doc gets the same score from its shard as from one Dataset of every doc.
+ * The shards are numbered one after another, a doc has the id of its place in its shard
+ * plus the number of ids in the shards before it.
+ *
+ * search and searchFields score every shard at once, one on the calling thread and the rest
+ * on the pool of the ShardedIndex, and merge the k best of each. Ties in score go to the doc
+ * added to the corpus first, as they go to the lower id in a Dataset, so the results are the
+ * same as a Dataset of the same docs gives. The phrase clauses of a query are matched in every
+ * shard before either scores it, as their idf comes from the docs they match in all of them.
+ * Searcher.search can also read the shards as one index, one after another, ties then go
+ * to the doc in the first shard.
+ */
+public class ShardedReader implements IndexReader {
+
+	private final MemoryIndexReader[] shards;
+	//order each doc of each shard was added to the corpus in
+	private final long[][] addedAt;
+	private final int[] docBases;
+	private final int maxDoc;
+	private final ExecutorService pool;
+
+	/**
+	 * Class constructor
+	 * @param shards reader of each shard, with the statistics of the corpus
+	 * @param addedAt order each doc of each shard was added in, by its id in the shard
+	 * @param pool workers to score shards on
+	 */
+	ShardedReader(
+			MemoryIndexReader[] shards,
+			long[][] addedAt,
+			ExecutorService pool){
+
+		this.shards = shards;
+		this.addedAt = addedAt;
+		this.pool = pool;
+		docBases = new int[shards.length];
+		int base = 0;
+		for(int s = 0; s < shards.length; s++){
+			docBases[s] = base;
+			base += shards[s].getMaxDoc();
+		}
+		maxDoc = base;
+	}
+
+	/**
+	 * @return the shard holding a doc id
+	 */
+	private int shardOf(int docId){
+
+		int lo = 0;
+		int hi = shards.length - 1;
+		while(lo < hi){
+			int mid = (lo + hi + 1) >>> 1;
+			if(docBases[mid] <= docId){
+				lo = mid;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Find the k documents that score highest for a query, scoring every shard at once
+	 * Scores are the same as Weighting.calculateBM25 gives with the statistics of the corpus.
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @return TopDocs ranked best first
+	 */
+	public TopDocs search(
+			ArrayList<String> query,
+			int k){
+
+		return merge(scatterMatched(query, (s, matches, phraseDfs) -> Searcher.search(shards[s], query, k, matches, phraseDfs)), k);
+	}
+
+	/**
+	 * Find the k documents that score highest for a query with BM25F over their title and body,
+	 * scoring every shard at once
+	 * Scores are the same as Searcher.searchFields gives on one Dataset of the corpus.
+	 * @param query stemmed query terms
+	 * @param k number of results wanted
+	 * @param weights FieldWeights of the title and body
+	 * @return TopDocs ranked best first
+	 * @throws IllegalArgumentException when the body is not scored and the query has a phrase clause
+	 */
+	public TopDocs searchFields(
+			ArrayList<String> query,
+			int k,
+			Weighting.FieldWeights weights){
+
+		return merge(scatterMatched(query, (s, matches, phraseDfs) -> Searcher.searchFields(shards[s], query, k, weights, matches, phraseDfs)), k);
+	}
+
+	/**
+	 * Scoring of one shard with the phrase clauses of the query already matched
+	 */
+	private interface MatchedTask {
+		TopDocs run(int shard, HashMap<String, Postings> matches, HashMap<String, Integer> phraseDfs);
+	}
+
+	/**
+	 * Score every shard, first matching the phrase clauses of the query in every shard
+	 * so each shard is scored with the number of docs they match in all of them
+	 * @param query stemmed query terms
+	 * @return TopDocs of each shard in shard order
+	 */
+	private ArrayList<TopDocs> scatterMatched(
+			ArrayList<String> query,
+			MatchedTask task){
+
+		ArrayList<String> phrases = new ArrayList<>();
+		for(String term : query){
+			if(PhraseQuery.fromTerm(term) != null && !phrases.contains(term)){
+				phrases.add(term);
+			}
+		}
+		if(phrases.isEmpty()){
+			return scatter(pool, shards.length, s -> task.run(s, null, null));
+		}
+
+		ArrayList<HashMap<String, Postings>> matches = scatter(pool, shards.length, s -> {
+			HashMap<String, Postings> matched = new HashMap<>();
+			for(String phrase : phrases){
+				matched.put(phrase, PhraseQuery.fromTerm(phrase).match(shards[s]));
+			}
+			return matched;
+		});
+		HashMap<String, Integer> phraseDfs = new HashMap<>();
+		for(String phrase : phrases){
+			int df = 0;
+			for(HashMap<String, Postings> matched : matches){
+				df += matched.get(phrase).size();
+			}
+			phraseDfs.put(phrase, df);
+		}
+		return scatter(pool, shards.length, s -> task.run(s, matches.get(s), phraseDfs));
+	}
+
+	/**
+	 * Work on one shard
+	 */
+	interface ShardTask<T> {
+		T run(int shard);
+	}
+
+	/**
+	 * Run a task on every shard, the first on the calling thread and the rest on a pool
+	 * @param pool workers to run the tasks of the other shards on
+	 * @param numShards number of shards
+	 * @return result of each shard in shard order
+	 */
+	static <T> ArrayList<T> scatter(
+			ExecutorService pool,
+			int numShards,
+			ShardTask<T> task){
+
+		ArrayList<Future<T>> pending = new ArrayList<>();
+		for(int s = 1; s < numShards; s++){
+			int shard = s;
+			pending.add(pool.submit((Callable<T>)() -> task.run(shard)));
+		}
+
+		ArrayList<T> results = new ArrayList<>();
+		try {
+			results.add(task.run(0));
+			for(Future<T> result : pending){
+				results.add(result.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Could not run task on shard", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for shards", e);
+		} finally {
+			for(Future<T> result : pending){
+				result.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Merge the ranked results of every shard in to the k best,
+	 * ties going to the doc added first
+	 * @param results TopDocs of each shard in shard order
+	 * @return TopDocs with the ids of this reader
+	 */
+	private TopDocs merge(
+			ArrayList<TopDocs> results,
+			int k){
+
+		int total = 0;
+		for(TopDocs shard : results){
+			total += shard.size();
+		}
+		int n = Math.min(k, total);
+		int[] docIds = new int[n];
+		double[] scores = new double[n];
+		int[] cursors = new int[results.size()];
+
+		for(int rank = 0; rank < n; rank++){
+			int best = -1;
+			for(int s = 0; s < cursors.length; s++){
+				if(cursors[s] < results.get(s).size() && (best < 0 || ranksAbove(results, s, cursors[s], best, cursors[best]))){
+					best = s;
+				}
+			}
+			TopDocs shard = results.get(best);
+			docIds[rank] = docBases[best] + shard.getDocId(cursors[best]);
+			scores[rank] = shard.getScore(cursors[best]);
+			cursors[best]++;
+		}
+		return new TopDocs(docIds, scores);
+	}
+
+	/**
+	 * @return true if the result at rank a of shard sa ranks above the result at rank b of shard sb
+	 */
+	private boolean ranksAbove(
+			ArrayList<TopDocs> results,
+			int sa,
+			int a,
+			int sb,
+			int b){
+
+		double scoreA = results.get(sa).getScore(a);
+		double scoreB = results.get(sb).getScore(b);
+		if(scoreA != scoreB){
+			return scoreA > scoreB;
+		}
+		return addedAt[sa][results.get(sa).getDocId(a)] < addedAt[sb][results.get(sb).getDocId(b)];
+	}
+
+	/**
+	 * @return number of shards read
+	 */
+	public int getNumShards(){
+		return shards.length;
+	}
+
+	/**
+	 * @param shard number of a shard
+	 * @return reader of the shard, with the statistics of the corpus and ids of its own
+	 */
+	public MemoryIndexReader getShard(int shard){
+		return shards[shard];
+	}
+
+	/**
+	 * @param docId id of document
+	 * @return BowDocument with the id
+	 */
+	public BowDocument getDoc(int docId){
+
+		int s = shardOf(docId);
+		return shards[s].getDoc(docId - docBases[s]);
+	}
+
+	@Override
+	public int getNumDocs(){
+		return shards[0].getNumDocs();
+	}
+
+	@Override
+	public int getMaxDoc(){
+		return maxDoc;
+	}
+
+	@Override
+	public boolean isDeleted(int docId){
+
+		int s = shardOf(docId);
+		return shards[s].isDeleted(docId - docBases[s]);
+	}
+
+	@Override
+	public double getAvgDocLength(){
+		return shards[0].getAvgDocLength();
+	}
+
+	@Override
+	public int getDocLength(int docId){
+
+		int s = shardOf(docId);
+		return shards[s].getDocLength(docId - docBases[s]);
+	}
+
+	@Override
+	public String getDocName(int docId){
+		return getDoc(docId).toString();
+	}
+
+	@Override
+	public PostingsList getPostings(String term){
+
+		ArrayList<PostingsList> parts = new ArrayList<>();
+		ArrayList<Integer> bases = new ArrayList<>();
+		for(int s = 0; s < shards.length; s++){
+			PostingsList postings = shards[s].getPostings(term);
+			if(postings != null){
+				parts.add(postings);
+				bases.add(docBases[s]);
+			}
+		}
+
+		if(parts.isEmpty()){
+			return null;
+		}
+		if(parts.size() == 1 && bases.get(0) == 0){
+			return parts.get(0);
+		}
+		int[] partBases = new int[bases.size()];
+		for(int p = 0; p < partBases.length; p++){
+			partBases[p] = bases.get(p);
+		}
+		return new MultiPostings(parts.toArray(new PostingsList[0]), partBases);
+	}
+
+	@Override
+	public double getBm25Idf(String term){
+		return shards[0].getBm25Idf(term);
+	}
+
+	@Override
+	public double getMaxTfWeight(String term){
+
+		double maxTfWeight = 0.0;
+		for(MemoryIndexReader shard : shards){
+			maxTfWeight = Math.max(maxTfWeight, shard.getMaxTfWeight(term));
+		}
+		return maxTfWeight;
+	}
+
+	@Override
+	public double getMinTfWeight(String term){
+
+		double minTfWeight = 0.0;
+		boolean found = false;
+		for(MemoryIndexReader shard : shards){
+			//a shard without the term has a bound of 0
+			if(shard.getMaxTfWeight(term) > 0.0){
+				minTfWeight = found ? Math.min(minTfWeight, shard.getMinTfWeight(term)) : shard.getMinTfWeight(term);
+				found = true;
+			}
+		}
+		return minTfWeight;
+	}
+
+	@Override
+	public int getMaxTf(String term){
+
+		int maxTf = 0;
+		for(MemoryIndexReader shard : shards){
+			maxTf = Math.max(maxTf, shard.getMaxTf(term));
+		}
+		return maxTf;
+	}
+}
@@ -0,0 +1,161 @@
+package processor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread safe cache of surface form to stem.
+ * Term frequencies are Zipfian so a few thousand words make up most tokens,
+ * caching their stems saves running the stemmer for almost every token.
+ * The cache is split into segments, each an access ordered LinkedHashMap behind its own lock,
+ * which evicts its least recently used word when full. Hits, misses and evictions are
+ * counted so the cache can be sized.
+ */
+public class StemCache {
+	
+	private static final int NUM_SEGMENTS = 16;
+	
+	private final Segment[] segments;
+	private final int capacity;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * A least recently used map of part of the cache
+	 */
+	private final class Segment extends LinkedHashMap<String, String> {
+		
+		private static final long serialVersionUID = 1L;
+		private final int maxSize;
+		
+		private Segment(int maxSize){
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest){
+			
+			if(size() > maxSize){
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Class constructor
+	 * @param capacity most words the cache holds
+	 */
+	public StemCache(int capacity){
+		
+		this.capacity = capacity;
+		segments = new Segment[NUM_SEGMENTS];
+		int perSegment = Math.max(1, (capacity + NUM_SEGMENTS - 1) / NUM_SEGMENTS);
+		for(int i = 0; i < NUM_SEGMENTS; i++){
+			segments[i] = new Segment(perSegment);
+		}
+	}
+	
+	/**
+	 * Get the cached stem of a word
+	 * @param word surface form
+	 * @return stem or null if it is not cached
+	 */
+	public String get(String word){
+		
+		Segment segment = segmentFor(word);
+		String stem;
+		synchronized(segment){
+			stem = segment.get(word);
+		}
+		if(stem == null){
+			misses.increment();
+		}else{
+			hits.increment();
+		}
+		return stem;
+	}
+	
+	/**
+	 * Cache the stem of a word
+	 * @param word surface form
+	 * @param stem stem of word
+	 */
+	public void put(String word, String stem){
+		
+		Segment segment = segmentFor(word);
+		synchronized(segment){
+			segment.put(word, stem);
+		}
+	}
+	
+	private Segment segmentFor(String word){
+		
+		int h = word.hashCode();
+		return segments[(h ^ (h >>> 16)) & (NUM_SEGMENTS - 1)];
+	}
+	
+	/**
+	 * @return number of words cached
+	 */
+	public int size(){
+		
+		int size = 0;
+		for(Segment segment : segments){
+			synchronized(segment){
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * @return most words the cache holds
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+	
+	/**
+	 * @return number of lookups that found a stem
+	 */
+	public long getHits(){
+		return hits.sum();
+	}
+	
+	/**
+	 * @return number of lookups that did not find a stem
+	 */
+	public long getMisses(){
+		return misses.sum();
+	}
+	
+	/**
+	 * @return number of words evicted to make room
+	 */
+	public long getEvictions(){
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return fraction of lookups that found a stem
+	 */
+	public double getHitRate(){
+		
+		long h = getHits();
+		long total = h + getMisses();
+		return total == 0 ? 0.0 : (double)h / (double)total;
+	}
+	
+	/**
+	 * get cache size and counters
+	 */
+	public String toString(){
+		return "Stem cache : " + size() + "/" + capacity + " words, " + getHits() + " hits, " + getMisses() 
+				+ " misses, " + getEvictions() + " evictions, hit rate " + String.format("%.3f", getHitRate());
+	}
+}
@@ -0,0 +1,98 @@
+package processor;
+
+/**
+ * A set of stop words that tokens can be checked against without making a String.
+ * Words are kept in an open addressing hash table and looked up by any CharSequence,
+ * such as the token views passed on by a Tokenizer, so checking a token costs one
+ * hash of its characters and usually a single comparison.
+ * The set can not be changed once built so it is safe to share between threads.
+ */
+public class StopWords {
+	
+	private final String[] table;
+	private final int mask;
+	private final int size;
+	
+	/**
+	 * Class constructor
+	 * Words are trimmed and lower cased to match tokens, empty words are ignored
+	 * @param words stop words
+	 */
+	public StopWords(String[] words){
+		
+		int capacity = 16;
+		while(capacity < words.length * 2){
+			capacity <<= 1;
+		}
+		table = new String[capacity];
+		mask = capacity - 1;
+		
+		int count = 0;
+		for(String word : words){
+			String stopWord = word.trim().toLowerCase();
+			if(stopWord.isEmpty()) continue;
+			
+			int slot = spread(stopWord.hashCode()) & mask;
+			while(table[slot] != null && !table[slot].equals(stopWord)){
+				slot = (slot + 1) & mask;
+			}
+			if(table[slot] == null){
+				table[slot] = stopWord;
+				count++;
+			}
+		}
+		size = count;
+	}
+	
+	/**
+	 * Check if a token is a stop word
+	 * @param token token to check
+	 * @return true if token is a stop word
+	 */
+	public boolean contains(CharSequence token){
+		
+		int slot = spread(hash(token)) & mask;
+		while(table[slot] != null){
+			if(equal(table[slot], token)){
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return number of stop words in set
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * @return the same hash String.hashCode gives for the characters
+	 */
+	private static int hash(CharSequence chars){
+		
+		int h = 0;
+		for(int i = 0; i < chars.length(); i++){
+			h = 31 * h + chars.charAt(i);
+		}
+		return h;
+	}
+	
+	/**
+	 * Mix the high bits of a hash into the low bits used to pick a slot
+	 */
+	private static int spread(int h){
+		return h ^ (h >>> 16);
+	}
+	
+	private static boolean equal(String word, CharSequence token){
+		
+		if(word.length() != token.length()) return false;
+		for(int i = 0; i < word.length(); i++){
+			if(word.charAt(i) != token.charAt(i)) return false;
+		}
+		return true;
+	}
+}
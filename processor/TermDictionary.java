@@ -0,0 +1,78 @@
+package processor;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every distinct term of a Dataset an int id, counting up from 0.
+ * Documents and postings store term ids instead of Strings so each term String
+ * is held once for the whole set.
+ * Ids can be added from several threads at once.
+ */
+public class TermDictionary {
+	
+	private final ConcurrentHashMap<String, Integer> ids;
+	private volatile String[] terms;
+	private int size;
+	
+	/**
+	 * Class constructor
+	 * Creates an empty dictionary
+	 */
+	public TermDictionary(){
+		
+		ids = new ConcurrentHashMap<>();
+		terms = new String[1024];
+		size = 0;
+	}
+	
+	/**
+	 * Get the id of a term, giving it the next id if it is new
+	 * @param term term to look up
+	 * @return id of term
+	 */
+	public int getOrAdd(String term){
+		
+		Integer id = ids.get(term);
+		if(id != null){
+			return id;
+		}
+		synchronized(this){
+			id = ids.get(term);
+			if(id == null){
+				if(size == terms.length){
+					terms = Arrays.copyOf(terms, size * 2);
+				}
+				id = size;
+				terms[size++] = term;
+				ids.put(term, id);
+			}
+			return id;
+		}
+	}
+	
+	/**
+	 * @param term term to look up
+	 * @return id of term or -1 if it is not in the dictionary
+	 */
+	public int getId(String term){
+		
+		Integer id = ids.get(term);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * @param id id of term
+	 * @return the term with the id
+	 */
+	public String getTerm(int id){
+		return terms[id];
+	}
+	
+	/**
+	 * @return number of terms in the dictionary
+	 */
+	public synchronized int size(){
+		return size;
+	}
+}
@@ -0,0 +1,161 @@
+package processor;
+
+/**
+ * Splits text into lowercase a-z tokens in a single pass over its characters.
+ * Text can be fed in chunks, tokens that span chunks are joined.
+ * Upper case letters are folded to lower case, whitespace, hyphens and periods
+ * separate tokens, every other character is dropped and any occurrence of "quot"
+ * becomes a token of its own.
+ * Tokens are passed to a TokenConsumer as a reusable CharSequence view over the
+ * tokenizer's buffer, so no String is made unless the consumer asks for one.
+ * A Tokenizer is not thread safe, use one per thread.
+ */
+public class Tokenizer {
+
+	private static final char[] QUOT = {'q', 'u', 'o', 't'};
+
+	/**
+	 * Receives each token as it is found
+	 */
+	public interface TokenConsumer {
+
+		/**
+		 * @param token view of the token, only valid during the call
+		 * @throws Exception to stop tokenizing
+		 */
+		void accept(CharSequence token) throws Exception;
+	}
+
+	/**
+	 * A CharSequence over part of the token buffer
+	 */
+	private final class TokenView implements CharSequence {
+
+		private int start;
+		private int end;
+
+		@Override
+		public int length(){
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index){
+			return buffer[start + index];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to){
+			return new String(buffer, start + from, to - from);
+		}
+
+		@Override
+		public String toString(){
+			return new String(buffer, start, end - start);
+		}
+	}
+
+	private final TokenConsumer consumer;
+	private final TokenView view;
+	private char[] buffer;
+	private int length;
+
+	/**
+	 * Class constructor
+	 * @param consumer TokenConsumer to pass tokens to
+	 */
+	public Tokenizer(TokenConsumer consumer){
+
+		this.consumer = consumer;
+		view = new TokenView();
+		buffer = new char[32];
+		length = 0;
+	}
+
+	/**
+	 * Tokenize a chunk of text
+	 * @param chars characters of chunk
+	 * @param start index of first character
+	 * @param count number of characters
+	 * @throws Exception thrown by the consumer
+	 */
+	public void feed(char[] chars, int start, int count) throws Exception {
+
+		for(int i = start; i < start + count; i++){
+			next(chars[i]);
+		}
+	}
+
+	/**
+	 * Tokenize a chunk of text
+	 * @param text chunk
+	 * @throws Exception thrown by the consumer
+	 */
+	public void feed(CharSequence text) throws Exception {
+
+		for(int i = 0; i < text.length(); i++){
+			next(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Pass on the token at the end of the text, if there is one
+	 * The tokenizer can then be fed the next text.
+	 * @throws Exception thrown by the consumer
+	 */
+	public void finish() throws Exception {
+		emit(0, length);
+		length = 0;
+	}
+
+	/**
+	 * Handle one character
+	 */
+	private void next(char c) throws Exception {
+
+		if(c >= 'A' && c <= 'Z'){
+			c = (char)(c + ('a' - 'A'));
+		}
+
+		if(c >= 'a' && c <= 'z'){
+			if(length == buffer.length){
+				char[] bigger = new char[buffer.length * 2];
+				System.arraycopy(buffer, 0, bigger, 0, length);
+				buffer = bigger;
+			}
+			buffer[length++] = c;
+			if(endsWithQuot()){
+				emit(0, length - QUOT.length);
+				emit(length - QUOT.length, length);
+				length = 0;
+			}
+		}else if(c == '-' || c == '.' || Character.isWhitespace(c)){
+			emit(0, length);
+			length = 0;
+		}
+	}
+
+	/**
+	 * @return true if the buffer ends with "quot"
+	 */
+	private boolean endsWithQuot(){
+
+		if(length < QUOT.length) return false;
+		for(int i = 0; i < QUOT.length; i++){
+			if(buffer[length - QUOT.length + i] != QUOT[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Pass buffer[start, end) to the consumer if it is not empty
+	 */
+	private void emit(int start, int end) throws Exception {
+
+		if(end > start){
+			view.start = start;
+			view.end = end;
+			consumer.accept(view);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package processor;
+
+/**
+ * The ranked results of a query.
+ * Parallel arrays of document ids and scores, best result first.
+ */
+public class TopDocs {
+	
+	private final int[] docIds;
+	private final double[] scores;
+	
+	/**
+	 * Class constructor
+	 * @param docIds ranked document ids
+	 * @param scores score of each document
+	 */
+	TopDocs(int[] docIds, double[] scores){
+		
+		this.docIds = docIds;
+		this.scores = scores;
+	}
+	
+	/**
+	 * @return number of results
+	 */
+	public int size(){
+		return docIds.length;
+	}
+	
+	/**
+	 * @param rank position of result, 0 is best
+	 * @return document id of the result
+	 */
+	public int getDocId(int rank){
+		return docIds[rank];
+	}
+	
+	/**
+	 * @param rank position of result, 0 is best
+	 * @return score of the result
+	 */
+	public double getScore(int rank){
+		return scores[rank];
+	}
+}
@@ -0,0 +1,150 @@
+package processor;
+
+/**
+ * A bounded min-heap that keeps the k best (docId, score) pairs offered to it.
+ * Scores and ids are held in primitive arrays so collecting results allocates
+ * nothing per document and never boxes a score.
+ * Documents are ranked by score, highest first, with ties going to the lower docId.
+ */
+public class TopKHeap {
+	
+	private final int[] docIds;
+	private final double[] scores;
+	private int size;
+	
+	/**
+	 * Class constructor
+	 * @param k maximum number of results to keep
+	 */
+	public TopKHeap(int k){
+		
+		docIds = new int[k];
+		scores = new double[k];
+		size = 0;
+	}
+	
+	/**
+	 * Offer a scored document to the heap
+	 * It is kept if the heap is not full or it ranks above the current worst result
+	 * @param docId id of document
+	 * @param score relevance score of document
+	 * @return true if the document was kept
+	 */
+	public boolean offer(int docId, double score){
+		
+		if(size < docIds.length){
+			docIds[size] = docId;
+			scores[size] = score;
+			siftUp(size++);
+			return true;
+		}
+		if(size == 0 || !ranksAbove(score, docId, scores[0], docIds[0])){
+			return false;
+		}
+		docIds[0] = docId;
+		scores[0] = score;
+		siftDown(0);
+		return true;
+	}
+	
+	/**
+	 * @return true when k results are held
+	 */
+	public boolean isFull(){
+		return size == docIds.length;
+	}
+	
+	/**
+	 * The score a document has to beat to get into a full heap
+	 * @return score of the worst result kept or negative infinity when the heap is not full
+	 */
+	public double threshold(){
+		
+		if(!isFull() || size == 0){
+			return Double.NEGATIVE_INFINITY;
+		}
+		return scores[0];
+	}
+	
+	/**
+	 * @return number of results held
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * Empty the heap and return its results ranked best first
+	 * @return TopDocs
+	 */
+	public TopDocs toTopDocs(){
+		
+		int n = size;
+		int[] rankedIds = new int[n];
+		double[] rankedScores = new double[n];
+		
+		//repeatedly remove the worst result, filling the arrays from the back
+		for(int i = n - 1; i >= 0; i--){
+			rankedIds[i] = docIds[0];
+			rankedScores[i] = scores[0];
+			size--;
+			docIds[0] = docIds[size];
+			scores[0] = scores[size];
+			siftDown(0);
+		}
+		return new TopDocs(rankedIds, rankedScores);
+	}
+	
+	/**
+	 * @return true if document a ranks above document b
+	 */
+	private static boolean ranksAbove(double scoreA, int docA, double scoreB, int docB){
+		
+		if(scoreA != scoreB){
+			return scoreA > scoreB;
+		}
+		return docA < docB;
+	}
+	
+	private void siftUp(int i){
+		
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			if(!ranksAbove(scores[parent], docIds[parent], scores[i], docIds[i])){
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+	
+	private void siftDown(int i){
+		
+		while(true){
+			int left = 2 * i + 1;
+			if(left >= size){
+				break;
+			}
+			int worst = left;
+			int right = left + 1;
+			if(right < size && ranksAbove(scores[left], docIds[left], scores[right], docIds[right])){
+				worst = right;
+			}
+			if(!ranksAbove(scores[i], docIds[i], scores[worst], docIds[worst])){
+				break;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+	
+	private void swap(int a, int b){
+		
+		int id = docIds[a];
+		docIds[a] = docIds[b];
+		docIds[b] = id;
+		double score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+	}
+}
@@ -0,0 +1,127 @@
+package processor;
+
+import java.util.Arrays;
+
+/**
+ * Stores each doc id gap and term frequency as a variable byte integer,
+ * 7 bits to a byte with the high bit set on every byte but the last.
+ * Most gaps and frequencies fit in one byte, so a posting usually takes 2 bytes.
+ * The gaps of a block are written before its frequencies so either can be decoded alone.
+ */
+public class VByteCodec implements PostingsCodec {
+
+	public static final String NAME = "vbyte";
+
+	private static final class VBytePostings extends BlockPostings {
+
+		private final byte[] bytes;
+		//offsets in to bytes of the gaps and of the frequencies of each block
+		private final int[] docOffsets;
+		private final int[] tfOffsets;
+
+		private VBytePostings(PostingsList postings){
+
+			super(postings);
+			docOffsets = new int[blockBases.length];
+			tfOffsets = new int[blockBases.length];
+			byte[] out = new byte[Math.max(16, size * 2)];
+			int length = 0;
+
+			for(int b = 0; b < blockBases.length; b++){
+				int start = b << BLOCK_SHIFT;
+				int end = start + blockLength(b);
+				if(out.length - length < (end - start) * 10){
+					out = Arrays.copyOf(out, Math.max(out.length * 2, length + (end - start) * 10));
+				}
+
+				docOffsets[b] = length;
+				int previous = blockBases[b];
+				for(int i = start; i < end; i++){
+					int docId = postings.getDocId(i);
+					length = write(out, length, docId - previous - 1);
+					previous = docId;
+				}
+
+				tfOffsets[b] = length;
+				for(int i = start; i < end; i++){
+					length = write(out, length, postings.getTf(i) - 1);
+				}
+			}
+			bytes = Arrays.copyOf(out, length);
+		}
+
+		@Override
+		protected void decodeDocIds(int b, int[] docIds){
+
+			int length = blockLength(b);
+			read(bytes, docOffsets[b], length, docIds);
+			int docId = blockBases[b];
+			for(int i = 0; i < length; i++){
+				docId += docIds[i] + 1;
+				docIds[i] = docId;
+			}
+		}
+
+		@Override
+		protected void decodeTfs(int b, int[] termFrequencies){
+
+			int length = blockLength(b);
+			read(bytes, tfOffsets[b], length, termFrequencies);
+			for(int i = 0; i < length; i++){
+				termFrequencies[i]++;
+			}
+		}
+
+		@Override
+		public long getSizeInBytes(){
+			return bytes.length + (long)blockBases.length * 12;
+		}
+	}
+
+	/**
+	 * Write a variable byte integer
+	 * @param out bytes to write in to, must have room for 5 more bytes
+	 * @param position where to write
+	 * @param value value to write, treated as unsigned
+	 * @return position after the value
+	 */
+	static int write(byte[] out, int position, int value){
+
+		while((value & ~0x7f) != 0){
+			out[position++] = (byte)((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out[position++] = (byte)value;
+		return position;
+	}
+
+	/**
+	 * Read length variable byte integers starting at position
+	 * @return position after the values
+	 */
+	static int read(byte[] bytes, int position, int length, int[] values){
+
+		for(int i = 0; i < length; i++){
+			byte next = bytes[position++];
+			int value = next & 0x7f;
+			int shift = 7;
+			while(next < 0){
+				next = bytes[position++];
+				value |= (next & 0x7f) << shift;
+				shift += 7;
+			}
+			values[i] = value;
+		}
+		return position;
+	}
+
+	@Override
+	public String getName(){
+		return NAME;
+	}
+
+	@Override
+	public EncodedPostings encode(PostingsList postings){
+		return new VBytePostings(postings);
+	}
+}
@@ -8,9 +8,67 @@ import java.util.ArrayList;
  * @since 05/06/2017
  * 
  * performs tf*idf and BM25 weighting
+ * and BM25F weighting of the title and body of documents as separate fields
  */
 public class Weighting {
 	
+	/**
+	 * Boosts and length normalisation of the title and body fields for BM25F.
+	 * A field with a boost of 0 is not scored at all, so a title only search never
+	 * has to read the postings of the bodies.
+	 */
+	public static final class FieldWeights {
+		
+		public static final double DEFAULT_TITLE_BOOST = 2.0;
+		public static final double DEFAULT_BODY_BOOST = 1.0;
+		//titles are all about as long as each other so their length counts for less
+		public static final double DEFAULT_TITLE_B = 0.5;
+		public static final double DEFAULT_BODY_B = 0.75;
+		public static final FieldWeights DEFAULT = new FieldWeights(DEFAULT_TITLE_BOOST, DEFAULT_TITLE_B, DEFAULT_BODY_BOOST, DEFAULT_BODY_B);
+		
+		private final double titleBoost;
+		private final double titleB;
+		private final double bodyBoost;
+		private final double bodyB;
+		
+		/**
+		 * Class constructor
+		 * @param titleBoost weight of an occurrence in the title
+		 * @param titleB how much the length of the title normalises its term frequencies, 0 to 1
+		 * @param bodyBoost weight of an occurrence in the body
+		 * @param bodyB how much the length of the body normalises its term frequencies, 0 to 1
+		 */
+		public FieldWeights(double titleBoost, double titleB, double bodyBoost, double bodyB){
+			
+			this.titleBoost = titleBoost;
+			this.titleB = titleB;
+			this.bodyBoost = bodyBoost;
+			this.bodyB = bodyB;
+		}
+		
+		/**
+		 * @return the same weights with the body not scored
+		 */
+		public FieldWeights titleOnly(){
+			return new FieldWeights(titleBoost, titleB, 0.0, bodyB);
+		}
+		
+		public double getTitleBoost(){
+			return titleBoost;
+		}
+		
+		public double getBodyBoost(){
+			return bodyBoost;
+		}
+		
+		/**
+		 * get the boost and length normalisation of each field
+		 */
+		public String toString(){
+			return "title " + titleBoost + "/" + titleB + " body " + bodyBoost + "/" + bodyB;
+		}
+	}
+	
 	 /**
 	  * Calculate BM25 weighting, relevance of a doc to a query term
 	  * where 1.0 is relevant and 0.0  is non-relevant
@@ -24,59 +82,231 @@ public class Weighting {
 	/**
 	 * 
 	 * @param doc Bow Document to calculate bm25 score for
-	 * @param docs set of document that doc exists within
+	 * @param stats statistics of the set that doc exists within
 	 * @param query query to use to judge doc's relevance
 	 * @return documents relevance score for query
 	 */
 	 public static double calculateBM25(
 			 BowDocument doc,
-			 ArrayList<BowDocument> docs,			
+			 CorpusStats stats,			
 			 ArrayList<String> query){				
 		 
-		 double numDocs = (double) docs.size();
 		 double docLength = (double)doc.getNumTerms();
-		 double avgDocLength = (double)doc.getTotalDocLength() / numDocs;		
-		 double b = 0.75;		 
-		 double K = 1.2 * ((1 - b) + b * (docLength / avgDocLength));	
+		 double K = calcK(docLength, stats.getAvgDocLength());	
 		 double sum = 0.0;
 		 
 		 for(String term : query){
 			 
-			 double df = calcDf(docs, term);			 
+			 double idf = stats.getBm25Idf(term);			 
 			 double tf = calcTf(doc, term);			 
 			 double tfInQuery = calcTermFrequencyInQuery(query, term);
-			 sum += calcBM(numDocs, tf, df, K, tfInQuery);
+			 sum += calcBM(idf, tf, K, tfInQuery);
 		 }	 
 		 return sum;
 	 }
 	 
+	 /**
+	  * Calculate BM25 scores for every document in an index, term at a time.
+	  * Only the postings of the query terms are visited, so the cost grows with the
+	  * number of matching postings rather than the size of the index.
+	  * Postings are read a block at a time, so a compressed list is decoded in whole blocks.
+	  * Gives the same score as calculateBM25(doc, stats, query) for each document.
+	  * Postings are read through an IndexReader so a mapped index is scored straight from its bytes.
+	  * @param index IndexReader of the dataset
+	  * @param query query to use to judge the documents relevance
+	  * @return array of relevance scores indexed by document id, 0 for deleted documents
+	  */
+	 public static double[] calculateBM25(
+			 IndexReader index,
+			 ArrayList<String> query){
+		 
+		 double avgDocLength = index.getAvgDocLength();
+		 double[] scores = new double[index.getMaxDoc()];
+		 int[] docIds = new int[BlockPostings.BLOCK_SIZE];
+		 int[] termFrequencies = new int[BlockPostings.BLOCK_SIZE];
+		 
+		 //terms are visited in query order so repeated terms add up the same way as calculateBM25
+		 for(String term : query){
+			 
+			 PostingsList postings = index.getPostings(term);
+			 if(postings == null) continue;
+			 
+			 double idf = index.getBm25Idf(term);
+			 double tfInQuery = calcTermFrequencyInQuery(query, term);
+			 
+			 //a block of postings is read at a time and then scored
+			 for(int i = 0; i < postings.size(); ){
+				 int n = postings.read(i, docIds, termFrequencies);
+				 for(int j = 0; j < n; j++){
+					 int docId = docIds[j];
+					 if(index.isDeleted(docId)) continue;
+					 double K = calcK(index.getDocLength(docId), avgDocLength);
+					 double tf = normaliseTf(termFrequencies[j]);
+					 scores[docId] += calcBM(idf, tf, K, tfInQuery);
+				 }
+				 i += n;
+			 }
+		 }
+		 return scores;
+	 }
+	 
+	 /**
+	  * Calculate BM25F weighting of a doc, with its title and body scored as fields.
+	  * The term frequency of each field is normalised by the length of the field and
+	  * weighted by its boost, and the sum goes through the BM25 saturation once,
+	  * so a term repeated in both fields does not count twice over.
+	  * The body is every term of the doc that is not in its title.
+	  * @param doc Bow Document to calculate BM25F score for
+	  * @param stats statistics of the set that doc exists within
+	  * @param query query to use to judge doc's relevance
+	  * @param weights FieldWeights of the fields
+	  * @return documents relevance score for query
+	  */
+	 public static double calculateBM25F(
+			 BowDocument doc,
+			 CorpusStats stats,
+			 ArrayList<String> query,
+			 FieldWeights weights){
+		 
+		 int titleLength = doc.getNumTitleTerms();
+		 int bodyLength = doc.getNumTerms() - titleLength;
+		 double sum = 0.0;
+		 
+		 for(String term : query){
+			 
+			 int termId = doc.getDictionary().getId(term);
+			 int tf = termId < 0 ? 0 : doc.getTermCount(termId);
+			 int titleTf = termId < 0 ? 0 : doc.getTitleTermCount(termId);
+			 double fieldsTf = calcFieldsTf(weights, titleTf, titleLength, stats.getAvgTitleLength(),
+					 tf - titleTf, bodyLength, stats.getAvgBodyLength());
+			 sum += calcBM25F(stats.getBm25Idf(term), fieldsTf, calcTermFrequencyInQuery(query, term));
+		 }
+		 return sum;
+	 }
+	 
+	 /**
+	  * Combine the term frequencies of the fields of a doc for BM25F
+	  * @param weights FieldWeights of the fields
+	  * @param titleTf occurrences of the term in the title
+	  * @param titleLength number of terms in the title
+	  * @param avgTitleLength average number of terms in a title of the set
+	  * @param bodyTf occurrences of the term in the body
+	  * @param bodyLength number of terms in the body
+	  * @param avgBodyLength average number of terms in a body of the set
+	  * @return sum of the boosted, length normalised term frequencies of the fields
+	  */
+	 static double calcFieldsTf(
+			 FieldWeights weights,
+			 int titleTf,
+			 int titleLength,
+			 double avgTitleLength,
+			 int bodyTf,
+			 int bodyLength,
+			 double avgBodyLength){
+		 
+		 return weights.titleBoost * calcFieldTf(titleTf, titleLength, avgTitleLength, weights.titleB)
+				 + weights.bodyBoost * calcFieldTf(bodyTf, bodyLength, avgBodyLength, weights.bodyB);
+	 }
+	 
+	 /**
+	  * Normalise the term frequency of one field by the length of the field
+	  * @param tf occurrences of the term in the field
+	  * @param fieldLength number of terms in the field
+	  * @param avgFieldLength average number of terms in the field, 0 when no doc has the field
+	  * @param b how much the length normalises the frequency
+	  * @return normalised term frequency divided by (1 - b) + b * fieldLength / avgFieldLength
+	  */
+	 static double calcFieldTf(
+			 double tf,
+			 double fieldLength,
+			 double avgFieldLength,
+			 double b){
+		 
+		 if(tf == 0.0) return 0.0;
+		 double norm = avgFieldLength > 0 ? (1 - b) + b * (fieldLength / avgFieldLength) : 1.0;
+		 return normaliseTf(tf) / norm;
+	 }
+	 
+	 /**
+	  * Perform the BM25F equation, BM25 with the length normalisation already in the term frequency
+	  * @param idf BM25 inverse document frequency of query term
+	  * @param fieldsTf combined term frequency of the fields from calcFieldsTf
+	  * @param tfInQuery term frequency of query term in query
+	  * @return BM25F score for a query term
+	  */
+	 static double calcBM25F(
+			 double idf,
+			 double fieldsTf,
+			 double tfInQuery){
+		 
+		 return idf *
+				 ((2.2 * fieldsTf) / (1.2 + fieldsTf) * 101.0 / (100.0 + tfInQuery));
+	 }
+	 
+	 /**
+	  * Calculate the document length normalisation K of the BM25 equation
+	  * @param docLength number of terms in the document
+	  * @param avgDocLength average number of terms in a document of the set
+	  * @return K
+	  */
+	 static double calcK(
+			 double docLength,
+			 double avgDocLength){
+		 
+		 double b = 0.75;
+		 return 1.2 * ((1 - b) + b * (docLength / avgDocLength));
+	 }
+	 
 	 /**
 	  * Perform the BM25 equation
-	  * @param numDocs number of documents in set
+	  * @param idf BM25 inverse document frequency of query term
 	  * @param tf term frequency of query term in doc
-	  * @param df doc frequency of query term
 	  * @param K 
 	  * @param tfInQuery term frequency of query term in query
 	  * @return BM25 score for a query term
 	  */
-	 private static double calcBM(
-			 double numDocs,
+	 static double calcBM(
+			 double idf,
 			 double tf,
-			 double df,
 			 double K,
 			 double tfInQuery){
 		 
-		 return (Math.log((numDocs - df + 0.5) / (df + 0.5))) *
+		 return idf *
 				 ((2.2 * tf) / (K + tf) * 101.0 / (100.0 + tfInQuery));
 	 }
 	 
+	 /**
+	  * The part of the BM25 equation that depends on the document
+	  * used to bound the score a term can give any document
+	  * @param tf normalised term frequency of term in doc
+	  * @param K document length normalisation
+	  * @return (2.2 * tf) / (K + tf)
+	  */
+	 static double calcTfWeight(
+			 double tf,
+			 double K){
+		 
+		 return (2.2 * tf) / (K + tf);
+	 }
+	 
+	 /**
+	  * The part of the BM25 equation that depends on the query
+	  * @param tfInQuery term frequency of query term in query
+	  * @return 101 / (100 + tfInQuery)
+	  */
+	 static double calcQueryWeight(
+			 double tfInQuery){
+		 
+		 return 101.0 / (100.0 + tfInQuery);
+	 }
+	 
 	 /**
 	  * Calculate the terms frequency in the query
 	  * @param query
 	  * @param term
 	  * @return number of occurrences of term in query
 	  */
-	 private static double calcTermFrequencyInQuery(
+	 static double calcTermFrequencyInQuery(
 			 ArrayList<String> query, 
 			 String term){
 		 
@@ -103,54 +333,35 @@ public class Weighting {
 		if(doc.containsTerm(term)) termFrequency = doc.getTermCount(term);			
 
 		
-		if(termFrequency == 0.0) return termFrequency;
-		return 1 + (Math.log10(termFrequency));		
+		return normaliseTf(termFrequency);
 	}
 	
 	/**
-	 * Calculate the document frequency(df)
-	 * of a specified term in a set of documents
-	 * @param docs ArrayList<BowDocument>
-	 * @param term	String term to use
-	 * @return double document frequency of term
+	 * Normalise a raw term count
+	 * @param termFrequency number of occurrences of a term in a document
+	 * @return normalised term frequency
 	 */
-	private static double calcDf(
-			ArrayList<BowDocument> docs,
-			String term){
+	static double normaliseTf(
+			double termFrequency){
 		
-		double df = 0.0;		
-		for(BowDocument doc : docs){
-			if(doc.containsTerm(term)){
-				df++;
-			}
-		}		
-		return df;
-	}
-	
-	/**
-	 * Calculate the inverse document frequency (idf) of a term and normalize
-	 * @param numberOfDocs total number of docs in a set
-	 * @param df document frequency of a term
-	 * @return normalized idf
-	 */
-	private static double calcIdf(double numberOfDocs, double df){		
-		return Math.log10(numberOfDocs / df);
+		if(termFrequency == 0.0) return termFrequency;
+		return 1 + (Math.log10(termFrequency));		
 	}
 	
 	/**
 	 * Calculate the tfidf weighting
-	 * @param docs ArrayList<BowDocument> set of bow documents
+	 * @param stats statistics of the set of bow documents
 	 * @param doc a single BowDocument
 	 * @param term the term to use
 	 * @return tf * idf
 	 */
 	public static double calcTfidf(	
-			ArrayList<BowDocument> docs,
+			CorpusStats stats,
 			BowDocument doc,
 			String term){
 		
 		double tf = calcTf(doc, term);			
-		double idf = calcIdf(docs.size(), calcDf(docs, term));
+		double idf = stats.getIdf(term);
 		
 		return tf * idf;
 	}
@@ -0,0 +1,52 @@
+package processor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the thread pools used for parallel work.
+ * Virtual threads are used when asked for and the JVM supports them (Java 21+),
+ * otherwise a fixed pool of daemon platform threads is used.
+ */
+public class Workers {
+	
+	/**
+	 * Make a pool of workers
+	 * @param numThreads number of platform threads, ignored for virtual threads
+	 * @param virtual true to run each task on its own virtual thread
+	 * @param name prefix for the names of platform threads
+	 * @return ExecutorService
+	 */
+	public static ExecutorService newPool(
+			int numThreads, 
+			boolean virtual,
+			String name){
+		
+		if(virtual){
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService)factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.out.println("Virtual threads not supported by this JVM, using " + numThreads + " platform threads");
+			}
+		}
+		return Executors.newFixedThreadPool(Math.max(1, numThreads), daemonFactory(name));
+	}
+	
+	/**
+	 * @param name prefix for thread names
+	 * @return ThreadFactory making numbered daemon threads
+	 */
+	private static ThreadFactory daemonFactory(String name){
+		
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,154 @@
+package processor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the parts of a news XML document that are indexed.
+ * The itemid attribute of the root element and the character content of the
+ * <title> and <text> elements are pulled with StAX and handed to a Handler chunk
+ * by chunk as the parser reaches them, so the file is never held as one String.
+ * Element boundaries inside those elements (such as <p> tags) are passed on as a
+ * space so words either side of a tag are not joined.
+ * The handler is told which element the text that follows belongs to, so the title
+ * can be kept as a field of its own.
+ */
+public class XmlDocumentReader {
+
+	private static final String ROOT_ELEMENT = "newsitem";
+	private static final String ID_ATTRIBUTE = "itemid";
+	public static final String TITLE_ELEMENT = "title";
+	public static final String TEXT_ELEMENT = "text";
+	private static final char[] SEPARATOR = {' '};
+
+	//factories are not guaranteed to be thread safe, so each ingest thread gets its own
+	private static final ThreadLocal<XMLInputFactory> FACTORY = ThreadLocal.withInitial(() -> {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	});
+
+	/**
+	 * Receives the indexed parts of a document as they are read
+	 */
+	public interface Handler {
+
+		/**
+		 * Called once with the itemid of the document, before any text
+		 * @param docId itemid attribute of the root element
+		 * @throws Exception to stop reading
+		 */
+		void docId(String docId) throws Exception;
+
+		/**
+		 * Called at the start of each title or text element, before its text
+		 * The text of the element before has ended in a separator by then.
+		 * @param element TITLE_ELEMENT or TEXT_ELEMENT
+		 * @throws Exception to stop reading
+		 */
+		default void field(String element) throws Exception{
+		}
+
+		/**
+		 * Called with each chunk of title or text content
+		 * The array is owned by the parser and is only valid during the call.
+		 * @param chars characters of chunk
+		 * @param start index of first character
+		 * @param length number of characters
+		 * @throws Exception to stop reading
+		 */
+		void text(char[] chars, int start, int length) throws Exception;
+	}
+
+	/**
+	 * Read an XML document, passing its id and text to a handler
+	 * @param file XML file to read
+	 * @param handler Handler to pass parts to
+	 * @throws Exception if the file can not be parsed or has no itemid
+	 */
+	public static void read(
+			File file,
+			Handler handler)
+					throws Exception{
+
+		try(InputStream in = new BufferedInputStream(new FileInputStream(file))){
+			XMLStreamReader reader = FACTORY.get().createXMLStreamReader(in);
+			try {
+				read(reader, handler);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new Exception("Could not parse " + file.getName() + " : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Pull events from a reader until the end of the document
+	 */
+	private static void read(
+			XMLStreamReader reader,
+			Handler handler)
+					throws Exception{
+
+		boolean foundId = false;
+
+		//depth inside a title or text element, 0 when outside
+		int fieldDepth = 0;
+
+		while(reader.hasNext()){
+			switch(reader.next()){
+
+			case XMLStreamConstants.START_ELEMENT:
+				String name = reader.getLocalName();
+				if(!foundId && name.equals(ROOT_ELEMENT)){
+					String docId = reader.getAttributeValue(null, ID_ATTRIBUTE);
+					if(docId != null){
+						handler.docId(docId);
+						foundId = true;
+					}
+				}
+				if(fieldDepth > 0){
+					fieldDepth++;
+					handler.text(SEPARATOR, 0, 1);
+				}else if(name.equals(TITLE_ELEMENT) || name.equals(TEXT_ELEMENT)){
+					if(!foundId) throw new Exception("No Doc id found");
+					fieldDepth = 1;
+					handler.field(name);
+				}
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+				if(fieldDepth > 0){
+					fieldDepth--;
+					handler.text(SEPARATOR, 0, 1);
+				}
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				if(fieldDepth > 0){
+					handler.text(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				}
+				break;
+
+			default:
+				break;
+			}
+		}
+
+		if(!foundId){
+			throw new Exception("No Doc id found");
+		}
+	}
+}